@@ -0,0 +1,205 @@
+package de.landsh.opendata;
+
+import lombok.Data;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.codec.digest.MessageDigestAlgorithms;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+
+/**
+ * Unterschied zwischen der lokalen Kopie einer CSV-Datei und ihrer neuen Fassung. Bei Datensätzen, an die nur
+ * Zeilen angehängt werden, beginnt die neue Fassung mit dem vollständigen Inhalt der alten. Die neuen Zeilen stehen
+ * dann ab {@link #getOffset()} bis zum Ende der Datei.
+ * <p>
+ * Beide Dateien werden nur gelesen, nicht in den Speicher geladen. Ist die SHA-256-Prüfsumme der alten Fassung
+ * bekannt, wird nur die neue Fassung einmal gelesen. Die erste Zeile ist die Kopfzeile und wird bei der Anzahl der
+ * Zeilen nicht mitgezählt. Gezählt werden Zeilenumbrüche, nicht CSV-Datensätze: Ein Zeilenumbruch innerhalb eines
+ * Feldes in Anführungszeichen beginnt hier eine neue Zeile.
+ */
+@Data
+public class CsvDelta {
+
+    /**
+     * <code>true</code>, wenn die neue Fassung nur um Zeilen ergänzt wurde
+     */
+    private final boolean append;
+    private final long previousLines;
+    private final long currentLines;
+    /**
+     * Position in der neuen Fassung, an der die neuen Zeilen beginnen. Wurde nicht nur ergänzt, ist es der Anfang
+     * der ersten geänderten Zeile.
+     */
+    private final long offset;
+    /**
+     * Länge der neuen Zeilen in Bytes
+     */
+    private final long length;
+    /**
+     * Nummer der ersten geänderten Zeile, 0 ist die Kopfzeile; -1 wenn nur ergänzt wurde
+     */
+    private final long firstChangedLine;
+
+    /**
+     * Vergleicht die lokale Kopie mit der neuen Fassung einer CSV-Datei.
+     */
+    public static CsvDelta compute(File previous, File current) throws IOException {
+        return compute(previous, FileManifest.sha256(previous), current);
+    }
+
+    /**
+     * Vergleicht die lokale Kopie mit der neuen Fassung einer CSV-Datei. Die neue Fassung wird einmal gelesen; dabei
+     * wird die Prüfsumme ihres Anfangs mit <code>previousSha256</code> verglichen. Nur wenn die Datei nicht nur
+     * ergänzt wurde, wird auch die lokale Kopie gelesen, um die erste geänderte Zeile zu finden.
+     *
+     * @param previousSha256 SHA-256-Prüfsumme der lokalen Kopie, z.B. aus ihrem {@link FileManifest}
+     */
+    public static CsvDelta compute(File previous, String previousSha256, File current) throws IOException {
+        final long previousLength = previous.length();
+        final long currentLength = current.length();
+
+        if (currentLength >= previousLength) {
+            final MessageDigest digest = DigestUtils.getDigest(MessageDigestAlgorithms.SHA_256);
+            long newlines = 0;
+            long newlinesInPrefix = 0;
+            int lastOfPrefix = -1;
+            int firstAfterPrefix = -1;
+            int last = '\n';
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(current.toPath()))) {
+                long i = 0;
+                for (int b = in.read(); b != -1; b = in.read(), i++) {
+                    if (i < previousLength) {
+                        digest.update((byte) b);
+                        lastOfPrefix = b;
+                    } else if (i == previousLength) {
+                        firstAfterPrefix = b;
+                        newlinesInPrefix = newlines;
+                    }
+                    if (b == '\n') {
+                        newlines++;
+                    }
+                    last = b;
+                }
+                if (i == previousLength) {
+                    newlinesInPrefix = newlines;
+                }
+            }
+            final long currentLines = countLines(newlines, last);
+
+            if (previousSha256 != null && previousSha256.equals(DigestUtils.sha256Hex(digest.digest()))) {
+                // Die alte Datei ist der Anfang der neuen. Fehlte am Ende der alten Datei der Zeilenumbruch, muss
+                // die neue Datei an dieser Stelle einen haben.
+                if (previousLength == 0 || lastOfPrefix == '\n' || currentLength == previousLength) {
+                    final long previousLines = countLines(newlinesInPrefix, previousLength == 0 ? '\n' : lastOfPrefix);
+                    return new CsvDelta(true, previousLines, currentLines, previousLength,
+                            currentLength - previousLength, -1);
+                }
+                if (firstAfterPrefix == '\n') {
+                    return new CsvDelta(true, countLines(newlinesInPrefix + 1, '\n'), currentLines,
+                            previousLength + 1, currentLength - previousLength - 1, -1);
+                }
+            }
+        }
+        return compareBytes(previous, current);
+    }
+
+    /**
+     * Vergleicht beide Dateien byteweise, wenn die Prüfsumme nicht weiterhilft.
+     */
+    private static CsvDelta compareBytes(File previous, File current) throws IOException {
+        final long difference = FileComparator.findFirstDifference(previous, current);
+        final long previousLength = previous.length();
+        final long currentLength = current.length();
+
+        if (difference == FileComparator.EQUAL) {
+            final long lines = countLines(current);
+            return new CsvDelta(true, lines, lines, currentLength, 0, -1);
+        }
+
+        long appendedFrom = -1;
+        if (difference == previousLength) {
+            if (previousLength == 0 || byteAt(previous, previousLength - 1) == '\n') {
+                appendedFrom = difference;
+            } else if (byteAt(current, difference) == '\n') {
+                appendedFrom = difference + 1;
+            }
+        }
+
+        final long position = appendedFrom >= 0 ? appendedFrom : difference;
+        long newlines = 0;
+        long linesBefore = 0;
+        long lineStart = 0;
+        int last = '\n';
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(current.toPath()))) {
+            long i = 0;
+            for (int b = in.read(); b != -1; b = in.read(), i++) {
+                if (i == position) {
+                    linesBefore = newlines;
+                }
+                last = b;
+                if (b == '\n') {
+                    newlines++;
+                    if (i < position) {
+                        lineStart = i + 1;
+                    }
+                }
+            }
+            if (position >= i) {
+                linesBefore = newlines;
+            }
+        }
+        final long currentLines = countLines(newlines, last);
+
+        if (appendedFrom >= 0) {
+            return new CsvDelta(true, Math.max(0, linesBefore - 1), currentLines, appendedFrom,
+                    currentLength - appendedFrom, -1);
+        }
+        return new CsvDelta(false, countLines(previous), currentLines, lineStart, currentLength - lineStart,
+                linesBefore);
+    }
+
+    /**
+     * @return Anzahl der neuen Zeilen; bei einer nicht nur ergänzten Datei der Unterschied der Zeilenzahl
+     */
+    public long getAppendedLines() {
+        return currentLines - previousLines;
+    }
+
+    /**
+     * Zählt die Zeilen ohne Kopfzeile.
+     */
+    static long countLines(File file) throws IOException {
+        long newlines = 0;
+        int last = '\n';
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file.toPath()))) {
+            for (int b = in.read(); b != -1; b = in.read()) {
+                last = b;
+                if (b == '\n') {
+                    newlines++;
+                }
+            }
+        }
+        return countLines(newlines, last);
+    }
+
+    /**
+     * @param newlines Anzahl der Zeilenumbrüche
+     * @param last     letztes Byte der Datei; eine letzte Zeile ohne Zeilenumbruch zählt mit
+     * @return Anzahl der Zeilen ohne Kopfzeile
+     */
+    private static long countLines(long newlines, int last) {
+        return Math.max(0, (last == '\n' ? newlines : newlines + 1) - 1);
+    }
+
+    private static int byteAt(File file, long position) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(position);
+            return raf.read();
+        }
+    }
+}
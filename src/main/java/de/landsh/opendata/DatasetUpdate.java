@@ -26,6 +26,10 @@ public class DatasetUpdate {
     Integer dayOfWeek;
     String format = "csv";
     Frequency frequency;
+    /**
+     * Quelldateien nur herunterladen, wenn der Server per ETag oder Last-Modified eine Änderung meldet.
+     */
+    boolean conditionalRequests = true;
 
     public enum Type {
         APPEND, OVERWRITE, METADATA
@@ -0,0 +1,69 @@
+package de.landsh.opendata;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Vergleicht zwei Dateien blockweise, ohne sie vollständig in den Speicher zu laden. Der Vergleich endet beim ersten
+ * unterschiedlichen Block.
+ */
+public final class FileComparator {
+
+    /**
+     * Rückgabewert von {@link #findFirstDifference(File, File)} für identische Dateien.
+     */
+    public static final long EQUAL = -1;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private FileComparator() {
+    }
+
+    /**
+     * Liefert die Position des ersten Bytes, in dem sich die beiden Dateien unterscheiden. Ist eine Datei der Anfang
+     * der anderen, ist das die Länge der kürzeren Datei.
+     *
+     * @return Position des ersten unterschiedlichen Bytes oder {@link #EQUAL}, wenn beide Dateien identisch sind
+     */
+    public static long findFirstDifference(File a, File b) throws IOException {
+        try (FileChannel channelA = FileChannel.open(a.toPath(), StandardOpenOption.READ);
+             FileChannel channelB = FileChannel.open(b.toPath(), StandardOpenOption.READ)) {
+
+            final ByteBuffer bufferA = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            final ByteBuffer bufferB = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            long position = 0;
+
+            while (true) {
+                final int lengthA = readBlock(channelA, bufferA);
+                final int lengthB = readBlock(channelB, bufferB);
+
+                final int mismatch = bufferA.mismatch(bufferB);
+                if (mismatch >= 0) {
+                    return position + mismatch;
+                }
+                if (lengthA < BUFFER_SIZE) {
+                    // beide Dateien sind gleichzeitig zu Ende
+                    return EQUAL;
+                }
+                position += lengthA;
+            }
+        }
+    }
+
+    /**
+     * Füllt den Puffer so weit wie möglich und bereitet ihn zum Lesen vor.
+     *
+     * @return Anzahl der gelesenen Bytes
+     */
+    private static int readBlock(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+            // weiterlesen, bis der Puffer voll oder die Datei zu Ende ist
+        }
+        buffer.flip();
+        return buffer.limit();
+    }
+}
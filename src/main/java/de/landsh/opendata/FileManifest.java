@@ -0,0 +1,159 @@
+package de.landsh.opendata;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Verzeichnis der Dateien in einem Verzeichnis mit Größe, Änderungszeitpunkt und SHA-256-Prüfsumme. Sofern bekannt,
+ * wird auch die MD5-Prüfsumme gespeichert, die CKAN beim Hochladen einer Datei erwartet.
+ * <p>
+ * Das Manifest wird in der Datei {@link OpenDataUpdatesCkan#METADATA_FILE_MANIFEST} im Verzeichnis der lokalen Kopie
+ * gespeichert. Solange Größe und Änderungszeitpunkt einer Datei zum Eintrag passen, wird die gespeicherte Prüfsumme
+ * verwendet und die Datei muss nicht erneut gelesen werden.
+ */
+public class FileManifest {
+
+    private static final Logger log = LoggerFactory.getLogger(FileManifest.class);
+    private static final char SEPARATOR = '\t';
+
+    private final File directory;
+    private final Map<String, Entry> entries = new TreeMap<>();
+
+    public FileManifest(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Liest das Manifest eines Verzeichnisses. Gibt es noch keines oder ist es nicht lesbar, wird ein leeres Manifest
+     * geliefert.
+     */
+    public static FileManifest read(File directory) {
+        final FileManifest manifest = new FileManifest(directory);
+        final File file = new File(directory, OpenDataUpdatesCkan.METADATA_FILE_MANIFEST);
+        if (!file.exists()) {
+            return manifest;
+        }
+
+        try (BufferedReader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                final String[] s = StringUtils.splitPreserveAllTokens(line, SEPARATOR);
+                if (s.length >= 4) {
+                    final String md5 = s.length > 4 ? StringUtils.trimToNull(s[4]) : null;
+                    manifest.entries.put(s[0], new Entry(NumberUtils.toLong(s[1], -1), NumberUtils.toLong(s[2], -1), s[3], md5));
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Manifest {} kann nicht gelesen werden: {}", file, e.getMessage());
+            manifest.entries.clear();
+        }
+        return manifest;
+    }
+
+    static String sha256(File file) throws IOException {
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            return DigestUtils.sha256Hex(in);
+        }
+    }
+
+    private Entry getValidEntry(File file) {
+        final Entry entry = entries.get(file.getName());
+        if (entry == null || entry.size != file.length() || entry.lastModified != file.lastModified()) {
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Liefert die gespeicherte Prüfsumme einer Datei, sofern Größe und Änderungszeitpunkt noch zum Eintrag passen.
+     *
+     * @return SHA-256-Prüfsumme oder <code>null</code>, wenn es keinen gültigen Eintrag gibt
+     */
+    public String getCachedSha256(File file) {
+        final Entry entry = getValidEntry(file);
+        return entry == null ? null : entry.sha256;
+    }
+
+    /**
+     * Liefert die gespeicherte MD5-Prüfsumme einer Datei, sofern Größe und Änderungszeitpunkt noch zum Eintrag passen.
+     *
+     * @return MD5-Prüfsumme oder <code>null</code>, wenn sie nicht bekannt ist
+     */
+    public String getCachedMd5(File file) {
+        final Entry entry = getValidEntry(file);
+        return entry == null ? null : entry.md5;
+    }
+
+    /**
+     * Liefert die Prüfsumme einer Datei. Ist sie noch nicht bekannt, wird sie berechnet und ins Manifest übernommen.
+     */
+    public String getSha256(File file) throws IOException {
+        final String cached = getCachedSha256(file);
+        if (cached != null) {
+            return cached;
+        }
+
+        final String sha256 = sha256(file);
+        put(file, sha256);
+        return sha256;
+    }
+
+    /**
+     * Übernimmt eine bereits bekannte Prüfsumme für eine Datei in diesem Verzeichnis.
+     */
+    public void put(File file, String sha256) {
+        put(file, sha256, null);
+    }
+
+    /**
+     * Übernimmt bereits bekannte Prüfsummen für eine Datei in diesem Verzeichnis.
+     */
+    public void put(File file, String sha256, String md5) {
+        entries.put(file.getName(), new Entry(file.length(), file.lastModified(), sha256, md5));
+    }
+
+    /**
+     * Schreibt das Manifest in das Verzeichnis. Einträge für Dateien, die es nicht mehr gibt, werden dabei entfernt.
+     */
+    public void write() throws IOException {
+        entries.keySet().removeIf(name -> !new File(directory, name).isFile());
+
+        final File file = new File(directory, OpenDataUpdatesCkan.METADATA_FILE_MANIFEST);
+        final File tempFile = new File(directory, OpenDataUpdatesCkan.METADATA_FILE_MANIFEST + ".tmp");
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(tempFile.toPath(), StandardCharsets.UTF_8))) {
+            for (Map.Entry<String, Entry> it : entries.entrySet()) {
+                final Entry entry = it.getValue();
+                out.print(it.getKey() + SEPARATOR + entry.size + SEPARATOR + entry.lastModified + SEPARATOR + entry.sha256
+                        + SEPARATOR + StringUtils.defaultString(entry.md5) + "\n");
+            }
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static class Entry {
+        final long size;
+        final long lastModified;
+        final String sha256;
+        final String md5;
+
+        Entry(long size, long lastModified, String sha256, String md5) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.sha256 = sha256;
+            this.md5 = md5;
+        }
+    }
+}
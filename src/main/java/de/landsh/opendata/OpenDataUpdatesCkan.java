@@ -6,27 +6,33 @@ import de.landsh.opendata.ckan.ApiKey;
 import de.landsh.opendata.ckan.CkanAPI;
 import de.landsh.opendata.ckan.Resource;
 import de.landsh.opendata.update.*;
-import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
 
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.security.NoSuchAlgorithmException;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 /**
@@ -35,10 +41,14 @@ import java.util.stream.Collectors;
 public class OpenDataUpdatesCkan {
     public static final String METADATA_FILE_TIME_END = "_META_TIME_END";
     public static final String METADATA_FILE_TIME_START = "_META_TIME_START";
+    public static final String METADATA_FILE_MANIFEST = "_META_MANIFEST";
+    public static final String METADATA_FILE_HTTP_VALIDATORS = "_META_HTTP_VALIDATORS";
     private static final Logger log = LoggerFactory.getLogger(OpenDataUpdatesCkan.class);
     private CkanAPI ckanAPI;
     private File localDataDir;
     private boolean dryRun = false;
+    private SnapshotStore snapshotStore;
+    private GeneratorContext generatorContext = GeneratorContext.getDefault();
 
     public OpenDataUpdatesCkan(String baseURL, ApiKey apiKey) {
         ckanAPI = new CkanAPI(baseURL, apiKey);
@@ -72,27 +82,66 @@ public class OpenDataUpdatesCkan {
 
         self.localDataDir = new File(settings.localDirectory);
         self.dryRun = settings.isDryRun();
+        if (settings.getSnapshotRetention() > 0) {
+            self.snapshotStore = new SnapshotStore(self.localDataDir, settings.getSnapshotRetention());
+        }
 
         if (self.dryRun) {
             log.info("Probelauf aktiv, es werden keine Änderungen am Open-Data-Portal vorgenommen.");
         }
 
+        final List<DatasetUpdate> updates = new ArrayList<>();
         if (args.length > 1) {
             // nur ein Datensatz
             final String singleDatasetId = args[1];
             for (DatasetUpdate u : settings.getDatasets()) {
                 if (singleDatasetId.equals(u.getDatasetId()) || singleDatasetId.equals(u.getCollectionId())) {
-                    self.work(u);
+                    updates.add(u);
                 }
             }
         } else {
             for (DatasetUpdate u : settings.getDatasets()) {
                 if (u.isActive()) {
-                    self.work(u);
+                    updates.add(u);
                 }
             }
         }
 
+        final ExecutorService executor = createExecutor(settings);
+        final SourceCache sourceCache = new SourceCache(settings.getSourceCacheMegabytes() * 1024L * 1024L,
+                settings.getSourceCacheDirectory() == null ? null : new File(settings.getSourceCacheDirectory()));
+        try (GeneratorContext generatorContext = new GeneratorContext(settings.getMaxConnectionsPerHost(),
+                settings.getMaxConnectionsTotal(), settings.getHttpTimeoutSeconds(), sourceCache,
+                settings.isVirtualThreads())) {
+            self.generatorContext = generatorContext;
+            self.workAll(updates, executor);
+            self.ckanAPI.getMetrics().log();
+            log.info("package_show-Cache: {} Treffer, {} Abrufe", self.ckanAPI.getCacheHits(),
+                    self.ckanAPI.getCacheMisses());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Mit <code>virtualThreads: true</code> bekommt jeder Datensatz einen eigenen virtuellen Thread, so dass die
+     * blockierenden HTTP-Aufrufe der Generatoren und des CKAN API keine Plattform-Threads belegen. Virtuelle Threads
+     * gibt es erst ab Java 21 (Maven-Profil <code>java21</code>), daher wird die Factory-Methode per Reflection
+     * gesucht. Steht sie nicht zur Verfügung, wird ein Thread-Pool mit <code>parallelism</code> Threads verwendet.
+     */
+    static ExecutorService createExecutor(UpdateSettings settings) {
+        if (settings.isVirtualThreads()) {
+            final ExecutorService executor = GeneratorContext.newVirtualThreadPerTaskExecutor();
+            if (executor != null) {
+                return executor;
+            }
+            log.warn("Virtuelle Threads stehen erst ab Java 21 zur Verfügung, es wird ein Thread-Pool verwendet.");
+        }
+        return Executors.newFixedThreadPool(Math.max(1, settings.getParallelism()));
+    }
+
+    static String getId(DatasetUpdate update) {
+        return update.collectionId != null ? update.collectionId : update.datasetId;
     }
 
     public static String getExtrasValue(JSONObject dataset, String key) {
@@ -128,6 +177,14 @@ public class OpenDataUpdatesCkan {
         this.localDataDir = file;
     }
 
+    void setSnapshotStore(SnapshotStore snapshotStore) {
+        this.snapshotStore = snapshotStore;
+    }
+
+    void setGeneratorContext(GeneratorContext generatorContext) {
+        this.generatorContext = generatorContext;
+    }
+
     void setCkanAPI(CkanAPI ckanAPI) {
         this.ckanAPI = ckanAPI;
     }
@@ -179,7 +236,7 @@ public class OpenDataUpdatesCkan {
      * Es gibt nur ein Dataset. Die Distribution an diesem Dataset muss ausgetauscht werden und das Änderungsdatum
      * muss aktualisiert werden.
      */
-    boolean appendPrivate(DatasetUpdate update, File localDataDir) throws IOException, NoSuchAlgorithmException {
+    boolean appendPrivate(DatasetUpdate update, File localDataDir, FileManifest manifest) throws IOException, NoSuchAlgorithmException {
 
         if (StringUtils.isBlank(update.datasetId)) {
             log.error("Die datasetId muss angegeben werden.");
@@ -211,7 +268,7 @@ public class OpenDataUpdatesCkan {
             for (File file : files) {
                 final String format = StringUtils.upperCase(StringUtils.substringAfterLast(file.getName(), "."));
                 if (!dryRun) {
-                    if (ckanAPI.uploadFile(update.datasetId, file, file.getName(), format, getMimeType(format))) {
+                    if (uploadFile(update.datasetId, file, format, manifest)) {
                         log.info("Datei {} erfolgreich hochgeladen.", file.getName());
                     } else {
                         log.warn("Hochladen fehlgeschlagen für Datei {}", file.getName());
@@ -239,7 +296,7 @@ public class OpenDataUpdatesCkan {
      * Die Distribution zeigt auf die echte Datei, die bereits überschrieben wurde. Daher taugt sie nicht zum
      * Vergleich, ob es Änderungen gab. Es muss mit der letzten lokalen Kopie verglichen werden.
      */
-    boolean overwritePublic(DatasetUpdate update, File localDataDir) throws IOException, NoSuchAlgorithmException {
+    boolean overwritePublic(DatasetUpdate update, File localDataDir, FileManifest manifest) throws IOException, NoSuchAlgorithmException {
         if (StringUtils.isBlank(update.collectionId)) {
             log.error("Die collectionId muss angegeben werden.");
             return false;
@@ -304,7 +361,7 @@ public class OpenDataUpdatesCkan {
             for (File file : files) {
                 final String format = StringUtils.upperCase(StringUtils.substringAfterLast(file.getName(), "."));
                 if (!dryRun) {
-                    if (ckanAPI.uploadFile(newDatasetId, file, file.getName(), format, getMimeType(format))) {
+                    if (uploadFile(newDatasetId, file, format, manifest)) {
                         log.info("Datei {} erfolgreich hochgeladen.", file.getName());
                     } else {
                         log.warn("Hochladen fehlgeschlagen für Datei {}", file.getName());
@@ -336,7 +393,7 @@ public class OpenDataUpdatesCkan {
      * bereits eine Distribution mit einer Kopie der Datei und Prüfsumme. Die vom geheimen Platz geladenen Datei kann
      * gegen diese Prüfsumme geprüft werden.
      */
-    boolean overwritePrivate(DatasetUpdate update, File localDataDir) throws IOException, NoSuchAlgorithmException {
+    boolean overwritePrivate(DatasetUpdate update, File localDataDir, FileManifest manifest) throws IOException, NoSuchAlgorithmException {
         if (StringUtils.isBlank(update.collectionId)) {
             log.error("Die collectionId muss angegeben werden.");
             return false;
@@ -397,7 +454,7 @@ public class OpenDataUpdatesCkan {
             for (File file : files) {
                 final String format = StringUtils.upperCase(StringUtils.substringAfterLast(file.getName(), "."));
                 if (!dryRun) {
-                    if (ckanAPI.uploadFile(newDatasetId, file, file.getName(), format, getMimeType(format))) {
+                    if (uploadFile(newDatasetId, file, format, manifest)) {
                         log.info("Datei {} erfolgreich hochgeladen.", file.getName());
                     } else {
                         log.warn("Hochladen fehlgeschlagen für Datei {}", file.getName());
@@ -416,6 +473,18 @@ public class OpenDataUpdatesCkan {
 
     }
 
+    /**
+     * Lädt eine Datei hoch. Ist ihre MD5-Prüfsumme bereits im Manifest bekannt, muss die Datei dafür nicht noch einmal
+     * gelesen werden.
+     */
+    private boolean uploadFile(String packageId, File file, String format, FileManifest manifest) throws IOException, NoSuchAlgorithmException {
+        final String checksum = manifest.getCachedMd5(file);
+        if (checksum != null) {
+            return ckanAPI.uploadFile(packageId, file, file.getName(), format, getMimeType(format), checksum);
+        }
+        return ckanAPI.uploadFile(packageId, file, file.getName(), format, getMimeType(format));
+    }
+
     private DatasetMetadata readMetadata(File localDataDir) throws IOException {
         final String timeNow = LocalDateTime.now().format(DateTimeFormatter.ISO_DATE_TIME);
 
@@ -442,6 +511,14 @@ public class OpenDataUpdatesCkan {
      * Prüfe, ob die zwei Verzeichnisse identischen Inhalt haben.
      */
     public boolean directoriesAreEqual(File dir1, File dir2) throws IOException {
+        return directoriesAreEqual(dir1, dir2, new FileManifest(dir1), new FileManifest(dir2));
+    }
+
+    /**
+     * Prüfe, ob die zwei Verzeichnisse identischen Inhalt haben. Steht eine der beiden Dateien mit gültiger Prüfsumme
+     * im Manifest ihres Verzeichnisses, muss nur die andere Datei gelesen werden.
+     */
+    boolean directoriesAreEqual(File dir1, File dir2, FileManifest manifest1, FileManifest manifest2) throws IOException {
         File[] files1 = dir1.listFiles(file -> !file.getName().startsWith("_META_"));
         File[] files2 = dir2.listFiles(file -> !file.getName().startsWith("_META_"));
 
@@ -452,20 +529,38 @@ public class OpenDataUpdatesCkan {
         if (files1.length != files2.length) return false;
 
         for (int i = 0; i < files1.length; i++) {
-            if (!filesAreEqual(files1[i], files2[i])) {
+            if (!filesAreEqual(files1[i], files2[i], manifest1, manifest2)) {
                 return false;
             }
         }
         return true;
     }
 
-    private boolean filesAreEqual(java.io.File a, java.io.File b) throws IOException {
-        if (a.isFile() && b.isFile()) return
-                StringUtils.equals(
-                        DigestUtils.md5Hex(FileUtils.readFileToByteArray(a)),
-                        DigestUtils.md5Hex(FileUtils.readFileToByteArray(b))
-                );
-        return false;
+    private boolean filesAreEqual(File a, File b, FileManifest manifestA, FileManifest manifestB) throws IOException {
+        if (!a.isFile() || !b.isFile()) {
+            return false;
+        }
+
+        if (a.length() != b.length()) {
+            log.info("Datei {} hat eine andere Größe als {} ({} statt {} Bytes).", a.getName(), b, a.length(), b.length());
+            return false;
+        }
+
+        if (manifestA.getCachedSha256(a) != null || manifestB.getCachedSha256(b) != null) {
+            // Mindestens eine Prüfsumme ist bereits bekannt, es muss also höchstens eine Datei gelesen werden.
+            if (!manifestA.getSha256(a).equals(manifestB.getSha256(b))) {
+                log.info("Datei {} hat eine andere Prüfsumme als {}.", a.getName(), b);
+                return false;
+            }
+            return true;
+        }
+
+        final long offset = FileComparator.findFirstDifference(a, b);
+        if (offset != FileComparator.EQUAL) {
+            log.info("Datei {} unterscheidet sich ab Byte {} von {}.", a.getName(), offset, b);
+            return false;
+        }
+        return true;
     }
 
     /**
@@ -486,32 +581,42 @@ public class OpenDataUpdatesCkan {
     }
 
     boolean work(DatasetUpdate update) throws Exception {
+        return process(update).isSuccess();
+    }
+
+    /**
+     * Bearbeitet einen Datensatz.
+     *
+     * @return ob der Datensatz aktualisiert wurde, unverändert ist, übersprungen wurde oder nicht bearbeitet werden
+     * konnte
+     */
+    UpdateStatus process(DatasetUpdate update) throws Exception {
 
         if (!update.isActive())
-            return false;
+            return UpdateStatus.SKIPPED;
 
         // Prüfen, ob der Lauf zum Zeitplan passt
         if (update.dayOfMonth != null && LocalDate.now().getDayOfMonth() != update.dayOfMonth) {
-            return false;
+            return UpdateStatus.SKIPPED;
         }
         if (update.dayOfWeek != null && LocalDate.now().getDayOfWeek().getValue() != update.dayOfWeek) {
-            return false;
+            return UpdateStatus.SKIPPED;
         }
 
-        final String id = update.collectionId != null ? update.collectionId : update.datasetId;
+        final String id = getId(update);
         final File localCopyDir = new File(localDataDir, id);
 
         // Prüfen, ob der letzte Lauf lange genug her ist.
         if (update.frequency != null) {
             final long age = getAgeOfNewestFile(localCopyDir);
             if (update.frequency == DatasetUpdate.Frequency.WEEKLY && age < 604800000L) {
-                return false;
+                return UpdateStatus.SKIPPED;
             }
             if (update.frequency == DatasetUpdate.Frequency.MONTHLY && age < 2592000000L) {
-                return false;
+                return UpdateStatus.SKIPPED;
             }
             if (update.frequency == DatasetUpdate.Frequency.QUARTERLY && age < 7776000000L) {
-                return false;
+                return UpdateStatus.SKIPPED;
             }
         }
 
@@ -531,48 +636,105 @@ public class OpenDataUpdatesCkan {
             generator = findGeneratorDynamically(update.generator, id, update);
             if (generator == null) {
                 log.warn("Unbekannter Generator {} für Datensatz {}.", update.generator, id);
-                return false;
+                return UpdateStatus.FAILED;
             }
         }
+        generator.setContext(generatorContext);
 
         final Path path = Paths.get(FileUtils.getTempDirectory().getAbsolutePath(), UUID.randomUUID().toString());
         final File tmpdir = Files.createDirectories(path).toFile();
         tmpdir.deleteOnExit();
 
+        try {
+            return processDistributions(update, id, generator, tmpdir, localCopyDir);
+        } finally {
+            // temporäres Verzeichnis wieder entfernen
+            FileUtils.deleteDirectory(tmpdir);
+        }
+    }
+
+    /**
+     * Erzeugt die Distributionen im temporären Verzeichnis, gleicht sie mit der lokalen Kopie ab und aktualisiert
+     * bei Änderungen das Open-Data-Portal.
+     */
+    private UpdateStatus processDistributions(DatasetUpdate update, String id, Generator generator, File tmpdir,
+                                         File localCopyDir) throws Exception {
+        final File validatorsFile = new File(localCopyDir, METADATA_FILE_HTTP_VALIDATORS);
+        HttpValidators validators = null;
+        if (update.conditionalRequests && generator instanceof ConditionalGenerator) {
+            // Ohne lokale Kopie muss auf jeden Fall alles neu heruntergeladen werden.
+            validators = hasLocalCopy(localCopyDir) ? HttpValidators.read(validatorsFile) : new HttpValidators();
+            ((ConditionalGenerator) generator).setValidators(validators);
+        }
+
         try {
             generator.generateDistributions(tmpdir);
         } catch (Exception ex) {
             log.error("Could not generate distributions: {}", ex.getMessage());
-            return false;
+            return UpdateStatus.FAILED;
         }
 
+        if (validators != null && ((ConditionalGenerator) generator).isNotModified()) {
+            log.info("Quelldaten für {} sind unverändert.", id);
+            if (!dryRun) {
+                // Die Datei wird neu geschrieben, damit frequency vom Zeitpunkt dieser Prüfung an gerechnet wird.
+                try {
+                    validators.write(validatorsFile);
+                } catch (IOException e) {
+                    log.warn("HTTP-Validatoren für {} konnten nicht geschrieben werden: {}", id, e.getMessage());
+                }
+            }
+            return UpdateStatus.UNCHANGED;
+        }
+
+
+        final FileManifest tmpManifest = new FileManifest(tmpdir);
+        final FileManifest localManifest = FileManifest.read(localCopyDir);
+
+        if (generator instanceof ChecksumProvider) {
+            // Prüfsummen, die schon beim Erzeugen berechnet wurden, müssen nicht noch einmal berechnet werden.
+            for (Map.Entry<String, Checksums> entry : ((ChecksumProvider) generator).getChecksums().entrySet()) {
+                final File file = new File(tmpdir, entry.getKey());
+                if (file.isFile()) {
+                    tmpManifest.put(file, entry.getValue().getSha256(), entry.getValue().getMd5());
+                }
+            }
+        }
 
-        boolean success;
+        final UpdateStatus status;
         if (localCopyDir.isDirectory()) {
-            if (!directoriesAreEqual(tmpdir, localCopyDir)) {
+            if (!directoriesAreEqual(tmpdir, localCopyDir, tmpManifest, localManifest)) {
                 log.info("Unterschiede bei {} erkannt.", id);
 
                 // Die frisch heruntergeladenen Daten liegen in tmpdir.
 
+                final boolean success;
                 if (update.type == DatasetUpdate.Type.APPEND) {
+                    // Die neuen Zeilen werden nur protokolliert; ein Fehler dabei verhindert die Aktualisierung nicht.
+                    try {
+                        computeAppendDeltas(id, tmpdir, localCopyDir, localManifest);
+                    } catch (IOException e) {
+                        log.warn("Neue Zeilen für {} konnten nicht ermittelt werden: {}", id, e.getMessage());
+                    }
                     if (update.isPrivate) {
-                        success = appendPrivate(update, tmpdir);
+                        success = appendPrivate(update, tmpdir, tmpManifest);
                     } else {
                         success = appendPublic(update, tmpdir);
                     }
                 } else if (update.type == DatasetUpdate.Type.OVERWRITE) {
                     if (update.isPrivate) {
-                        success = overwritePrivate(update, tmpdir);
+                        success = overwritePrivate(update, tmpdir, tmpManifest);
                     } else {
-                        success = overwritePublic(update, tmpdir);
+                        success = overwritePublic(update, tmpdir, tmpManifest);
                     }
                 } else {
                     log.error("Unbekannter Modus {}", update.type);
                     success = false;
                 }
+                status = success ? UpdateStatus.UPDATED : UpdateStatus.FAILED;
             } else {
                 // keine Änderung an den Distributionen
-                success = true;
+                status = UpdateStatus.UNCHANGED;
             }
         } else {
             if (!localCopyDir.mkdirs()) {
@@ -580,7 +742,7 @@ public class OpenDataUpdatesCkan {
             }
 
             log.warn("Verzeichnis mit lokalen Kopien für Datensatz {} existiert nicht.", id);
-            success = false;
+            status = UpdateStatus.FAILED;
         }
 
         if (!dryRun) {
@@ -592,15 +754,169 @@ public class OpenDataUpdatesCkan {
             } else {
 
                 for (File file : files) {
-                    FileUtils.copyFileToDirectory(file, localCopyDir);
+                    final File target = new File(localCopyDir, file.getName());
+                    final String sha256 = tmpManifest.getSha256(file);
+                    final String md5 = tmpManifest.getCachedMd5(file);
+                    if (target.isFile() && target.length() == file.length()
+                            && sha256.equals(localManifest.getSha256(target))) {
+                        // unveränderte Dateien nicht erneut schreiben
+                        continue;
+                    }
+                    moveFile(file, target);
+                    localManifest.put(target, sha256, md5);
+                }
+                localManifest.write();
+                if (snapshotStore != null) {
+                    // Portal und lokale Kopie sind bereits aktualisiert; ein fehlender Stand ändert daran nichts.
+                    try {
+                        snapshotStore.record(localCopyDir, localManifest);
+                    } catch (IOException e) {
+                        log.warn("Stand für {} konnte nicht angelegt werden: {}", id, e.getMessage());
+                    }
+                }
+                if (validators != null) {
+                    validators.write(validatorsFile);
                 }
             }
         }
 
-        // temporäres Verzeichnis wieder entfernen
-        FileUtils.deleteDirectory(tmpdir);
+        return status;
+    }
+
+    /**
+     * Verschiebt eine Datei, z.B. aus dem temporären Verzeichnis in die lokale Kopie. Liegen beide im selben
+     * Dateisystem, wird die Datei nur atomar umbenannt. Sonst wird sie zunächst neben das Ziel kopiert und dann
+     * umbenannt, so dass in der lokalen Kopie nie eine halb geschriebene Datei liegt.
+     */
+    static void moveFile(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            copyAndMove(source, target);
+        }
+    }
+
+    /**
+     * Verschiebt eine Datei in ein anderes Dateisystem: Sie wird neben das Ziel kopiert, dort atomar umbenannt und
+     * danach die Quelle gelöscht.
+     */
+    static void copyAndMove(File source, File target) throws IOException {
+        final File tmp = new File(target.getParentFile(), "_META_TMP_" + target.getName());
+        Files.copy(source.toPath(), tmp.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.COPY_ATTRIBUTES);
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        Files.delete(source.toPath());
+    }
+
+    /**
+     * Ermittelt für die CSV-Dateien eines Datensatzes, an den nur Zeilen angehängt werden, welche Zeilen neu sind,
+     * und protokolliert sie. Wurden bereits vorhandene Zeilen geändert, wird eine Warnung ausgegeben.
+     *
+     * Die Prüfsummen der lokalen Kopien stehen meist schon im Manifest, dann wird nur die neue Fassung einmal gelesen.
+     *
+     * @return Unterschied je Dateiname; Dateien ohne lokale Kopie fehlen
+     */
+    static Map<String, CsvDelta> computeAppendDeltas(String id, File directory, File localCopyDir,
+                                                     FileManifest localManifest) throws IOException {
+        final Map<String, CsvDelta> result = new LinkedHashMap<>();
+        final File[] files = directory.listFiles(file -> file.isFile() && !file.getName().startsWith("_META_")
+                && "csv".equalsIgnoreCase(StringUtils.substringAfterLast(file.getName(), ".")));
+        if (files == null) {
+            return result;
+        }
+        for (File file : files) {
+            final File previous = new File(localCopyDir, file.getName());
+            if (!previous.isFile()) {
+                continue;
+            }
+            final CsvDelta delta = CsvDelta.compute(previous, localManifest.getSha256(previous), file);
+            if (delta.isAppend()) {
+                log.info("{}/{}: {} neue Zeilen ({} Bytes ab Position {}), insgesamt {} Zeilen.", id, file.getName(),
+                        delta.getAppendedLines(), delta.getLength(), delta.getOffset(), delta.getCurrentLines());
+            } else {
+                log.warn("{}/{} wurde nicht nur ergänzt: Zeile {} wurde geändert (vorher {}, jetzt {} Zeilen).", id,
+                        file.getName(), delta.getFirstChangedLine(), delta.getPreviousLines(), delta.getCurrentLines());
+            }
+            result.put(file.getName(), delta);
+        }
+        return result;
+    }
+
+    private static boolean hasLocalCopy(File localCopyDir) {
+        final File[] files = localCopyDir.listFiles(file -> file.isFile() && !file.getName().startsWith("_META_"));
+        return files != null && files.length > 0;
+    }
 
-        return success;
+    /**
+     * Bearbeitet alle übergebenen Datensätze mit Hilfe des Executors und gibt am Ende eine Zusammenfassung aus.
+     * Einträge mit derselben Id werden nacheinander bearbeitet, da sie sich das Verzeichnis mit den lokalen Kopien
+     * teilen.
+     *
+     * @return Ergebnis je Id; {@link UpdateStatus#FAILED} auch dann, wenn eine Exception auftrat
+     */
+    Map<String, UpdateStatus> workAll(List<DatasetUpdate> updates, ExecutorService executor) throws InterruptedException {
+        final Map<String, List<DatasetUpdate>> updatesPerId = new LinkedHashMap<>();
+        for (DatasetUpdate update : updates) {
+            updatesPerId.computeIfAbsent(getId(update), key -> new ArrayList<>()).add(update);
+        }
+
+        final Map<String, Future<UpdateStatus>> futures = new LinkedHashMap<>();
+        for (Map.Entry<String, List<DatasetUpdate>> entry : updatesPerId.entrySet()) {
+            futures.put(entry.getKey(), executor.submit(() -> workIsolated(entry.getKey(), entry.getValue())));
+        }
+
+        final Map<String, UpdateStatus> result = new LinkedHashMap<>();
+        for (Map.Entry<String, Future<UpdateStatus>> entry : futures.entrySet()) {
+            try {
+                result.put(entry.getKey(), entry.getValue().get());
+            } catch (ExecutionException e) {
+                log.error("Fehler bei Datensatz {}", entry.getKey(), e.getCause());
+                result.put(entry.getKey(), UpdateStatus.FAILED);
+            }
+        }
+
+        final Map<UpdateStatus, Long> counts = new EnumMap<>(UpdateStatus.class);
+        for (UpdateStatus status : UpdateStatus.values()) {
+            counts.put(status, result.values().stream().filter(status::equals).count());
+        }
+        log.info("{} Datensätze bearbeitet: {} aktualisiert, {} unverändert, {} übersprungen, {} mit Fehler.",
+                result.size(), counts.get(UpdateStatus.UPDATED), counts.get(UpdateStatus.UNCHANGED),
+                counts.get(UpdateStatus.SKIPPED), counts.get(UpdateStatus.FAILED));
+
+        final List<String> failed = result.entrySet().stream()
+                .filter(e -> e.getValue() == UpdateStatus.FAILED)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+        if (!failed.isEmpty()) {
+            log.warn("Datensätze mit Fehler: {}", String.join(", ", failed));
+        }
+
+        if (snapshotStore != null) {
+            // erst aufräumen, wenn alle Datensätze fertig sind
+            try {
+                snapshotStore.collectGarbage();
+            } catch (IOException e) {
+                log.warn("Versionsgeschichte konnte nicht aufgeräumt werden: {}", e.getMessage());
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Bearbeitet alle Einträge zu einer Id und setzt dabei den Logging-Kontext.
+     */
+    private UpdateStatus workIsolated(String id, List<DatasetUpdate> updates) throws Exception {
+        MDC.put("dataset", id);
+        try {
+            UpdateStatus status = UpdateStatus.SKIPPED;
+            for (DatasetUpdate update : updates) {
+                status = status.combine(process(update));
+            }
+            return status;
+        } finally {
+            MDC.remove("dataset");
+        }
     }
 
     Generator findGeneratorDynamically(String generator, String id, DatasetUpdate updateSettings) throws InvocationTargetException, InstantiationException, IllegalAccessException {
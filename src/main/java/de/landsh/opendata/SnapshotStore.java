@@ -0,0 +1,217 @@
+package de.landsh.opendata;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Versionsgeschichte der lokalen Kopien. Nach jeder Aktualisierung wird für den Datensatz ein Stand
+ * (<code>_META_SNAPSHOTS/&lt;Zeitpunkt&gt;</code>) angelegt, der für jede Datei ihre SHA-256-Prüfsumme enthält.
+ * Die Inhalte liegen nur einmal im gemeinsamen Verzeichnis <code>_META_BLOBS</code> unterhalb von
+ * <code>localDirectory</code>, benannt nach ihrer Prüfsumme. Gleiche Dateien verschiedener Datensätze und Stände
+ * belegen also nur einmal Platz.
+ * <p>
+ * Je Datensatz werden höchstens <code>retention</code> Stände aufbewahrt. Inhalte, auf die kein Stand mehr verweist,
+ * werden mit {@link #collectGarbage()} einmal am Ende des Laufs gelöscht, denn dafür müssen die Stände aller
+ * Datensätze gelesen werden.
+ */
+public class SnapshotStore {
+
+    static final String BLOB_DIRECTORY = "_META_BLOBS";
+    static final String SNAPSHOT_DIRECTORY = "_META_SNAPSHOTS";
+    /**
+     * Markierung in <code>_META_BLOBS</code>: Es wurden Stände gelöscht, aber noch nicht aufgeräumt. Sie liegt auf der
+     * Festplatte, damit auch nach einem abgebrochenen Lauf aufgeräumt wird.
+     */
+    static final String PRUNED_MARKER = "_PRUNED";
+    private static final Logger log = LoggerFactory.getLogger(SnapshotStore.class);
+    private static final DateTimeFormatter SNAPSHOT_NAME = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss.SSS");
+    private static final char SEPARATOR = '\t';
+
+    private final File localDataDir;
+    private final File blobDirectory;
+    private final int retention;
+
+    public SnapshotStore(File localDataDir, int retention) {
+        this.localDataDir = localDataDir;
+        this.blobDirectory = new File(localDataDir, BLOB_DIRECTORY);
+        this.retention = Math.max(1, retention);
+    }
+
+    /**
+     * Legt einen Stand für die lokale Kopie an, sofern sie sich seit dem letzten Stand geändert hat. Für verschiedene
+     * Datensätze darf die Methode gleichzeitig aufgerufen werden.
+     *
+     * @param manifest Manifest der lokalen Kopie, aus dem die Prüfsummen übernommen werden
+     * @return Name des Standes oder <code>null</code>, wenn sich nichts geändert hat
+     */
+    public String record(File localCopyDir, FileManifest manifest) throws IOException {
+        final File[] files = localCopyDir.listFiles(file -> file.isFile() && !file.getName().startsWith("_META_"));
+        if (files == null) {
+            return null;
+        }
+
+        final Map<String, String> content = new TreeMap<>();
+        for (File file : files) {
+            content.put(file.getName(), manifest.getSha256(file));
+        }
+
+        final List<String> snapshots = list(localCopyDir);
+        if (!snapshots.isEmpty() && content.equals(read(localCopyDir, snapshots.get(snapshots.size() - 1)))) {
+            return null;
+        }
+
+        for (File file : files) {
+            storeBlob(file, content.get(file.getName()));
+        }
+
+        final File directory = new File(localCopyDir, SNAPSHOT_DIRECTORY);
+        Files.createDirectories(directory.toPath());
+        String name = SNAPSHOT_NAME.format(LocalDateTime.now());
+        if (!snapshots.isEmpty() && name.compareTo(snapshots.get(snapshots.size() - 1)) <= 0) {
+            // Die Namen müssen aufsteigend sortiert sein, auch wenn die Uhr zurückgestellt wurde.
+            name = snapshots.get(snapshots.size() - 1) + "-1";
+        }
+        final File tmp = new File(directory, name + ".tmp");
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8))) {
+            for (Map.Entry<String, String> entry : content.entrySet()) {
+                out.print(entry.getValue() + SEPARATOR + entry.getKey() + "\n");
+            }
+        }
+        Files.move(tmp.toPath(), new File(directory, name).toPath(), StandardCopyOption.ATOMIC_MOVE);
+        log.debug("Stand {} für {} angelegt.", name, localCopyDir.getName());
+
+        snapshots.add(name);
+        if (snapshots.size() > retention) {
+            Files.createDirectories(blobDirectory.toPath());
+            final File marker = new File(blobDirectory, PRUNED_MARKER);
+            if (!marker.exists()) {
+                Files.write(marker.toPath(), new byte[0]);
+            }
+            for (String old : snapshots.subList(0, snapshots.size() - retention)) {
+                Files.delete(new File(directory, old).toPath());
+            }
+        }
+        return name;
+    }
+
+    /**
+     * @return die Namen aller Stände eines Datensatzes, der älteste zuerst
+     */
+    public List<String> list(File localCopyDir) {
+        final String[] names = new File(localCopyDir, SNAPSHOT_DIRECTORY).list((dir, name) -> !name.endsWith(".tmp"));
+        if (names == null) {
+            return new ArrayList<>();
+        }
+        final List<String> result = new ArrayList<>(Arrays.asList(names));
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * @return Dateiname und Prüfsumme aller Dateien eines Standes
+     */
+    public Map<String, String> read(File localCopyDir, String snapshot) throws IOException {
+        final Map<String, String> content = new TreeMap<>();
+        final File file = new File(new File(localCopyDir, SNAPSHOT_DIRECTORY), snapshot);
+        try (BufferedReader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                content.put(StringUtils.substringAfter(line, String.valueOf(SEPARATOR)),
+                        StringUtils.substringBefore(line, String.valueOf(SEPARATOR)));
+            }
+        }
+        return content;
+    }
+
+    /**
+     * Stellt die Dateien eines Standes in einem Verzeichnis wieder her, z.B. um ihn mit dem aktuellen Stand zu
+     * vergleichen oder zu ihm zurückzukehren.
+     */
+    public void restore(File localCopyDir, String snapshot, File targetDirectory) throws IOException {
+        Files.createDirectories(targetDirectory.toPath());
+        for (Map.Entry<String, String> entry : read(localCopyDir, snapshot).entrySet()) {
+            Files.copy(blobFile(entry.getValue()).toPath(), new File(targetDirectory, entry.getKey()).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    File blobFile(String sha256) {
+        return new File(new File(blobDirectory, sha256.substring(0, 2)), sha256);
+    }
+
+    /**
+     * Legt den Inhalt einer Datei ab, sofern es ihn noch nicht gibt. Der Inhalt wird kopiert und nicht verlinkt,
+     * denn manche Generatoren hängen Daten an ihre Dateien an.
+     */
+    private void storeBlob(File file, String sha256) throws IOException {
+        final File blob = blobFile(sha256);
+        if (blob.exists()) {
+            return;
+        }
+        Files.createDirectories(blob.getParentFile().toPath());
+        // Legen zwei Datensätze gleichzeitig denselben Inhalt ab, braucht jeder eine eigene temporäre Datei.
+        final Path tmp = Files.createTempFile(blob.getParentFile().toPath(), sha256, ".tmp");
+        try {
+            Files.copy(file.toPath(), tmp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmp, blob.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Löscht alle Inhalte, auf die kein Stand eines Datensatzes mehr verweist. Dazu werden die Stände aller
+     * Datensätze gelesen, daher geschieht das nur, wenn seit dem letzten Aufräumen Stände gelöscht wurden, auch in
+     * einem früheren, abgebrochenen Lauf. Während
+     * des Aufräumens darf {@link #record(File, FileManifest)} nicht laufen, sonst könnten gerade abgelegte Inhalte
+     * gelöscht werden.
+     */
+    public void collectGarbage() throws IOException {
+        final File marker = new File(blobDirectory, PRUNED_MARKER);
+        if (!marker.exists()) {
+            return;
+        }
+        final Set<String> live = new HashSet<>();
+        final File[] datasets = localDataDir.listFiles(File::isDirectory);
+        if (datasets != null) {
+            for (File dataset : datasets) {
+                for (String snapshot : list(dataset)) {
+                    live.addAll(read(dataset, snapshot).values());
+                }
+            }
+        }
+
+        final File[] prefixes = blobDirectory.listFiles(File::isDirectory);
+        int deleted = 0;
+        for (File prefix : prefixes == null ? new File[0] : prefixes) {
+            final File[] blobs = prefix.listFiles();
+            for (File blob : blobs == null ? new File[0] : blobs) {
+                if (!live.contains(blob.getName())) {
+                    Files.delete(blob.toPath());
+                    deleted++;
+                }
+            }
+        }
+        Files.delete(marker.toPath());
+        log.debug("{} nicht mehr verwendete Inhalte gelöscht.", deleted);
+    }
+}
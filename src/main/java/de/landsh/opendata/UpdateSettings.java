@@ -1,5 +1,6 @@
 package de.landsh.opendata;
 
+import de.landsh.opendata.update.GeneratorContext;
 import lombok.Data;
 
 import java.util.List;
@@ -14,5 +15,42 @@ public class UpdateSettings {
     boolean dryRun;
     String httpBasicUserName;
     String httpBasicPassword;
-}
+    /**
+     * Anzahl der Datensätze, die gleichzeitig bearbeitet werden. Wird bei <code>virtualThreads</code> ignoriert,
+     * sofern virtuelle Threads zur Verfügung stehen.
+     */
+    int parallelism = 1;
+    /**
+     * Jeder Datensatz wird in einem eigenen virtuellen Thread bearbeitet (erfordert Java 21). Alle Datensätze werden
+     * dann gleichzeitig bearbeitet, <code>parallelism</code> wird ignoriert. Auch die Abrufe eines
+     * {@link de.landsh.opendata.update.ConcurrentFetcher} laufen dann in virtuellen Threads.
+     */
+    boolean virtualThreads;
+    /**
+     * Höchstzahl gleichzeitiger Verbindungen der Generatoren zu einem Server.
+     */
+    int maxConnectionsPerHost = GeneratorContext.DEFAULT_MAX_CONNECTIONS_PER_HOST;
+    /**
+     * Höchstzahl gleichzeitiger Verbindungen der Generatoren insgesamt.
+     */
+    int maxConnectionsTotal = GeneratorContext.DEFAULT_MAX_CONNECTIONS_TOTAL;
+    /**
+     * Zeit in Sekunden, die die Generatoren höchstens auf einen Verbindungsaufbau, eine freie Verbindung oder Daten
+     * eines Servers warten.
+     */
+    int httpTimeoutSeconds = GeneratorContext.DEFAULT_TIMEOUT_SECONDS;
+    /**
+     * Höchstgröße der Quelldateien im gemeinsamen Zwischenspeicher in Megabytes.
+     */
+    int sourceCacheMegabytes = GeneratorContext.DEFAULT_SOURCE_CACHE_MEGABYTES;
+    /**
+     * Verzeichnis, in das Quelldateien ausgelagert werden, die nicht mehr in den Zwischenspeicher passen.
+     */
+    String sourceCacheDirectory;
 
+    /**
+     * Anzahl der Stände, die je Datensatz in der Versionsgeschichte der lokalen Kopie aufbewahrt werden. Bei 0 wird
+     * keine Versionsgeschichte geführt.
+     */
+    int snapshotRetention;
+}
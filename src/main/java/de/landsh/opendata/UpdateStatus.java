@@ -0,0 +1,44 @@
+package de.landsh.opendata;
+
+/**
+ * Ergebnis der Bearbeitung eines Datensatzes.
+ */
+public enum UpdateStatus {
+    /**
+     * Es gab Änderungen, das Open-Data-Portal wurde aktualisiert.
+     */
+    UPDATED,
+    /**
+     * Die Daten sind unverändert.
+     */
+    UNCHANGED,
+    /**
+     * Der Datensatz ist nicht aktiv oder laut Zeitplan nicht an der Reihe.
+     */
+    SKIPPED,
+    /**
+     * Die Daten konnten nicht erzeugt oder das Open-Data-Portal nicht aktualisiert werden.
+     */
+    FAILED;
+
+    public boolean isSuccess() {
+        return this == UPDATED || this == UNCHANGED;
+    }
+
+    /**
+     * Fasst die Ergebnisse mehrerer Einträge mit derselben Id zusammen: ein Fehler überwiegt, dann eine
+     * Aktualisierung, dann unveränderte Daten.
+     */
+    UpdateStatus combine(UpdateStatus other) {
+        if (this == FAILED || other == FAILED) {
+            return FAILED;
+        }
+        if (this == UPDATED || other == UPDATED) {
+            return UPDATED;
+        }
+        if (this == UNCHANGED || other == UNCHANGED) {
+            return UNCHANGED;
+        }
+        return SKIPPED;
+    }
+}
@@ -0,0 +1,16 @@
+package de.landsh.opendata.ckan;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.Data;
+
+import java.util.Map;
+
+/**
+ * Die allgemeinen Felder jeder Antwort des CKAN Action API.
+ */
+@Data
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ActionResponse {
+    private boolean success;
+    private Map<String, Object> error;
+}
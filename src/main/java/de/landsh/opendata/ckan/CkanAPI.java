@@ -11,8 +11,9 @@ import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.params.ClientPNames;
-import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.entity.mime.HttpMultipartMode;
@@ -21,9 +22,12 @@ import org.apache.http.entity.mime.content.FileBody;
 import org.apache.http.entity.mime.content.StringBody;
 import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.HttpParams;
+import org.apache.http.util.EntityUtils;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.slf4j.Logger;
@@ -37,13 +41,52 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class CkanAPI {
 
     private static final Logger log = LoggerFactory.getLogger(CkanAPI.class);
+    /**
+     * Maximale Anzahl gleichzeitiger Verbindungen zum CKAN, wenn mehrere Datensätze parallel bearbeitet werden.
+     */
+    private static final int MAX_CONNECTIONS = 20;
+    /**
+     * So lange wird eine Verbindung offen gehalten, wenn der Server keine eigene Angabe im Header
+     * <code>Keep-Alive</code> macht.
+     */
+    private static final long KEEP_ALIVE_MILLIS = 30_000;
+    /**
+     * Nach dieser Zeit ohne Nutzung wird eine Verbindung aus dem Pool entfernt.
+     */
+    private static final long MAX_IDLE_MILLIS = 60_000;
+    private static final int TIMEOUT_MILLIS = 10_000;
+    /**
+     * Diese Felder erzeugen die Erweiterungen archiver und qa bei jedem <code>package_show</code>. Sie werden hier
+     * nie ausgewertet, sind aber oft größer als der Rest des Datensatzes, und gehören auch nicht in ein
+     * <code>package_update</code>.
+     */
+    static final Set<String> SKIPPED_FIELDS = Set.of("resources.archiver", "resources.qa", "result.archiver", "result.qa");
     private final String baseURL;
     private final ApiKey apiKey;
+    private final RestClientMetrics metrics = new RestClientMetrics();
+    /**
+     * Ergebnisse von <code>package_show</code> je angefragter Id oder Name. Die Einträge werden bei jeder Änderung
+     * an dem Datensatz über dieses Objekt verworfen; Änderungen von außen während eines Laufs werden nicht erkannt.
+     */
+    private final Map<String, JSONObject> datasetCache = new ConcurrentHashMap<>();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+    /**
+     * Anzahl der begonnenen und der beendeten Schreibzugriffe. Ein gelesener Datensatz wird nur gespeichert, wenn
+     * während des Lesens kein Schreibzugriff lief, denn sonst könnte er den alten Stand enthalten.
+     */
+    private final AtomicLong writesStarted = new AtomicLong();
+    private final AtomicLong writesFinished = new AtomicLong();
     private RestClient restClient;
 
     CkanAPI() {
@@ -55,15 +98,7 @@ public class CkanAPI {
         this.apiKey = apiKey;
         this.baseURL = baseURL;
 
-        int timeout = 10;
-        final RequestConfig config = RequestConfig.custom()
-                .setConnectTimeout(timeout * 1000)
-                .setConnectionRequestTimeout(timeout * 1000)
-                .setSocketTimeout(timeout * 1000).build();
-        final CloseableHttpClient client =
-                HttpClientBuilder.create().setDefaultRequestConfig(config).build();
-
-        restClient = new HttpRestClient(client, HttpClientContext.create());
+        restClient = new MeasuringRestClient(new StreamingRestClient(createHttpClient(null), SKIPPED_FIELDS), metrics);
     }
 
     /**
@@ -74,23 +109,52 @@ public class CkanAPI {
         this.apiKey = apiKey;
         this.baseURL = baseURL;
 
-        int timeout = 10;
-        final RequestConfig config = RequestConfig.custom()
-                .setConnectTimeout(timeout * 1000)
-                .setConnectionRequestTimeout(timeout * 1000)
-                .setSocketTimeout(timeout * 1000).build();
-
         final CredentialsProvider provider = new BasicCredentialsProvider();
         final UsernamePasswordCredentials credentials = new UsernamePasswordCredentials(userName, password);
         provider.setCredentials(AuthScope.ANY, credentials);
 
-        final CloseableHttpClient client =
-                HttpClientBuilder.create()
-                        .setDefaultRequestConfig(config)
-                        .setDefaultCredentialsProvider(provider)
-                        .build();
+        restClient = new MeasuringRestClient(new StreamingRestClient(createHttpClient(provider), SKIPPED_FIELDS),
+                metrics);
+    }
+
+    /**
+     * Eine Aktualisierung besteht aus mehreren Aufrufen des API, daher werden die Verbindungen in einem Pool gehalten
+     * und wiederverwendet. Verbindungen, die länger nicht genutzt wurden, werden von einem Hintergrund-Thread
+     * geschlossen, bevor der Server sie von sich aus beendet. Antworten mit gzip-Kompression werden vom
+     * {@link HttpClientBuilder} automatisch entpackt.
+     */
+    static CloseableHttpClient createHttpClient(CredentialsProvider provider) {
+        final RequestConfig config = RequestConfig.custom()
+                .setConnectTimeout(TIMEOUT_MILLIS)
+                .setConnectionRequestTimeout(TIMEOUT_MILLIS)
+                .setSocketTimeout(TIMEOUT_MILLIS).build();
+
+        final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(MAX_CONNECTIONS);
+        connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS);
+
+        final ConnectionKeepAliveStrategy keepAliveStrategy = (response, context) -> {
+            final long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return duration > 0 ? Math.min(duration, KEEP_ALIVE_MILLIS) : KEEP_ALIVE_MILLIS;
+        };
+
+        final HttpClientBuilder builder = HttpClientBuilder.create()
+                .setDefaultRequestConfig(config)
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy(keepAliveStrategy)
+                .evictExpiredConnections()
+                .evictIdleConnections(MAX_IDLE_MILLIS, TimeUnit.MILLISECONDS);
+        if (provider != null) {
+            builder.setDefaultCredentialsProvider(provider);
+        }
+        return builder.build();
+    }
 
-        restClient = new HttpRestClient(client, HttpClientContext.create());
+    /**
+     * @return Anzahl und Dauer der bisherigen Aufrufe des API
+     */
+    public RestClientMetrics getMetrics() {
+        return metrics;
     }
 
     /**
@@ -139,21 +203,120 @@ public class CkanAPI {
 
         String packageId = StringUtils.substringAfterLast(redirectURL, "/");
 
+        EntityUtils.consumeQuietly(response.getEntity());
         response.close();
 
         return packageId;
     }
 
+    /**
+     * Liest einen Datensatz. Wurde er in diesem Lauf schon einmal gelesen und seitdem nicht über dieses Objekt
+     * verändert, wird das frühere Ergebnis geliefert. Der Aufrufer erhält immer eine eigene Kopie, die er verändern
+     * darf.
+     */
     public JSONObject readDataset(String packageId) throws IOException {
+        final JSONObject cached = datasetCache.get(packageId);
+        if (cached != null) {
+            cacheHits.incrementAndGet();
+            return deepCopy(cached);
+        }
+        cacheMisses.incrementAndGet();
+
+        final long finishedBefore = writesFinished.get();
+        final long startedBefore = writesStarted.get();
         HttpGet httpGet = new HttpGet(baseURL + "/api/3/action/package_show?id=" + packageId);
         JSONObject responseJSON = restClient.executeHttpRequest(httpGet);
         if (responseJSON.has("result")) {
-            return responseJSON.getJSONObject("result");
+            final JSONObject result = responseJSON.getJSONObject("result");
+            if (startedBefore == finishedBefore && writesStarted.get() == startedBefore) {
+                datasetCache.put(packageId, deepCopy(result));
+            }
+            return result;
         } else {
             return null;
         }
     }
 
+    /**
+     * Verwirft die zwischengespeicherten Ergebnisse von <code>package_show</code> zu einem Datensatz, egal ob er
+     * über seine Id oder seinen Namen gelesen wurde.
+     */
+    void invalidateDataset(String idOrName) {
+        if (idOrName == null) {
+            return;
+        }
+        datasetCache.entrySet().removeIf(entry -> idOrName.equals(entry.getKey())
+                || idOrName.equals(entry.getValue().optString("id"))
+                || idOrName.equals(entry.getValue().optString("name")));
+    }
+
+    /**
+     * Verwirft die zwischengespeicherten Ergebnisse zu allen Datensätzen, die eine Ressource mit dieser Id haben.
+     */
+    private void invalidateResource(String resourceId) {
+        datasetCache.entrySet().removeIf(entry -> {
+            final JSONArray resources = entry.getValue().optJSONArray("resources");
+            if (resources != null) {
+                for (int i = 0; i < resources.length(); i++) {
+                    final JSONObject resource = resources.optJSONObject(i);
+                    if (resource != null && resourceId.equals(resource.optString("id"))) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        });
+    }
+
+    /**
+     * Führt einen Schreibzugriff aus. Die betroffenen Einträge im Cache werden vorher und nachher verworfen, denn
+     * ein anderer Thread kann den Datensatz gelesen haben, während der Schreibzugriff lief.
+     */
+    private JSONObject executeWrite(HttpUriRequest request, Runnable invalidation) throws IOException {
+        invalidation.run();
+        writesStarted.incrementAndGet();
+        try {
+            return restClient.executeHttpRequest(request);
+        } finally {
+            writesFinished.incrementAndGet();
+            invalidation.run();
+        }
+    }
+
+    public void clearCache() {
+        datasetCache.clear();
+    }
+
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    private static JSONObject deepCopy(JSONObject object) {
+        final JSONObject copy = new JSONObject();
+        for (String key : object.keySet()) {
+            copy.put(key, deepCopyValue(object.get(key)));
+        }
+        return copy;
+    }
+
+    private static Object deepCopyValue(Object value) {
+        if (value instanceof JSONObject) {
+            return deepCopy((JSONObject) value);
+        } else if (value instanceof JSONArray) {
+            final JSONArray array = (JSONArray) value;
+            final JSONArray copy = new JSONArray();
+            for (int i = 0; i < array.length(); i++) {
+                copy.put(deepCopyValue(array.get(i)));
+            }
+            return copy;
+        }
+        return value;
+    }
+
     /**
      * Return the first accessURL of a dataset's resource.
      */
@@ -197,7 +360,10 @@ public class CkanAPI {
         httpPost.addHeader("Content-Type", "application/json");
         httpPost.setEntity(new StringEntity(json.toString(), StandardCharsets.UTF_8));
 
-        final JSONObject responseJSON = restClient.executeHttpRequest(httpPost);
+        final JSONObject responseJSON = executeWrite(httpPost, () -> {
+            invalidateDataset(datasetId);
+            invalidateDataset(collectionId);
+        });
         return isResponseSuccess(responseJSON);
     }
 
@@ -230,7 +396,10 @@ public class CkanAPI {
         httpPost.addHeader("Content-Type", "application/json");
         httpPost.setEntity(new StringEntity(json.toString(), StandardCharsets.UTF_8));
 
-        final JSONObject responseJSON = restClient.executeHttpRequest(httpPost);
+        final JSONObject responseJSON = executeWrite(httpPost, () -> {
+            invalidateDataset(datasetId);
+            invalidateDataset(collectionId);
+        });
         return isResponseSuccess(responseJSON);
     }
 
@@ -248,7 +417,10 @@ public class CkanAPI {
         requestPackageUpdate.addHeader("Content-Type", "application/json");
         requestPackageUpdate.setEntity(new StringEntity(json.toString(), StandardCharsets.UTF_8));
 
-        final JSONObject responseJSON = restClient.executeHttpRequest(requestPackageUpdate);
+        final JSONObject responseJSON = executeWrite(requestPackageUpdate, () -> {
+            invalidateDataset(packageId);
+            invalidateDataset(json.optString("name", null));
+        });
         return isResponseSuccess(responseJSON);
     }
 
@@ -258,7 +430,7 @@ public class CkanAPI {
         httpPost.addHeader("Content-Type", "application/json");
         httpPost.setEntity(new StringEntity(json.toString(), StandardCharsets.UTF_8));
 
-        final JSONObject responseJSON = restClient.executeHttpRequest(httpPost);
+        final JSONObject responseJSON = executeWrite(httpPost, () -> invalidateDataset(json.optString("name", null)));
 
         if (!responseJSON.getBoolean("success")) {
             throw new RuntimeException(responseJSON.get("error").toString());
@@ -292,7 +464,7 @@ public class CkanAPI {
         httpPost.addHeader("Content-Type", "application/json");
         httpPost.setEntity(new StringEntity(json.toString(), StandardCharsets.UTF_8));
 
-        final JSONObject responseJSON = restClient.executeHttpRequest(httpPost);
+        final JSONObject responseJSON = executeWrite(httpPost, () -> invalidateDataset(collectionId));
         return responseJSON.getJSONObject("result").getString("id");
     }
 
@@ -308,11 +480,10 @@ public class CkanAPI {
      * If the dataset should be part of more than one collection, only the first id will be returned.
      */
     public String getCollection(String packageId) throws IOException {
-        final HttpGet requestPackageShow = new HttpGet(baseURL + "/api/3/action/package_show?id=" + packageId);
-        final JSONObject response = restClient.executeHttpRequest(requestPackageShow);
+        final JSONObject dataset = readDataset(packageId);
 
-        if (response.has("result")) {
-            final JSONArray relationships = response.getJSONObject("result").getJSONArray("relationships_as_subject");
+        if (dataset != null) {
+            final JSONArray relationships = dataset.getJSONArray("relationships_as_subject");
             for (Object it : relationships) {
                 final JSONObject relationship = (JSONObject) it;
                 final JSONObject extras = relationship.getJSONObject("__extras");
@@ -339,7 +510,8 @@ public class CkanAPI {
         httpPost.addHeader("Content-Type", "application/json");
         httpPost.setEntity(new StringEntity(json.toString(), StandardCharsets.UTF_8));
 
-        final JSONObject responseJSON = restClient.executeHttpRequest(httpPost);
+        final JSONObject responseJSON = executeWrite(httpPost,
+                () -> invalidateDataset(json.optString("package_id", null)));
 
         if (!responseJSON.getBoolean("success")) {
             throw new RuntimeException(responseJSON.get("error").toString());
@@ -352,6 +524,14 @@ public class CkanAPI {
         final MessageDigest shaDigest = MessageDigest.getInstance("MD5");
         final String checksum = getFileChecksum(shaDigest, file);
 
+        return uploadFile(packageId, file, name, format, mimeType, checksum);
+    }
+
+    /**
+     * Lädt eine Datei hoch, deren MD5-Prüfsumme bereits bekannt ist.
+     */
+    public boolean uploadFile(final String packageId, final File file, final String name, final String format,
+                              final String mimeType, final String checksum) throws IOException {
         final HttpPost httpPost = new HttpPost(baseURL + "/api/action/resource_create");
         httpPost.addHeader("Authorization", apiKey.toString());
 
@@ -368,7 +548,7 @@ public class CkanAPI {
 
         log.debug("Sending file {}...", file.getName());
         httpPost.setEntity(entity);
-        final JSONObject responseJSON = restClient.executeHttpRequest(httpPost);
+        final JSONObject responseJSON = executeWrite(httpPost, () -> invalidateDataset(packageId));
 
         boolean success = isResponseSuccess(responseJSON);
         if (!success) {
@@ -432,10 +612,19 @@ public class CkanAPI {
     }
 
     boolean doesDatasetExist(String packageId) throws IOException {
+        return readDatasetSummary(packageId) != null;
+    }
+
+    /**
+     * Liest nur die wichtigsten Angaben zu einem Datensatz, ohne die vollständige Antwort als JSON-Baum aufzubauen.
+     *
+     * @return Angaben zum Datensatz oder <code>null</code>, wenn es ihn nicht gibt
+     */
+    public PackageSummary readDatasetSummary(String packageId) throws IOException {
         final HttpGet requestPackageShow = new HttpGet(baseURL + "/api/3/action/package_show?id=" + packageId);
-        final JSONObject response = restClient.executeHttpRequest(requestPackageShow);
+        final PackageShowResponse response = restClient.executeHttpRequest(requestPackageShow, PackageShowResponse.class);
 
-        return isResponseSuccess(response);
+        return response != null && response.isSuccess() ? response.getResult() : null;
     }
 
     public boolean changeTitle(String packageId, String title) throws IOException {
@@ -459,7 +648,7 @@ public class CkanAPI {
         httpPost.addHeader("Content-Type", "application/json");
         httpPost.setEntity(new StringEntity(json.toString(), StandardCharsets.UTF_8));
 
-        final JSONObject responseJSON = restClient.executeHttpRequest(httpPost);
+        final JSONObject responseJSON = executeWrite(httpPost, () -> invalidateResource(resourceId));
 
         return responseJSON.getBoolean("success");
     }
@@ -475,7 +664,7 @@ public class CkanAPI {
         httpPost.addHeader("Content-Type", "application/json");
         httpPost.setEntity(new StringEntity(json.toString(), StandardCharsets.UTF_8));
 
-        final JSONObject responseJSON = restClient.executeHttpRequest(httpPost);
+        final JSONObject responseJSON = executeWrite(httpPost, () -> invalidateDataset(packageId));
 
         return responseJSON.getBoolean("success");
     }
@@ -491,7 +680,7 @@ public class CkanAPI {
         httpPost.addHeader("Content-Type", "application/json");
         httpPost.setEntity(new StringEntity(json.toString(), StandardCharsets.UTF_8));
 
-        final JSONObject responseJSON = restClient.executeHttpRequest(httpPost);
+        final JSONObject responseJSON = executeWrite(httpPost, () -> invalidateDataset(packageId));
 
         return responseJSON.getBoolean("success");
     }
@@ -0,0 +1,58 @@
+package de.landsh.opendata.ckan;
+
+import lombok.RequiredArgsConstructor;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.json.JSONObject;
+
+import java.io.IOException;
+
+/**
+ * Misst die Dauer der Aufrufe eines anderen {@link RestClient}. Bei {@link #executeRawHttpRequest(HttpUriRequest)}
+ * wird nur die Zeit bis zum Eintreffen der Antwort gemessen, nicht das Lesen des Inhalts.
+ */
+@RequiredArgsConstructor
+public class MeasuringRestClient implements RestClient {
+
+    private final RestClient delegate;
+    private final RestClientMetrics metrics;
+
+    @Override
+    public JSONObject executeHttpRequest(HttpUriRequest request) throws IOException {
+        final long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            final JSONObject result = delegate.executeHttpRequest(request);
+            failed = result == null || !result.optBoolean("success", true);
+            return result;
+        } finally {
+            metrics.record(RestClientMetrics.getAction(request.getURI().getPath()), System.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public <T> T executeHttpRequest(HttpUriRequest request, Class<T> type) throws IOException {
+        final long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            final T result = delegate.executeHttpRequest(request, type);
+            failed = result == null || (result instanceof ActionResponse && !((ActionResponse) result).isSuccess());
+            return result;
+        } finally {
+            metrics.record(RestClientMetrics.getAction(request.getURI().getPath()), System.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public CloseableHttpResponse executeRawHttpRequest(HttpUriRequest request) throws IOException {
+        final long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            final CloseableHttpResponse response = delegate.executeRawHttpRequest(request);
+            failed = response.getStatusLine().getStatusCode() >= 400;
+            return response;
+        } finally {
+            metrics.record(RestClientMetrics.getAction(request.getURI().getPath()), System.nanoTime() - start, failed);
+        }
+    }
+}
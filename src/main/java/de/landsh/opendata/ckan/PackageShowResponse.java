@@ -0,0 +1,15 @@
+package de.landsh.opendata.ckan;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+
+/**
+ * Antwort von <code>package_show</code>, von der nur die Felder aus {@link PackageSummary} gelesen werden.
+ */
+@Data
+@EqualsAndHashCode(callSuper = true)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class PackageShowResponse extends ActionResponse {
+    private PackageSummary result;
+}
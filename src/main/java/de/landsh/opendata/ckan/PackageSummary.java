@@ -0,0 +1,40 @@
+package de.landsh.opendata.ckan;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Die wichtigsten Angaben zu einem Datensatz. Alle übrigen Felder, insbesondere die umfangreichen Angaben der
+ * Erweiterungen zu den Ressourcen, werden beim Lesen übersprungen.
+ */
+@Data
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class PackageSummary {
+    private String id;
+    private String name;
+    private String title;
+    @JsonProperty("private")
+    private boolean isPrivate;
+    private Organization organization;
+    private List<ResourceSummary> resources;
+
+    @Data
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Organization {
+        private String id;
+        private String name;
+    }
+
+    @Data
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class ResourceSummary {
+        private String id;
+        private String name;
+        private String url;
+        private String format;
+        private String hash;
+    }
+}
@@ -1,5 +1,8 @@
 package de.landsh.opendata.ckan;
 
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.json.JSONObject;
@@ -10,8 +13,23 @@ import java.io.IOException;
  * Diese Klasse abstrahiert den HTTP Aufruf eines JSON Douments.
  */
 public interface RestClient {
+    /**
+     * Liest JSON in Objekte und ignoriert dabei unbekannte Felder. Ein {@link ObjectReader} ist unveränderlich und
+     * kann von allen Threads gemeinsam verwendet werden.
+     */
+    ObjectReader JSON_READER = new ObjectMapper().reader()
+            .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
     JSONObject executeHttpRequest(HttpUriRequest request) throws IOException;
 
+    /**
+     * Liefert die Antwort als Objekt der angegebenen Klasse. Unbekannte Felder werden ignoriert.
+     */
+    default <T> T executeHttpRequest(HttpUriRequest request, Class<T> type) throws IOException {
+        final JSONObject json = executeHttpRequest(request);
+        return JSON_READER.forType(type).readValue(json.toString());
+    }
+
     CloseableHttpResponse executeRawHttpRequest(HttpUriRequest request) throws IOException;
 
 }
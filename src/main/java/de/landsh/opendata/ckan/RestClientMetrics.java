@@ -0,0 +1,85 @@
+package de.landsh.opendata.ckan;
+
+import lombok.Data;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sammelt Anzahl und Dauer der Aufrufe des CKAN API je Aktion (z.B. <code>package_show</code>).
+ */
+public class RestClientMetrics {
+
+    private static final Logger log = LoggerFactory.getLogger(RestClientMetrics.class);
+    private final Map<String, Statistics> statistics = new ConcurrentHashMap<>();
+
+    /**
+     * Ermittelt die Aktion aus der Adresse, z.B. <code>package_show</code> aus
+     * <code>https://example.org/api/3/action/package_show?id=abc</code>.
+     */
+    static String getAction(String path) {
+        if (path == null) {
+            return "";
+        }
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    public void record(String action, long durationNanos, boolean failed) {
+        statistics.computeIfAbsent(action, key -> new Statistics()).add(durationNanos, failed);
+    }
+
+    /**
+     * @return Kopie der bisherigen Werte, sortiert nach Aktion
+     */
+    public Map<String, Statistics> getStatistics() {
+        final Map<String, Statistics> result = new TreeMap<>();
+        statistics.forEach((action, value) -> result.put(action, value.copy()));
+        return result;
+    }
+
+    /**
+     * Schreibt je Aktion Anzahl, Fehler, durchschnittliche und maximale Dauer der Aufrufe in das Log.
+     */
+    public void log() {
+        getStatistics().forEach((action, value) -> log.info("{}: {} Aufrufe, {} Fehler, Ø {} ms, max. {} ms", action,
+                value.getCount(), value.getErrors(), value.getAverageMillis(), value.getMaxMillis()));
+    }
+
+    @Data
+    public static class Statistics {
+        private long count;
+        private long errors;
+        private long totalNanos;
+        private long maxNanos;
+
+        synchronized void add(long durationNanos, boolean failed) {
+            count++;
+            if (failed) {
+                errors++;
+            }
+            totalNanos += durationNanos;
+            maxNanos = Math.max(maxNanos, durationNanos);
+        }
+
+        synchronized Statistics copy() {
+            final Statistics copy = new Statistics();
+            copy.count = count;
+            copy.errors = errors;
+            copy.totalNanos = totalNanos;
+            copy.maxNanos = maxNanos;
+            return copy;
+        }
+
+        public long getAverageMillis() {
+            return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalNanos / count);
+        }
+
+        public long getMaxMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(maxNanos);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package de.landsh.opendata.ckan;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Liest die Antworten des CKAN API direkt aus dem Datenstrom, ohne sie vorher vollständig in einen String zu laden.
+ * <p>
+ * Felder, deren Pfad auf einen der Einträge in <code>skippedFields</code> endet, werden beim Lesen übersprungen.
+ * Der Pfad besteht aus den Namen der Felder, getrennt durch Punkte; Arrays tragen nichts zum Pfad bei. Mit
+ * <code>resources.archiver</code> entfällt also das Feld <code>archiver</code> in jeder Ressource.
+ */
+public class StreamingRestClient implements RestClient {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final CloseableHttpClient client;
+    private final Set<String> skippedFields;
+
+    public StreamingRestClient(CloseableHttpClient client) {
+        this(client, Collections.emptySet());
+    }
+
+    public StreamingRestClient(CloseableHttpClient client, Set<String> skippedFields) {
+        this.client = client;
+        this.skippedFields = skippedFields;
+    }
+
+    @Override
+    public JSONObject executeHttpRequest(HttpUriRequest request) throws IOException {
+        try (CloseableHttpResponse response = client.execute(request, HttpClientContext.create());
+             InputStream in = response.getEntity().getContent();
+             JsonParser parser = JSON_FACTORY.createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new RuntimeException("Invalid response from CKAN server: " + response.getStatusLine());
+            }
+            final JSONObject result = readObject(parser, "");
+            EntityUtils.consume(response.getEntity());
+            return result;
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Invalid response from CKAN server: " + e.getOriginalMessage());
+        }
+    }
+
+    /**
+     * Liest die Antwort direkt in ein Objekt der angegebenen Klasse. Felder, die es in der Klasse nicht gibt, werden
+     * ohne Aufbau eines Baums übersprungen.
+     */
+    @Override
+    public <T> T executeHttpRequest(HttpUriRequest request, Class<T> type) throws IOException {
+        try (CloseableHttpResponse response = client.execute(request, HttpClientContext.create());
+             InputStream in = response.getEntity().getContent()) {
+            final T result = OBJECT_MAPPER.readValue(in, type);
+            EntityUtils.consume(response.getEntity());
+            return result;
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Invalid response from CKAN server: " + e.getOriginalMessage());
+        }
+    }
+
+    @Override
+    public CloseableHttpResponse executeRawHttpRequest(HttpUriRequest request) throws IOException {
+        return client.execute(request, HttpClientContext.create());
+    }
+
+    private boolean isSkipped(String path) {
+        for (String field : skippedFields) {
+            if (path.equals(field) || path.endsWith("." + field)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Liest ein Objekt, dessen {@link JsonToken#START_OBJECT} bereits gelesen wurde.
+     */
+    JSONObject readObject(JsonParser parser, String path) throws IOException {
+        final JSONObject object = new JSONObject();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String name = parser.getCurrentName();
+            final String fieldPath = path.isEmpty() ? name : path + "." + name;
+            final JsonToken token = parser.nextToken();
+            if (isSkipped(fieldPath)) {
+                parser.skipChildren();
+            } else {
+                object.put(name, readValue(parser, token, fieldPath));
+            }
+        }
+        return object;
+    }
+
+    private JSONArray readArray(JsonParser parser, String path) throws IOException {
+        final JSONArray array = new JSONArray();
+        for (JsonToken token = parser.nextToken(); token != JsonToken.END_ARRAY; token = parser.nextToken()) {
+            array.put(readValue(parser, token, path));
+        }
+        return array;
+    }
+
+    private Object readValue(JsonParser parser, JsonToken token, String path) throws IOException {
+        switch (token) {
+            case START_OBJECT:
+                return readObject(parser, path);
+            case START_ARRAY:
+                return readArray(parser, path);
+            case VALUE_STRING:
+                return parser.getText();
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return parser.getNumberValue();
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            case VALUE_NULL:
+                return JSONObject.NULL;
+            default:
+                throw new JsonParseException(parser, "Unexpected token " + token);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package de.landsh.opendata.update;
+
+import java.util.Map;
+
+/**
+ * Ein {@link Generator}, der die Prüfsummen seiner Dateien bereits beim Schreiben berechnet. Die Dateien müssen dann
+ * für den Vergleich mit der lokalen Kopie und für das Hochladen nicht erneut gelesen werden.
+ */
+public interface ChecksumProvider {
+
+    /**
+     * @return Prüfsummen der zuletzt erzeugten Dateien je Dateiname
+     */
+    Map<String, Checksums> getChecksums();
+}
@@ -0,0 +1,13 @@
+package de.landsh.opendata.update;
+
+import lombok.Data;
+
+/**
+ * Prüfsummen einer erzeugten Datei: MD5 für das Feld <code>hash</code> der CKAN-Ressource und SHA-256 für den
+ * Vergleich mit der lokalen Kopie.
+ */
+@Data
+public class Checksums {
+    private final String md5;
+    private final String sha256;
+}
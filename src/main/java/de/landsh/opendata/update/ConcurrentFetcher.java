@@ -0,0 +1,104 @@
+package de.landsh.opendata.update;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Ruft viele Adressen gleichzeitig ab, z.B. die Daten aller fehlenden Tage einer Zeitreihe. Es laufen höchstens
+ * <code>maxInFlight</code> Anfragen gleichzeitig; zusätzlich begrenzt ein {@link HostRateLimiter} die Anfragen je
+ * Server über alle Generatoren hinweg. Die Ergebnisse werden in der Reihenfolge der Adressen geliefert, unabhängig
+ * davon, wann die Antworten eintreffen.
+ * <p>
+ * Die Anfragen laufen im Executor des {@link GeneratorContext}, so dass nicht bei jedem Aufruf von
+ * {@link #fetchAll(List, Fetch)} neue Threads gestartet werden.
+ */
+public class ConcurrentFetcher {
+
+    private final int maxInFlight;
+    private final HostRateLimiter rateLimiter;
+    private final ExecutorService executor;
+
+    public ConcurrentFetcher(int maxInFlight, HostRateLimiter rateLimiter) {
+        this(maxInFlight, rateLimiter, GeneratorContext.getDefault().getFetchExecutor());
+    }
+
+    public ConcurrentFetcher(int maxInFlight, HostRateLimiter rateLimiter, ExecutorService executor) {
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.rateLimiter = rateLimiter;
+        this.executor = executor;
+    }
+
+    /**
+     * Ruft alle Adressen ab. Schlägt ein Abruf fehl, werden die übrigen abgebrochen und der Fehler weitergegeben.
+     *
+     * @return die Ergebnisse in der Reihenfolge der Adressen; <code>fetch</code> darf <code>null</code> liefern
+     */
+    @SuppressWarnings("unchecked")
+    public <T> List<T> fetchAll(List<String> urls, Fetch<T> fetch) throws IOException {
+        if (urls.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        // Jeder Auftrag holt sich die nächste noch nicht abgerufene Adresse, bis keine mehr übrig ist.
+        final Object[] result = new Object[urls.size()];
+        final AtomicInteger next = new AtomicInteger();
+        final CompletionService<Void> completion = new ExecutorCompletionService<>(executor);
+        final List<Future<Void>> workers = new ArrayList<>();
+        try {
+            for (int i = 0; i < Math.min(maxInFlight, urls.size()); i++) {
+                workers.add(completion.submit(() -> {
+                    for (int index = next.getAndIncrement(); index < urls.size(); index = next.getAndIncrement()) {
+                        result[index] = fetch(urls.get(index), fetch);
+                    }
+                    return null;
+                }));
+            }
+            for (int i = 0; i < workers.size(); i++) {
+                completion.take().get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            next.set(urls.size());
+            for (Future<Void> worker : workers) {
+                worker.cancel(true);
+            }
+        }
+        return (List<T>) Arrays.asList(result);
+    }
+
+    private <T> T fetch(String url, Fetch<T> fetch) throws IOException {
+        if (rateLimiter == null) {
+            return fetch.fetch(url);
+        }
+        rateLimiter.acquire(url);
+        try {
+            return fetch.fetch(url);
+        } finally {
+            rateLimiter.release(url);
+        }
+    }
+
+    @FunctionalInterface
+    public interface Fetch<T> {
+        T fetch(String url) throws IOException;
+    }
+}
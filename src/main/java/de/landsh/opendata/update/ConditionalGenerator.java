@@ -0,0 +1,20 @@
+package de.landsh.opendata.update;
+
+/**
+ * Ein {@link Generator}, der seine Quelldateien mit bedingten HTTP-Anfragen abrufen kann. Meldet der Server, dass
+ * sich keine Quelldatei geändert hat, erzeugt der Generator keine Dateien und {@link #isNotModified()} liefert
+ * <code>true</code>.
+ */
+public interface ConditionalGenerator extends Generator {
+
+    /**
+     * Übergibt die Werte aus dem letzten Lauf. Der Generator trägt dort beim Erzeugen die neuen Werte ein.
+     */
+    void setValidators(HttpValidators validators);
+
+    /**
+     * @return <code>true</code>, wenn beim letzten Aufruf von {@link #generateDistributions(java.io.File)} keine
+     * Quelldatei verändert war
+     */
+    boolean isNotModified();
+}
@@ -1,7 +1,9 @@
 package de.landsh.opendata.update;
 
 import de.landsh.opendata.DatasetUpdate;
+import lombok.Data;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
@@ -14,36 +16,133 @@ import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashSet;
-import java.util.Set;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
 
+/**
+ * Sammelt die Corona-Zahlen des Kreises Schleswig-Flensburg. Die Einstiegsseite enthält die aktuellen Zahlen und
+ * Links "Zu den Zahlen vom ..." auf die Seiten der Vortage, die wiederum auf ältere Seiten verlinken.
+ * <p>
+ * Die Seiten werden in Runden abgerufen: Jede Runde ruft alle neu gefundenen Seiten gleichzeitig ab, begrenzt durch
+ * <code>maxInFlight</code> und einen Mindestabstand zwischen zwei Anfragen an den Server. Bereits abgerufene Seiten
+ * werden in der Datei <code>_META_CRAWLED_URLS</code> neben <code>targetFile</code> vermerkt und bei späteren Läufen
+ * nicht erneut abgerufen. Die neuen Zeilen werden nach Datum sortiert an <code>targetFile</code> angehängt.
+ */
 public class CoronaSchleswigFlensburg implements Generator {
+    static final String CRAWLED_URLS_FILE = "_META_CRAWLED_URLS";
+    private static final int DEFAULT_MAX_IN_FLIGHT = 2;
+    private static final long DEFAULT_REQUEST_INTERVAL = 500;
+    private static final DateTimeFormatter GERMAN_DATE = DateTimeFormatter.ofPattern("d.M.yyyy");
     private final Set<String> seenURLs = new HashSet<>();
     private final Set<String> seenDates = new HashSet<>();
     private final File targetFile;
+    private final File crawledURLsFile;
+    private final int maxInFlight;
+    private final long requestInterval;
     Logger log = LoggerFactory.getLogger(CoronaSchleswigFlensburg.class);
     String BASE_URL = "https://www.schleswig-flensburg.de";
-    private PrintStream out;
+    String START_URL = BASE_URL + "/Leben-Soziales/Gesundheit/Coronavirus/Aktuelle-Zahlen/";
+    private GeneratorContext context = GeneratorContext.getDefault();
 
     public CoronaSchleswigFlensburg(String id, DatasetUpdate update) {
         targetFile = new File(update.getGeneratorArgs().get("targetFile"));
+        crawledURLsFile = new File(targetFile.getAbsoluteFile().getParentFile(), CRAWLED_URLS_FILE);
+
+        maxInFlight = NumberUtils.toInt(update.getGeneratorArgs().get("maxInFlight"), DEFAULT_MAX_IN_FLIGHT);
+        requestInterval = NumberUtils.toLong(update.getGeneratorArgs().get("requestInterval"),
+                DEFAULT_REQUEST_INTERVAL);
     }
 
-    private void work() throws IOException {
-        final String url = "https://www.schleswig-flensburg.de/Leben-Soziales/Gesundheit/Coronavirus/Aktuelle-Zahlen/";
+    /**
+     * Sortiert Tabellen nach Datum. Nicht lesbare Datumsangaben kommen ans Ende.
+     */
+    static int compareDates(String a, String b) {
+        final LocalDate dateA = parseDate(a);
+        final LocalDate dateB = parseDate(b);
+        if (dateA == null || dateB == null) {
+            return Boolean.compare(dateA == null, dateB == null);
+        }
+        return dateA.compareTo(dateB);
+    }
+
+    private static LocalDate parseDate(String date) {
+        try {
+            return LocalDate.parse(date.trim(), GERMAN_DATE);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void setContext(GeneratorContext context) {
+        this.context = context;
+    }
 
-        if (targetFile.exists()) {
-            out = new PrintStream(new FileOutputStream(targetFile, true));
+    private void work() throws IOException {
+        final boolean exists = targetFile.exists();
+        if (exists) {
             readExistingDates();
-        } else {
-            out = new PrintStream(new FileOutputStream(targetFile));
-            out.println("Datum,Amt/Gemeinde,Aktive Quarantänen,Positiv Getestete");
+        }
+        readCrawledURLs();
+
+        final List<Table> tables = crawl();
+        tables.sort(Comparator.comparing(Table::getDate, CoronaSchleswigFlensburg::compareDates));
+
+        try (PrintStream out = new PrintStream(new FileOutputStream(targetFile, exists))) {
+            if (!exists) {
+                out.println("Datum,Amt/Gemeinde,Aktive Quarantänen,Positiv Getestete");
+            }
+            for (Table table : tables) {
+                for (String row : table.getRows()) {
+                    out.println(row);
+                }
+            }
         }
 
-        processDocument(url);
-        out.close();
+        writeCrawledURLs();
     }
 
+    /**
+     * Ruft die Einstiegsseite und alle verlinkten Seiten ab, deren Zahlen noch fehlen.
+     *
+     * @return die Tabellen mit neuen Zahlen
+     */
+    private List<Table> crawl() throws IOException {
+        final List<Table> tables = new ArrayList<>();
+        final HostRateLimiter rateLimiter = context.getRateLimiter();
+        rateLimiter.limit(START_URL, maxInFlight, requestInterval);
+        final ConcurrentFetcher fetcher = new ConcurrentFetcher(maxInFlight, rateLimiter, context.getFetchExecutor());
+        // Die Einstiegsseite wird immer abgerufen, denn sie enthält die aktuellen Zahlen.
+        List<String> frontier = List.of(START_URL);
+        boolean start = true;
+
+        while (!frontier.isEmpty()) {
+            final boolean isStart = start;
+            final List<Page> pages = fetcher.fetchAll(frontier, this::processDocument);
+            start = false;
+
+            final Set<String> next = new LinkedHashSet<>();
+            for (int i = 0; i < pages.size(); i++) {
+                final Page page = pages.get(i);
+                if (!isStart) {
+                    seenURLs.add(frontier.get(i));
+                }
+                if (page.getTable() != null && seenDates.add(page.getTable().getDate())) {
+                    tables.add(page.getTable());
+                }
+                for (Map.Entry<String, String> link : page.getLinks().entrySet()) {
+                    final String url = link.getKey();
+                    if (!seenURLs.contains(url) && !seenDates.contains(link.getValue())) {
+                        next.add(url);
+                    }
+                }
+            }
+            frontier = new ArrayList<>(next);
+        }
+        return tables;
+    }
 
     /**
      * Liest die Datei <code>targetFile</code> und speichere vorhandene Datumsangaben in <code>seenDates</code>.
@@ -60,38 +159,54 @@ public class CoronaSchleswigFlensburg implements Generator {
         in.close();
     }
 
-    private void processDocument(String url) throws IOException {
+    private void readCrawledURLs() throws IOException {
+        if (crawledURLsFile.exists()) {
+            seenURLs.addAll(Files.readAllLines(crawledURLsFile.toPath(), StandardCharsets.UTF_8));
+        }
+    }
+
+    private void writeCrawledURLs() throws IOException {
+        final List<String> urls = new ArrayList<>(seenURLs);
+        Collections.sort(urls);
+        Files.write(crawledURLsFile.toPath(), urls, StandardCharsets.UTF_8);
+    }
+
+    private Page processDocument(String url) throws IOException {
         log.debug("Processing {}", url);
-        final Document doc = Jsoup.connect(url).get();
+        final Document doc;
+        try (InputStream in = context.openStream(url)) {
+            doc = Jsoup.parse(in, null, url);
+        }
         final Element div = doc.getElementById("readthis");
 
+        final Table table;
         if (div.select(".accordion-container").isEmpty()) {
-            processTable(div);
+            table = processTable(div);
         } else {
             // Einstiegsseite
-            processTable(div.select(".accordion-container").first());
+            table = processTable(div.select(".accordion-container").first());
         }
 
-        final Elements links = div.select("a");
-        for (final Element link : links) {
+        final Map<String, String> links = new LinkedHashMap<>();
+        for (final Element link : div.select("a")) {
             final String text = link.text();
             final String href = URLDecoder.decode(link.attr("href"), StandardCharsets.UTF_8);
 
-            if (text.startsWith("Zu den Zahlen vom") && !seenURLs.contains(href)) {
-                final String date = StringUtils.substringAfter(text, "Zu den Zahlen vom ");
-                if (!seenDates.contains(date)) {
-                    seenURLs.add(href);
-                    processDocument(BASE_URL + href);
-                }
+            if (text.startsWith("Zu den Zahlen vom")) {
+                links.put(BASE_URL + href, StringUtils.substringAfter(text, "Zu den Zahlen vom "));
             }
-
         }
+        return new Page(table, links);
     }
 
-    private void processTable(Element div) {
+    /**
+     * @return die Tabelle oder <code>null</code>, wenn die Zahlen für das Datum bereits vorhanden sind
+     */
+    private Table processTable(Element div) {
         final Elements rows = div.select("tr");
         boolean isFirst = true;
         String date = "";
+        final List<String> lines = new ArrayList<>();
         for (final Element row : rows) {
             final Elements tds = row.select("td");
             final String municipality = tds.get(0).text();
@@ -113,7 +228,7 @@ public class CoronaSchleswigFlensburg implements Generator {
                 isFirst = false;
                 date = StringUtils.substringBefore(municipality, ",");
                 if (seenDates.contains(date)) {
-                    return;
+                    return null;
                 }
                 if ( withQuarantine && !"Aktive Quarantänen".equals(quarantine)) {
                     throw new RuntimeException("In Spalte 2 sollte 'Aktive Quarantänen' stehen, dort steht aber " + quarantine);
@@ -122,10 +237,10 @@ public class CoronaSchleswigFlensburg implements Generator {
                     throw new RuntimeException("In Spalte 3 sollte 'Positiv Getestete' stehen, dort steht aber " + positiveTests);
                 }
             } else {
-                out.println(date + "," + municipality + "," + quarantine + "," + positiveTests);
+                lines.add(date + "," + municipality + "," + quarantine + "," + positiveTests);
             }
         }
-        out.flush();
+        return isFirst ? null : new Table(date, lines);
     }
 
     @Override
@@ -136,4 +251,22 @@ public class CoronaSchleswigFlensburg implements Generator {
         Files.copy(source, target);
         return true;
     }
+
+    /**
+     * Die Zahlen eines Tages als fertige CSV-Zeilen.
+     */
+    @Data
+    private static class Table {
+        private final String date;
+        private final List<String> rows;
+    }
+
+    /**
+     * Ergebnis einer abgerufenen Seite: ihre Tabelle und die Links auf ältere Seiten mit deren Datum.
+     */
+    @Data
+    private static class Page {
+        private final Table table;
+        private final Map<String, String> links;
+    }
 }
@@ -1,12 +1,13 @@
 package de.landsh.opendata.update;
 
 import de.landsh.opendata.DatasetUpdate;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CountingOutputStream;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.math.NumberUtils;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.json.JSONTokener;
@@ -14,10 +15,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.file.Files;
 import java.time.DayOfWeek;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 public class CoronaSchuldashboard implements Generator {
@@ -32,6 +35,9 @@ public class CoronaSchuldashboard implements Generator {
     private static final Logger log = LoggerFactory.getLogger(CoronaSchuldashboard.class);
     private static final String EARLIEST_DATE = "2020-08-10";
     private static final String EARLIEST_WEEK = "2021-W16";
+    private static final String API_URL = "https://api.public.polyteia.de/data/";
+    private static final int DEFAULT_MAX_IN_FLIGHT = 4;
+    private static final long DEFAULT_REQUEST_INTERVAL = 100;
     static String[] AVAILABLE_WEEKS = new String[]{"2022-W02", "2021-W51", "2021-W50", "2021-W49", "2021-W48", "2021-W47", "2021-W46", "2021-W45", "2021-W44", "2021-W43", "2021-W42", "2021-W39", "2021-W38", "2021-W37", "2021-W36", "2021-W35", "2021-W34", "2021-W33", "2021-W32", "2021-W31", "2021-W24", "2021-W23", "2021-W22", "2021-W21", "2021-W20", "2021-W19", "2021-W18", "2021-W17", "2021-W16"};
     /*
     pro Tag seit 2020-08-10
@@ -51,6 +57,9 @@ Anzahl durchgeführter Testungen in der Schule	https://api.public.polyteia.de/da
     private final File targetFile;
     private final String code;
     private final String frequency;
+    private final int maxInFlight;
+    private final long requestInterval;
+    private GeneratorContext context = GeneratorContext.getDefault();
 
     public CoronaSchuldashboard(String id, DatasetUpdate update) {
         if (update == null || update.getGeneratorArgs() == null) {
@@ -60,6 +69,18 @@ Anzahl durchgeführter Testungen in der Schule	https://api.public.polyteia.de/da
         targetFile = new File(update.getGeneratorArgs().get("targetFile"));
         code = update.getGeneratorArgs().get("code");
         frequency = update.getGeneratorArgs().get("frequency");
+
+        maxInFlight = NumberUtils.toInt(update.getGeneratorArgs().get("maxInFlight"), DEFAULT_MAX_IN_FLIGHT);
+        requestInterval = NumberUtils.toLong(update.getGeneratorArgs().get("requestInterval"),
+                DEFAULT_REQUEST_INTERVAL);
+    }
+
+    private static String dailyURL(String code, String date) {
+        return API_URL + code + "/?schultag=" + date;
+    }
+
+    private static String weeklyURL(String code, String week) {
+        return API_URL + code + "/?week=" + week;
     }
 
     private static List<List<String>> convertTable(String date, JSONObject json, String ignoreColumn) {
@@ -162,47 +183,57 @@ Anzahl durchgeführter Testungen in der Schule	https://api.public.polyteia.de/da
     }
 
     private void collectExistingWeekyData(String code, File targetFile) throws IOException {
-        CloseableHttpClient client = HttpClients.createDefault();
-        PrintStream out = new PrintStream(targetFile);
-        for (String week : AVAILABLE_WEEKS) {
-            HttpGet get = new HttpGet("https://api.public.polyteia.de/data/" + code + "/?week=" + week);
-            get.addHeader("Authorization", "Id bimi_sh_public");
-            CloseableHttpResponse response = client.execute(get);
-            if (response.getStatusLine().getStatusCode() == 200) {
-                JSONObject json = new JSONObject(new JSONTokener(response.getEntity().getContent()));
-                List<Integer> row = convertTestungen(json, null);
-                out.print(week + "," + row.stream().map(String::valueOf).collect(Collectors.joining(",")));
-                out.println();
+        final List<JSONObject> data = downloadAll(Arrays.stream(AVAILABLE_WEEKS)
+                .map(week -> weeklyURL(code, week))
+                .collect(Collectors.toList()));
+
+        try (PrintStream out = new PrintStream(targetFile)) {
+            for (int i = 0; i < AVAILABLE_WEEKS.length; i++) {
+                if (data.get(i) != null) {
+                    List<Integer> row = convertTestungen(data.get(i), null);
+                    out.print(AVAILABLE_WEEKS[i] + "," + row.stream().map(String::valueOf).collect(Collectors.joining(",")));
+                    out.println();
+                }
             }
-            response.close();
         }
-        out.close();
     }
 
     private void collectExistingDailyData(String code, File targetFile) throws IOException {
-        CloseableHttpClient client = HttpClients.createDefault();
-        PrintStream out = new PrintStream(targetFile);
-        for (String date : AVAILABLE_DAYS) {
-            HttpGet get = new HttpGet("https://api.public.polyteia.de/data/" + code + "/?schultag=" + date);
-            get.addHeader("Authorization", "Id bimi_sh_public");
-            CloseableHttpResponse response = client.execute(get);
-            if (response.getStatusLine().getStatusCode() == 200) {
-                JSONObject json = new JSONObject(new JSONTokener(response.getEntity().getContent()));
-                List<List<String>> table = convertFaelleNachSchulart(date, json);
-                for (List<String> row : table) {
-                    out.println(String.join(",", row));
+        final List<JSONObject> data = downloadAll(Arrays.stream(AVAILABLE_DAYS)
+                .map(date -> dailyURL(code, date))
+                .collect(Collectors.toList()));
+
+        try (PrintStream out = new PrintStream(targetFile)) {
+            for (int i = 0; i < AVAILABLE_DAYS.length; i++) {
+                if (data.get(i) != null) {
+                    List<List<String>> table = convertFaelleNachSchulart(AVAILABLE_DAYS[i], data.get(i));
+                    for (List<String> row : table) {
+                        out.println(String.join(",", row));
+                    }
                 }
             }
-            response.close();
         }
-        out.close();
+    }
+
+    /**
+     * Lädt die Daten aller Adressen gleichzeitig herunter. Die Grenzen je Server gelten gemeinsam für alle
+     * Datensätze des Laufs.
+     *
+     * @return die Daten in der Reihenfolge der Adressen, <code>null</code> für Tage oder Wochen ohne Daten
+     */
+    private List<JSONObject> downloadAll(List<String> urls) throws IOException {
+        final HostRateLimiter rateLimiter = context.getRateLimiter();
+        for (String url : urls) {
+            rateLimiter.limit(url, maxInFlight, requestInterval);
+        }
+        return new ConcurrentFetcher(maxInFlight, rateLimiter, context.getFetchExecutor())
+                .fetchAll(urls, this::downloadRawData);
     }
 
     private JSONObject downloadRawData(String url) throws IOException {
-        CloseableHttpClient client = HttpClients.createDefault();
         final HttpGet get = new HttpGet(url);
         get.addHeader("Authorization", "Id bimi_sh_public");
-        final CloseableHttpResponse response = client.execute(get);
+        final CloseableHttpResponse response = context.execute(get);
         final JSONObject json;
         if (response.getStatusLine().getStatusCode() == 200) {
             json = new JSONObject(new JSONTokener(response.getEntity().getContent()));
@@ -213,6 +244,7 @@ Anzahl durchgeführter Testungen in der Schule	https://api.public.polyteia.de/da
             log.warn("Could not download {}: {}", url, response.getStatusLine());
             json = null;
         }
+        EntityUtils.consumeQuietly(response.getEntity());
         response.close();
         return json;
     }
@@ -222,30 +254,36 @@ Anzahl durchgeführter Testungen in der Schule	https://api.public.polyteia.de/da
      * Liest aus der Datei mit den bisherigen Zahlen das letzte Datum.
      */
     String readLastDateFromTargetFile() throws IOException {
-        String max = null;
-        if (targetFile != null && targetFile.exists()) {
-            final BufferedReader in = new BufferedReader(new FileReader(targetFile));
-            in.readLine(); // skip header
-            String line = in.readLine();
-            while (line != null) {
-
-                String date = StringUtils.substringBefore(line, ",");
-                if (StringUtils.compare(date, max, true) > 0) {
-                    max = date;
-                }
-                line = in.readLine();
-            }
-        }
+        return lastDate(readTargetIndex());
+    }
 
-        if (max == null) {
-            if ("daily".equals(frequency)) {
-                return EARLIEST_DATE;
-            } else {
-                return EARLIEST_WEEK;
-            }
+    private String lastDate(CsvTailIndex index) {
+        if (index != null && index.getLastDate() != null) {
+            return index.getLastDate();
+        } else if ("daily".equals(frequency)) {
+            return EARLIEST_DATE;
         } else {
-            return max;
+            return EARLIEST_WEEK;
+        }
+    }
+
+    /**
+     * Beschreibung der Datei mit den bisherigen Zahlen. Nur wenn der gespeicherte {@link CsvTailIndex} nicht zur
+     * Datei passt, wird sie vollständig gelesen.
+     *
+     * @return die Beschreibung oder <code>null</code>, wenn es die Datei nicht gibt
+     */
+    private CsvTailIndex readTargetIndex() throws IOException {
+        if (targetFile == null || !targetFile.exists()) {
+            return null;
         }
+        final CsvTailIndex index = CsvTailIndex.read(targetFile);
+        return index != null ? index : CsvTailIndex.scan(targetFile);
+    }
+
+    @Override
+    public void setContext(GeneratorContext context) {
+        this.context = context;
     }
 
     @Override
@@ -267,20 +305,21 @@ Anzahl durchgeführter Testungen in der Schule	https://api.public.polyteia.de/da
         int week = Calendar.getInstance().get(Calendar.WEEK_OF_YEAR);
         String weekString = year + "-W" + String.format("%02d", week);
 
-        final PrintStream out = new PrintStream(new FileOutputStream(new File(directory, "data.csv")));
-
-        // copy header
-        BufferedReader existingData = null;
-        if (targetFile != null && targetFile.exists()) {
-            existingData = new BufferedReader(new FileReader(targetFile));
-            out.println(existingData.readLine());
+        final Function<JSONObject, List<Integer>> converter;
+        if (CODE_TEST_ART.equals(code)) {
+            converter = CoronaSchuldashboard::convertTestungenArt;
+        } else if (CODE_TEST_IN_SCHULE.equals(code)) {
+            converter = CoronaSchuldashboard::convertTestungenSchule;
+        } else if (CODE_TEST_POSITIV.equals(code)) {
+            converter = CoronaSchuldashboard::convertTestungenPositiv;
+        } else {
+            log.warn("Unknown code {}", code);
+            converter = null;
         }
 
-        Set<String> seenWeeks = new HashSet<>();
-
-        while (!weekString.equals(lastDate)) {
-            processDataForOneWeek(weekString, out);
-            seenWeeks.add(weekString);
+        final List<String> weeks = new ArrayList<>();
+        while (weekString.compareTo(lastDate) > 0) {
+            weeks.add(weekString);
 
             // go to previous week
             week--;
@@ -293,106 +332,217 @@ Anzahl durchgeführter Testungen in der Schule	https://api.public.polyteia.de/da
 
         // noch eine Woche weiter in die Vergangenheit gehen, da sich die Daten der letzten Woche noch über das
         // Wochenende geändert haben könnten.
-        processDataForOneWeek(weekString, out);
-        seenWeeks.add(weekString);
-
-        if (existingData != null) {
-            String line = existingData.readLine();
-            while (line != null) {
-                final String[] s = line.split(",");
-                // S[0] enhält die Woche
-                if (!seenWeeks.contains(s[0])) {
-                    out.println(line);
+        weeks.add(weekString);
+
+        // Alle Wochen gleichzeitig abrufen, aber in der ursprünglichen Reihenfolge schreiben.
+        final List<JSONObject> data = converter == null ? null
+                : downloadAll(weeks.stream().map(w -> weeklyURL(code, w)).collect(Collectors.toList()));
+
+        final CsvTailIndex index = new CsvTailIndex(null, 0, 0, -1);
+        final File dataFile = new File(directory, "data.csv");
+        try (CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(dataFile)));
+             PrintStream out = new PrintStream(counter)) {
+
+            // copy header
+            BufferedReader existingData = null;
+            if (targetFile != null && targetFile.exists()) {
+                existingData = new BufferedReader(new FileReader(targetFile));
+                out.println(existingData.readLine());
+            }
+
+            for (int i = 0; data != null && i < weeks.size(); i++) {
+                final List<Integer> row = converter.apply(data.get(i));
+                if (row != null) {
+                    addRow(index, weeks.get(i), counter.getByteCount());
+                    out.println(weeks.get(i) + "," + row.stream().map(String::valueOf).collect(Collectors.joining(",")));
                 }
-                line = existingData.readLine();
             }
-            existingData.close();
+
+            final Set<String> seenWeeks = new HashSet<>(weeks);
+
+            if (existingData != null) {
+                String line = existingData.readLine();
+                while (line != null) {
+                    final String[] s = line.split(",");
+                    // S[0] enhält die Woche
+                    if (!seenWeeks.contains(s[0])) {
+                        addRow(index, s[0], counter.getByteCount());
+                        out.println(line);
+                    }
+                    line = existingData.readLine();
+                }
+                existingData.close();
+            }
+
+            out.flush();
+            index.setLength(counter.getByteCount());
         }
 
-        out.close();
+        writeTargetIndex(index);
         return true;
     }
 
-    private void processDataForOneWeek(String weekString, PrintStream out) throws IOException {
-        List<Integer> data;
-        if (CODE_TEST_ART.equals(code)) {
-            final JSONObject json = downloadRawData("https://api.public.polyteia.de/data/" + code + "/?week=" + weekString);
-            data = convertTestungenArt(json);
-        } else if (CODE_TEST_IN_SCHULE.equals(code)) {
-            final JSONObject json = downloadRawData("https://api.public.polyteia.de/data/" + code + "/?week=" + weekString);
-            data = convertTestungenSchule(json);
-        } else if (CODE_TEST_POSITIV.equals(code)) {
-            final JSONObject json = downloadRawData("https://api.public.polyteia.de/data/" + code + "/?week=" + weekString);
-            data = convertTestungenPositiv(json);
-        } else {
-            log.warn("Unknown code {}", code);
-            data = null;
+    private static void addRow(CsvTailIndex index, String date, long offset) {
+        index.setRowCount(index.getRowCount() + 1);
+        if (StringUtils.compare(date, index.getLastDate(), true) > 0) {
+            index.setLastDate(date);
+            index.setOffset(offset);
         }
+    }
 
-        if (data != null) {
-            out.println(weekString + "," + data.stream().map(String::valueOf).collect(Collectors.joining(",")));
+    /**
+     * Legt die Beschreibung der erzeugten Datei neben die Datei mit den bisherigen Zahlen. Wird diese beim
+     * Aktualisieren durch die erzeugte Datei ersetzt, muss sie beim nächsten Lauf nicht gelesen werden.
+     */
+    private void writeTargetIndex(CsvTailIndex index) {
+        if (targetFile == null) {
+            return;
+        }
+        try {
+            index.write(targetFile);
+        } catch (IOException e) {
+            log.warn("Index für {} kann nicht geschrieben werden: {}", targetFile, e.getMessage());
         }
     }
 
+    /**
+     * Die Zeilen der neuen Tage werden wie bei den Wochen vor die bisherigen Zahlen geschrieben, der neueste Tag
+     * steht oben. Das letzte Datum steht im {@link CsvTailIndex}, so dass die bisherige Datei dafür nicht gelesen
+     * werden muss; sie wird aber weiterhin bei jedem Lauf vollständig kopiert, denn die Distribution enthält alle
+     * Zeilen.
+     */
     private boolean generateDistributionForDailyDatasets(File directory) throws IOException {
 
-        String lastDate = readLastDateFromTargetFile();
+        final CsvTailIndex previous = readTargetIndex();
+        final String lastDate = lastDate(previous);
 
         LocalDate dateObject = LocalDate.now().minusDays(1);
 
-        // Copy header
-        final PrintStream out = new PrintStream(new FileOutputStream(new File(directory, "data.csv")));
-        BufferedReader existingData = null;
-        if (targetFile != null && targetFile.exists()) {
-            existingData = new BufferedReader(new FileReader(targetFile));
-            out.println(existingData.readLine());
+        final String ignoreColumn;
+        if (CODE_SCHULE_GESCHLOSSEN.equals(code) || CODE_SCHULE_BEINTRAECHTIGT.equals(code)) {
+            ignoreColumn = "Gesamt";
+        } else if (CODE_FAELLE_SCHULART.equals(code) || CODE_FAELLE_KREIS.equals(code)) {
+            ignoreColumn = "Neue Fälle insgesamt";
+        } else {
+            log.warn("Unknown code {}", code);
+            ignoreColumn = null;
         }
 
+        final List<String> dates = new ArrayList<>();
         String dateString = DateTimeFormatter.ISO_DATE.format(dateObject);
+        while (dateString.compareTo(lastDate) > 0) {
+            dates.add(dateString);
+            dateObject = getPreviousDate(dateObject);
+            dateString = DateTimeFormatter.ISO_DATE.format(dateObject);
+        }
 
-        while (!dateString.equals(lastDate)) {
-
-            final List<List<String>> table;
-            if (CODE_SCHULE_GESCHLOSSEN.equals(code)) {
-                final JSONObject json = downloadRawData("https://api.public.polyteia.de/data/" + code + "/?schultag=" + dateString);
-                table = convertTable(dateString, json, "Gesamt");
-            } else if (CODE_SCHULE_BEINTRAECHTIGT.equals(code)) {
-                final JSONObject json = downloadRawData("https://api.public.polyteia.de/data/" + code + "/?schultag=" + dateString);
-                table = convertTable(dateString, json, "Gesamt");
-            } else if (CODE_FAELLE_SCHULART.equals(code)) {
-                final JSONObject json = downloadRawData("https://api.public.polyteia.de/data/" + code + "/?schultag=" + dateString);
-                table = convertTable(dateString, json, "Neue Fälle insgesamt");
-            } else if (CODE_FAELLE_KREIS.equals(code)) {
-                final JSONObject json = downloadRawData("https://api.public.polyteia.de/data/" + code + "/?schultag=" + dateString);
-                table = convertTable(dateString, json, "Neue Fälle insgesamt");
-            } else {
-                log.warn("Unknown code {}", code);
-                table = null;
-            }
+        // Alle fehlenden Tage gleichzeitig abrufen.
+        final List<JSONObject> data = ignoreColumn == null ? null
+                : downloadAll(dates.stream().map(d -> dailyURL(code, d)).collect(Collectors.toList()));
 
+        final SortedMap<String, List<List<String>>> newDays = new TreeMap<>();
+        for (int i = 0; data != null && i < dates.size(); i++) {
+            final List<List<String>> table = convertTable(dates.get(i), data.get(i), ignoreColumn);
             if (table != null) {
-                for (List<String> row : table) {
+                newDays.put(dates.get(i), table);
+            }
+        }
+
+        final CsvTailIndex index = writeDailyFile(previous == null ? null : targetFile, previous, newDays,
+                new File(directory, "data.csv"));
+        writeTargetIndex(index);
+        return true;
+    }
+
+    /**
+     * Schreibt die bisherigen Zahlen zusammen mit den neuen Tagen. Die Reihenfolge der bisherigen Datei bleibt
+     * erhalten: Normalerweise steht der neueste Tag oben, dann werden die neuen Tage absteigend zwischen Kopfzeile
+     * und bisherige Zeilen geschrieben. Ist die bisherige Datei aufsteigend sortiert, werden sie aufsteigend
+     * angehängt. Die bisherigen Zeilen werden byteweise kopiert.
+     *
+     * @param existing bisherige Datei oder <code>null</code>
+     * @param previous Beschreibung der bisherigen Datei oder <code>null</code>
+     * @param newDays  Zeilen der neuen Tage je Datum
+     * @return Beschreibung der geschriebenen Datei
+     */
+    static CsvTailIndex writeDailyFile(File existing, CsvTailIndex previous,
+                                       SortedMap<String, List<List<String>>> newDays, File dataFile)
+            throws IOException {
+        final long headerLength = existing == null ? 0 : headerLength(existing);
+        final boolean ascending = previous != null && previous.getLastDate() != null
+                && previous.getOffset() > headerLength;
+
+        final CsvTailIndex index = new CsvTailIndex(null, 0, 0, -1);
+        try (CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(dataFile)));
+             PrintStream out = new PrintStream(counter)) {
+
+            if (existing != null) {
+                // Kopfzeile bzw. bei aufsteigender Sortierung die ganze bisherige Datei übernehmen
+                if (ascending) {
+                    Files.copy(existing.toPath(), counter);
+                    index.setLastDate(previous.getLastDate());
+                    index.setRowCount(previous.getRowCount());
+                    index.setOffset(previous.getOffset());
+                } else {
+                    copyRange(existing, 0, headerLength, counter);
+                }
+                if (!CsvTailIndex.endsWithNewline(existing) && (ascending || headerLength == existing.length())) {
+                    out.println();
+                }
+            }
+
+            final List<String> dates = new ArrayList<>(newDays.keySet());
+            if (!ascending) {
+                Collections.reverse(dates);
+            }
+            for (String date : dates) {
+                for (List<String> row : newDays.get(date)) {
+                    out.flush();
+                    addRow(index, date, counter.getByteCount());
                     out.println(String.join(",", row));
                 }
             }
 
-            dateObject = getPreviousDate(dateObject);
-            dateString = DateTimeFormatter.ISO_DATE.format(dateObject);
+            if (existing != null && !ascending && previous != null && previous.getRowCount() > 0) {
+                out.flush();
+                final long bodyStart = counter.getByteCount();
+                copyRange(existing, headerLength, existing.length() - headerLength, counter);
+                index.setRowCount(index.getRowCount() + previous.getRowCount());
+                if (StringUtils.compare(previous.getLastDate(), index.getLastDate(), true) > 0) {
+                    index.setLastDate(previous.getLastDate());
+                    index.setOffset(bodyStart + previous.getOffset() - headerLength);
+                }
+            }
+
+            out.flush();
+            index.setLength(counter.getByteCount());
         }
+        return index;
+    }
 
-        //copy existing data
-        if (existingData != null) {
-            String line = existingData.readLine();
-            while (line != null) {
-                out.println(line);
-                line = existingData.readLine();
+    /**
+     * @return Länge der Kopfzeile einschließlich Zeilenumbruch in Bytes
+     */
+    private static long headerLength(File file) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file.toPath()))) {
+            long length = 0;
+            for (int b = in.read(); b != -1; b = in.read()) {
+                length++;
+                if (b == '\n') {
+                    break;
+                }
             }
-            existingData.close();
+            return length;
         }
-        out.close();
-        return true;
     }
 
+    private static void copyRange(File file, long offset, long length, OutputStream out) throws IOException {
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            IOUtils.copyLarge(in, out, offset, length);
+        }
+    }
+
+
     LocalDate getPreviousDate(LocalDate date) {
         if (DayOfWeek.MONDAY.equals(date.getDayOfWeek())) {
             return date.minusDays(3);
@@ -1,20 +1,26 @@
 package de.landsh.opendata.update;
 
 import de.landsh.opendata.DatasetUpdate;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.BooleanUtils;
 
 import java.io.*;
-import java.util.ArrayList;
-import java.util.List;
 
 /**
- * Lädt eine CSV-Datei herunter und sortiert die Zeilen.
+ * Lädt eine CSV-Datei herunter und sortiert die Zeilen. Mit dem Argument <code>sort_memory</code> (z.B.
+ * <code>512m</code>) lässt sich der Speicher begrenzen, den das Sortieren belegen darf; größere Dateien werden dann
+ * über temporäre Dateien sortiert.
+ * <p>
+ * Das Verfahren zum Sortieren wird anhand der Dateigröße gewählt, siehe {@link LineSorter#chooseMode(long, long)}.
+ * Mit dem Argument <code>sort_mode</code> lässt es sich fest vorgeben.
  */
-public class CsvSortLines implements Generator {
+public class CsvSortLines implements ConditionalGenerator {
 
     private final JustDownloadGenerator downloadGenerator;
     private final String distributionName;
 
+    private final long sortMemory;
+    private final LineSorter.Mode sortMode;
     private boolean containsHeaderLine = true;
 
     public CsvSortLines(String distributionName, DatasetUpdate update) {
@@ -22,12 +28,32 @@ public class CsvSortLines implements Generator {
         this.distributionName = distributionName;
 
         this.containsHeaderLine = !BooleanUtils.toBoolean(update.getGeneratorArgs().get("no_header"));
+        this.sortMemory = LineSorter.parseSize(update.getGeneratorArgs().get("sort_memory"));
+        this.sortMode = LineSorter.parseMode(update.getGeneratorArgs().get("sort_mode"));
 
     }
 
+    @Override
+    public void setContext(GeneratorContext context) {
+        downloadGenerator.setContext(context);
+    }
+
+    @Override
+    public void setValidators(HttpValidators validators) {
+        downloadGenerator.setValidators(validators);
+    }
+
+    @Override
+    public boolean isNotModified() {
+        return downloadGenerator.isNotModified();
+    }
+
     @Override
     public boolean generateDistributions(File directory) throws Exception {
         downloadGenerator.generateDistributions(directory);
+        if (downloadGenerator.isNotModified()) {
+            return true;
+        }
 
         File inputFile = new File(directory, "temp");
 
@@ -38,17 +64,13 @@ public class CsvSortLines implements Generator {
         if (containsHeaderLine) {
             out.println(in.readLine());
         }
-        List<String> lines = new ArrayList<>();
-        String line = in.readLine();
-        while (line != null) {
-            lines.add(line);
-            line = in.readLine();
-        }
-        lines.sort(String::compareTo);
-
-        for (String s : lines) {
-            out.println(s);
+        final LineSorter sorter = new LineSorter(sortMemory, FileUtils.getTempDirectory());
+        if (sortMode == null) {
+            sorter.sort(in, out, inputFile.length());
+        } else {
+            sorter.sort(in, out, sortMode, inputFile.length());
         }
+        in.close();
         out.close();
 
         inputFile.delete();
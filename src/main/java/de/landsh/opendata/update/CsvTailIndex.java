@@ -0,0 +1,188 @@
+package de.landsh.opendata.update;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * Kurzbeschreibung einer CSV-Datei, deren Zeilen mit einem Datum beginnen: das letzte Datum, die Anzahl der Zeilen
+ * ohne Kopfzeile, die Länge der Datei und die Position einer Zeile mit dem letzten Datum. Sie wird in der Datei
+ * <code>_META_INDEX_&lt;Name&gt;</code> neben der CSV-Datei abgelegt, damit eine stetig wachsende Datei nicht bei
+ * jedem Lauf vollständig gelesen werden muss, nur um das letzte Datum zu finden.
+ * <p>
+ * Die Beschreibung gilt nur, wenn die Länge der Datei übereinstimmt und an der gespeicherten Position eine Zeile mit
+ * dem letzten Datum beginnt. Sonst wird die Datei mit {@link #scan(File)} einmal vollständig gelesen.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CsvTailIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(CsvTailIndex.class);
+    private static final String PREFIX = "_META_INDEX_";
+
+    /**
+     * das größte Datum in der ersten Spalte oder <code>null</code>, wenn die Datei keine Zeilen enthält
+     */
+    private String lastDate;
+    private long rowCount;
+    private long length;
+    /**
+     * Position einer Zeile mit dem größten Datum in Bytes oder -1
+     */
+    private long offset = -1;
+
+    public static File indexFileFor(File csvFile) {
+        return new File(csvFile.getAbsoluteFile().getParentFile(), PREFIX + csvFile.getName());
+    }
+
+    /**
+     * Liest die gespeicherte Beschreibung der CSV-Datei.
+     *
+     * @return die Beschreibung oder <code>null</code>, wenn es keine gibt oder sie nicht mehr zur Datei passt
+     */
+    public static CsvTailIndex read(File csvFile) {
+        final File indexFile = indexFileFor(csvFile);
+        if (!indexFile.exists() || !csvFile.exists()) {
+            return null;
+        }
+
+        final Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(indexFile.toPath())) {
+            properties.load(in);
+        } catch (IOException | IllegalArgumentException e) {
+            log.warn("Index {} kann nicht gelesen werden: {}", indexFile, e.getMessage());
+            return null;
+        }
+
+        final CsvTailIndex index = new CsvTailIndex(properties.getProperty("lastDate"),
+                NumberUtils.toLong(properties.getProperty("rowCount"), -1),
+                NumberUtils.toLong(properties.getProperty("length"), -1),
+                NumberUtils.toLong(properties.getProperty("offset"), -1));
+        if (index.rowCount < 0 || index.length != csvFile.length() || !index.matchesLine(csvFile)) {
+            log.debug("Index {} passt nicht zu {}.", indexFile, csvFile);
+            return null;
+        }
+        return index;
+    }
+
+    /**
+     * Prüft, ob an der gespeicherten Position eine Zeile mit dem letzten Datum beginnt.
+     */
+    private boolean matchesLine(File csvFile) {
+        if (lastDate == null) {
+            return offset < 0 && rowCount == 0;
+        }
+        final byte[] expected = (lastDate + ",").getBytes(StandardCharsets.UTF_8);
+        if (offset < 0 || offset + expected.length > length) {
+            return false;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(csvFile, "r")) {
+            if (offset > 0) {
+                file.seek(offset - 1);
+                if (file.read() != '\n') {
+                    return false;
+                }
+            }
+            final byte[] actual = new byte[expected.length];
+            file.readFully(actual);
+            return Arrays.equals(expected, actual);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Liest die CSV-Datei vollständig und ermittelt die Beschreibung. Die erste Zeile ist die Kopfzeile.
+     */
+    public static CsvTailIndex scan(File csvFile) throws IOException {
+        final CsvTailIndex index = new CsvTailIndex(null, 0, 0, -1);
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(csvFile.toPath()))) {
+            final ByteArrayOutputStream firstColumn = new ByteArrayOutputStream();
+            long position = 0;
+            long lineStart = 0;
+            boolean header = true;
+            boolean inFirstColumn = true;
+            for (int b = in.read(); b != -1; b = in.read()) {
+                position++;
+                if (b == '\n') {
+                    if (header) {
+                        header = false;
+                    } else {
+                        index.addRow(firstColumn.toString(StandardCharsets.UTF_8), lineStart);
+                    }
+                    firstColumn.reset();
+                    inFirstColumn = true;
+                    lineStart = position;
+                } else if (b == ',') {
+                    inFirstColumn = false;
+                } else if (inFirstColumn && b != '\r') {
+                    firstColumn.write(b);
+                }
+            }
+            if (!header && position > lineStart) {
+                index.addRow(firstColumn.toString(StandardCharsets.UTF_8), lineStart);
+            }
+            index.length = position;
+        }
+        return index;
+    }
+
+    private void addRow(String date, long lineStart) {
+        rowCount++;
+        if (StringUtils.compare(date, lastDate, true) > 0) {
+            lastDate = date;
+            offset = lineStart;
+        }
+    }
+
+    /**
+     * Schreibt die Beschreibung neben die angegebene CSV-Datei.
+     */
+    public void write(File csvFile) throws IOException {
+        final Properties properties = new Properties();
+        if (lastDate != null) {
+            properties.setProperty("lastDate", lastDate);
+        }
+        properties.setProperty("rowCount", Long.toString(rowCount));
+        properties.setProperty("length", Long.toString(length));
+        properties.setProperty("offset", Long.toString(offset));
+
+        final File file = indexFileFor(csvFile);
+        final File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp.toPath())) {
+            properties.store(out, null);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * @return <code>true</code>, wenn die Datei leer ist oder mit einem Zeilenumbruch endet
+     */
+    static boolean endsWithNewline(File file) throws IOException {
+        if (file.length() == 0) {
+            return true;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(raf.length() - 1);
+            return raf.read() == '\n';
+        }
+    }
+}
@@ -3,41 +3,44 @@ package de.landsh.opendata.update;
 import de.landsh.opendata.DatasetUpdate;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.http.auth.AuthScope;
-import org.apache.http.auth.UsernamePasswordCredentials;
-import org.apache.http.client.CredentialsProvider;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.BasicCredentialsProvider;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.util.EntityUtils;
 import org.json.JSONArray;
 import org.json.JSONObject;
-import org.json.JSONTokener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Objects;
 import java.util.stream.Collectors;
 
-public class DenkmallisteGenerator implements Generator {
+public class DenkmallisteGenerator implements ConditionalGenerator {
     public static final Logger log = LoggerFactory.getLogger(DenkmallisteGenerator.class);
 
-    private final static Map<String, byte[]> cache = new HashMap<>();
+    /**
+     * Unter diesem Schlüssel wird der Änderungszeitpunkt des Verzeichnisses mit den Fotos bei den
+     * {@link HttpValidators} abgelegt, denn auch die Fotos fließen in die erzeugten Dateien ein.
+     */
+    static final String KEY_PHOTO_DIRECTORY = "photoDirectory";
+
     private final String countyName;
     private final String jsonURL;
     private final String username;
     private final String password;
-    private final Generator pdfDownload;
+    private final String pdfURL;
+    private final JustDownloadGenerator pdfDownload;
     private final File photoDirectory;
     private final String photoBaseURL;
+    private GeneratorContext context = GeneratorContext.getDefault();
+    private HttpValidators validators;
+    private boolean notModified;
 
     public DenkmallisteGenerator(DatasetUpdate update) {
-        final String pdfURL = update.getGeneratorArgs().get("pdf");
+        this.pdfURL = update.getGeneratorArgs().get("pdf");
         final String photoDirectoryName = update.getGeneratorArgs().get("photoDirectory");
         this.countyName = update.getGeneratorArgs().get("county");
         this.jsonURL = update.getGeneratorArgs().get("json");
@@ -64,7 +67,7 @@ public class DenkmallisteGenerator implements Generator {
             pdfUpdate.setUsername(username);
             pdfDownload = new JustDownloadGenerator(countyName + ".pdf", pdfUpdate);
         } else {
-            pdfDownload = new NoopGenerator();
+            pdfDownload = null;
         }
     }
 
@@ -82,171 +85,216 @@ public class DenkmallisteGenerator implements Generator {
         }
     }
 
-    private static void writeCsv(JSONArray entries, Writer writer) throws IOException {
-        writer.write("Objektnummer;Kulturdenkmaltyp;Kreis;Gemeinde;Adresse-Lage;Bezeichnung;Beschreibung;Begründung;Schutzumfang;FotoURL\n");
-        for (int i = 0; i < entries.length(); i++) {
-            final JSONObject entry = entries.getJSONObject(i);
+    private static final String CSV_HEADER = "Objektnummer;Kulturdenkmaltyp;Kreis;Gemeinde;Adresse-Lage;Bezeichnung;Beschreibung;Begründung;Schutzumfang;FotoURL\n";
 
-            writer.write(Integer.toString(entry.getInt("Objektnummer")));
-            writer.write(";\"");
+    private static void writeCsv(JSONObject entry, Writer writer) throws IOException {
+        writer.write(Integer.toString(entry.getInt("Objektnummer")));
+        writer.write(";\"");
 
-            if (entry.has("Kulturdenkmaltyp")) {
-                writer.write(entry.getString("Kulturdenkmaltyp"));
-            }
-            writer.write("\";\"");
-            writer.write(entry.getString("Kreis"));
-            writer.write("\";\"");
-            writer.write(entry.getString("Gemeinde"));
-            writer.write("\";\"");
-            if (entry.has("Adresse-Lage"))
-                writer.write(entry.getString("Adresse-Lage"));
-            writer.write("\";\"");
-            writer.write(entry.getString("Bezeichnung"));
-            writer.write("\";\"");
-            writer.write(entry.getString("Beschreibung"));
-            writer.write("\";\"");
-            if (entry.has("Begründung")) {
-                writer.write(entry.getJSONArray("Begründung").toList().stream().map(Object::toString).collect(Collectors.joining(", ")));
-            }
-            writer.write("\";\"");
-            if (entry.has("Schutzumfang")) {
-                writer.write(entry.getJSONArray("Schutzumfang").toList().stream().map(Object::toString).collect(Collectors.joining(", ")));
-            }
-            writer.write("\";\"");
-            if (entry.has("FotoURL")) {
-                writer.write(entry.getString("FotoURL"));
-            }
+        if (entry.has("Kulturdenkmaltyp")) {
+            writer.write(entry.getString("Kulturdenkmaltyp"));
+        }
+        writer.write("\";\"");
+        writer.write(entry.getString("Kreis"));
+        writer.write("\";\"");
+        writer.write(entry.getString("Gemeinde"));
+        writer.write("\";\"");
+        if (entry.has("Adresse-Lage"))
+            writer.write(entry.getString("Adresse-Lage"));
+        writer.write("\";\"");
+        writer.write(entry.getString("Bezeichnung"));
+        writer.write("\";\"");
+        writer.write(entry.getString("Beschreibung"));
+        writer.write("\";\"");
+        if (entry.has("Begründung")) {
+            writer.write(entry.getJSONArray("Begründung").toList().stream().map(Object::toString).collect(Collectors.joining(", ")));
+        }
+        writer.write("\";\"");
+        if (entry.has("Schutzumfang")) {
+            writer.write(entry.getJSONArray("Schutzumfang").toList().stream().map(Object::toString).collect(Collectors.joining(", ")));
+        }
+        writer.write("\";\"");
+        if (entry.has("FotoURL")) {
+            writer.write(entry.getString("FotoURL"));
+        }
 
 
-            writer.write("\"\r\n");
-        }
-        writer.close();
+        writer.write("\"\r\n");
     }
 
-    private byte[] downloadJSONfile() throws IOException {
-        if (cache.containsKey(jsonURL)) {
-            return cache.get(jsonURL);
-        } else {
-            final CloseableHttpClient client;
-            if (username != null && password != null) {
-                final CredentialsProvider provider = new BasicCredentialsProvider();
-                final UsernamePasswordCredentials credentials = new UsernamePasswordCredentials(username, password);
-                provider.setCredentials(AuthScope.ANY, credentials);
-
-                client = HttpClientBuilder.create()
-                        .setDefaultCredentialsProvider(provider)
-                        .build();
-            } else {
-                client = HttpClientBuilder.create().build();
+    /**
+     * Lädt die JSON-Datei herunter. Über den {@link SourceCache} des Kontexts wird die Datei für alle Kreise nur
+     * einmal heruntergeladen.
+     *
+     * @param conditional bedingter Abruf mit den gespeicherten {@link HttpValidators}
+     * @return die Datei oder <code>null</code>, wenn sie bei einem bedingten Abruf unverändert ist
+     */
+    private SourceCache.Source downloadJSONfile(boolean conditional) throws IOException {
+        final SourceCache.Source download = context.getSourceCache().get(jsonURL, username, password, cache -> {
+            final HttpGet request = new HttpGet(jsonURL);
+            if (conditional) {
+                validators.applyTo(request);
             }
-
-            final CloseableHttpResponse response = client.execute(new HttpGet(jsonURL));
-
-            if (response.getStatusLine().getStatusCode() == 200) {
-                final byte[] data = EntityUtils.toByteArray(response.getEntity());
-                response.close();
-                cache.put(jsonURL, data);
-                return data;
+            try (CloseableHttpResponse response = context.execute(request, username, password)) {
+                if (response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED) {
+                    return null;
+                }
+                if (response.getStatusLine().getStatusCode() != 200) {
+                    EntityUtils.consumeQuietly(response.getEntity());
+                    throw new FileNotFoundException(jsonURL);
+                }
+                try (InputStream in = response.getEntity().getContent()) {
+                    return cache.read(in,
+                            HttpValidators.headerValue(response, HttpHeaders.ETAG),
+                            HttpValidators.headerValue(response, HttpHeaders.LAST_MODIFIED));
+                }
             }
-        }
+        });
 
-        throw new FileNotFoundException(jsonURL);
+        if (download == null) {
+            return null;
+        }
+        if (conditional && validators.matches(jsonURL, download.getEtag(), download.getLastModified())) {
+            return null;
+        }
+        if (validators != null) {
+            validators.put(jsonURL, download.getEtag(), download.getLastModified());
+        }
+        return download;
     }
 
-    @Override
-    public boolean generateDistributions(File directory) throws Exception {
+    /**
+     * Prüft mit bedingten Abrufen, ob sich seit dem letzten Lauf eine Quelle geändert hat. Eine geänderte PDF-Datei
+     * liegt danach bereits im Verzeichnis.
+     */
+    private boolean sourcesUnchanged(File directory) throws Exception {
+        final String photoState = photoDirectory == null ? null : Long.toString(photoDirectory.lastModified());
+        if (!Objects.equals(photoState, validators.get(KEY_PHOTO_DIRECTORY))) {
+            validators.put(KEY_PHOTO_DIRECTORY, photoState);
+            return false;
+        }
 
-        // PDF-Datei einfach herunterladen.
-        pdfDownload.generateDistributions(directory);
+        if (downloadJSONfile(true) != null) {
+            return false;
+        }
 
-        processXmlFile(new ByteArrayInputStream(downloadJSONfile()), directory, countyName);
+        if (pdfDownload != null) {
+            pdfDownload.setValidators(validators);
+            pdfDownload.generateDistributions(directory);
+            return pdfDownload.isNotModified();
+        }
 
         return true;
     }
 
-    private void processXmlFile(InputStream is, File targetDirectory, String countyName) throws IOException {
-        is.read(new byte[3]); // skip BOM
+    @Override
+    public void setContext(GeneratorContext context) {
+        this.context = context;
+        if (pdfDownload != null) {
+            pdfDownload.setContext(context);
+        }
+    }
 
-        final JSONArray list = new JSONArray(new JSONTokener(is));
-        final Map<String, JSONArray> perCounty = new HashMap<>();
+    @Override
+    public void setValidators(HttpValidators validators) {
+        this.validators = validators;
+    }
 
-        for (int i = 0; i < list.length(); i++) {
-            final JSONObject entry = list.getJSONObject(i);
-            final int objectNumber = entry.getInt("Objektnummer");
+    @Override
+    public boolean isNotModified() {
+        return notModified;
+    }
 
-            entry.remove("Volltext");
-            entry.remove("Index");
-            entry.remove("lng");
-            entry.remove("lat");
-            entry.remove("FotoUrl");
+    @Override
+    public boolean generateDistributions(File directory) throws Exception {
+        notModified = false;
+        if (validators != null && sourcesUnchanged(directory)) {
+            notModified = true;
+            return true;
+        }
 
-            if (entry.has("Adresse-Lage")) {
-                if (StringUtils.isBlank(entry.getString("Adresse-Lage"))) {
-                    entry.remove("Adresse-Lage");
-                } else {
-                    entry.put("Adresse-Lage", entry.getString("Adresse-Lage").trim());
-                }
-            }
-            if (entry.has("Kulturdenkmaltyp ")) {
-                entry.put("Kulturdenkmaltyp", entry.getString("Kulturdenkmaltyp ").trim());
-                entry.remove("Kulturdenkmaltyp ");
+        // PDF-Datei einfach herunterladen, sofern das nicht schon bei der Prüfung auf Änderungen passiert ist.
+        if (pdfDownload != null && !new File(directory, countyName + ".pdf").exists()) {
+            if (validators != null) {
+                validators.remove(pdfURL);
             }
+            pdfDownload.setValidators(validators);
+            pdfDownload.generateDistributions(directory);
+        }
 
-            if (entry.has("Kulturdenkmaltyp")) {
-                if (StringUtils.isBlank(entry.getString("Kulturdenkmaltyp"))) {
-                    // 2021-04-01 Workaround für fehlende Angaben bei Schutzzonen und beweglichen Kulturdenkmalen
-                    if (ArrayUtils.contains(new int[]{13298, 13299, 13300, 13301, 29353, 33001}, objectNumber)) {
-                        entry.put("Kulturdenkmaltyp", "Schutzzone");
-                    } else {
-                        entry.put("Kulturdenkmaltyp", "Bewegliches Kulturdenkmal");
-                    }
-                }
-            }
+        try (InputStream in = downloadJSONfile(false).openStream()) {
+            processJsonFile(in, directory, countyName);
+        }
 
-            cleanArray(entry, "Begründung");
-            cleanArray(entry, "Schutzumfang");
+        return true;
+    }
 
-            if (photoDirectory != null) {
-                final File photo = new File(photoDirectory, objectNumber + ".jpg");
-                if (photo.exists()) {
-                    entry.put("FotoURL", photoBaseURL + objectNumber + ".jpg");
+    /**
+     * Liest die Denkmale einzeln aus der JSON-Datei, bereinigt sie und schreibt sie sofort in die JSON-Datei und die
+     * beiden CSV-Dateien. Ist kein Kreis angegeben, entstehen die Dateien für ganz Schleswig-Holstein.
+     */
+    private void processJsonFile(InputStream is, File targetDirectory, String countyName) throws IOException {
+        final boolean all = StringUtils.isBlank(countyName);
+        final String baseName = all ? "denkmalliste" : countyName;
+        final PhotoIndex photos = photoDirectory == null ? null : PhotoIndex.of(photoDirectory);
+
+        try (JsonArrayReader reader = new JsonArrayReader(is);
+             JsonArrayWriter json = all
+                     ? new JsonArrayWriter(new FileWriter(new File(targetDirectory, baseName + ".json")), 2, 1)
+                     : new JsonArrayWriter(new FileWriter(new File(targetDirectory, baseName + ".json")));
+             Writer csv = new FileWriter(new File(targetDirectory, baseName + ".csv"), StandardCharsets.UTF_8);
+             Writer latin1 = new FileWriter(new File(targetDirectory, baseName + "-latin1.csv"), StandardCharsets.ISO_8859_1)) {
+            csv.write(CSV_HEADER);
+            latin1.write(CSV_HEADER);
+
+            for (JSONObject entry = reader.next(); entry != null; entry = reader.next()) {
+                normalize(entry, photos);
+                if (all || countyName.equals(entry.getString("Kreis"))) {
+                    json.write(entry);
+                    writeCsv(entry, csv);
+                    writeCsv(entry, latin1);
                 }
             }
+        }
+    }
 
-            final String county = entry.getString("Kreis");
-            if (!perCounty.containsKey(county)) {
-                perCounty.put(county, new JSONArray());
-            }
+    private void normalize(JSONObject entry, PhotoIndex photos) {
+        final int objectNumber = entry.getInt("Objektnummer");
+
+        entry.remove("Volltext");
+        entry.remove("Index");
+        entry.remove("lng");
+        entry.remove("lat");
+        entry.remove("FotoUrl");
 
-            perCounty.get(county).put(entry);
+        if (entry.has("Adresse-Lage")) {
+            if (StringUtils.isBlank(entry.getString("Adresse-Lage"))) {
+                entry.remove("Adresse-Lage");
+            } else {
+                entry.put("Adresse-Lage", entry.getString("Adresse-Lage").trim());
+            }
+        }
+        if (entry.has("Kulturdenkmaltyp ")) {
+            entry.put("Kulturdenkmaltyp", entry.getString("Kulturdenkmaltyp ").trim());
+            entry.remove("Kulturdenkmaltyp ");
         }
 
-        if (StringUtils.isBlank(countyName)) {
-            // Einträge für ganz Schleswig-Holstein sammeln
-            final JSONArray all = new JSONArray();
-            for (JSONArray jsonArray : perCounty.values()) {
-                for (Object it : jsonArray) {
-                    all.put(it);
+        if (entry.has("Kulturdenkmaltyp")) {
+            if (StringUtils.isBlank(entry.getString("Kulturdenkmaltyp"))) {
+                // 2021-04-01 Workaround für fehlende Angaben bei Schutzzonen und beweglichen Kulturdenkmalen
+                if (ArrayUtils.contains(new int[]{13298, 13299, 13300, 13301, 29353, 33001}, objectNumber)) {
+                    entry.put("Kulturdenkmaltyp", "Schutzzone");
+                } else {
+                    entry.put("Kulturdenkmaltyp", "Bewegliches Kulturdenkmal");
                 }
             }
-            final FileWriter writer = new FileWriter(new File(targetDirectory, "denkmalliste.json"));
-            all.write(writer, 2, 1);
-            writer.close();
-
-            // CSV-Dateien schreiben
-            writeCsv(all, new FileWriter(new File(targetDirectory, "denkmalliste.csv"), StandardCharsets.UTF_8));
-            writeCsv(all, new FileWriter(new File(targetDirectory, "denkmalliste-latin1.csv"), StandardCharsets.ISO_8859_1));
-        } else {
-            final FileWriter writer = new FileWriter(new File(targetDirectory, countyName + ".json"));
+        }
 
-            perCounty.get(countyName).write(writer);
-            writer.close();
+        cleanArray(entry, "Begründung");
+        cleanArray(entry, "Schutzumfang");
 
-            // CSV-Dateien schreiben
-            final JSONArray entries = perCounty.get(countyName);
-            writeCsv(entries, new FileWriter(new File(targetDirectory, countyName + ".csv"), StandardCharsets.UTF_8));
-            writeCsv(entries, new FileWriter(new File(targetDirectory, countyName + "-latin1.csv"), StandardCharsets.ISO_8859_1));
+        if (photos != null && photos.contains(objectNumber)) {
+            entry.put("FotoURL", photoBaseURL + objectNumber + ".jpg");
         }
-
     }
 }
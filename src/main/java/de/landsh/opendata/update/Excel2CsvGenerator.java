@@ -2,7 +2,6 @@ package de.landsh.opendata.update;
 
 import de.landsh.opendata.DatasetUpdate;
 import org.apache.commons.lang3.math.NumberUtils;
-import org.apache.poi.ss.usermodel.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -10,9 +9,9 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Writer;
-import java.util.Iterator;
+import java.util.List;
 
-public class Excel2CsvGenerator implements Generator {
+public class Excel2CsvGenerator implements ConditionalGenerator {
     private static final String DELIMITER = ",";
     private static final Logger log = LoggerFactory.getLogger(Excel2CsvGenerator.class);
     private final JustDownloadGenerator downloadGenerator;
@@ -30,33 +29,45 @@ public class Excel2CsvGenerator implements Generator {
     }
 
     static void excel2csv(File xlsxFile, Writer csv, int sheetNumber) throws IOException {
-        final Workbook wb = WorkbookFactory.create(xlsxFile);
-
-        final DataFormatter dataFormatter = new DataFormatter();
+        ExcelSheetReader.read(xlsxFile, sheetNumber, row -> {
+            csv.write(toCsvLine(row));
+            csv.write("\n");
+        });
+        csv.close();
+    }
 
-        final Sheet sheet = wb.getSheetAt(sheetNumber);
-        final Iterator<Row> it = sheet.rowIterator();
-        while (it.hasNext()) {
-            final Row row = it.next();
-            final Iterator<Cell> it2 = row.cellIterator();
-            while (it2.hasNext()) {
-                final Cell cell = it2.next();
-                final String value = dataFormatter.formatCellValue(cell).replaceAll("\n", " ").trim();
-                if (value.contains(DELIMITER)) {
-                    csv.write("\"");
-                    csv.write(value);
-                    csv.write("\"");
-                } else {
-                    csv.write(value);
-                }
-                if (it2.hasNext()) {
-                    csv.write(DELIMITER);
-                }
+    /**
+     * Verbindet die Werte einer Zeile zu einer Zeile der CSV-Datei, ohne Zeilenumbruch am Ende.
+     */
+    static String toCsvLine(List<String> row) {
+        final StringBuilder line = new StringBuilder();
+        for (int i = 0; i < row.size(); i++) {
+            final String value = row.get(i).replaceAll("\n", " ").trim();
+            if (value.contains(DELIMITER)) {
+                line.append('"').append(value).append('"');
+            } else {
+                line.append(value);
+            }
+            if (i < row.size() - 1) {
+                line.append(DELIMITER);
             }
-            csv.write("\n");
         }
+        return line.toString();
+    }
 
-        csv.close();
+    @Override
+    public void setContext(GeneratorContext context) {
+        downloadGenerator.setContext(context);
+    }
+
+    @Override
+    public void setValidators(HttpValidators validators) {
+        downloadGenerator.setValidators(validators);
+    }
+
+    @Override
+    public boolean isNotModified() {
+        return downloadGenerator.isNotModified();
     }
 
     @Override
@@ -65,6 +76,9 @@ public class Excel2CsvGenerator implements Generator {
         if (!downloadGenerator.generateDistributions(directory)) {
             return false;
         }
+        if (downloadGenerator.isNotModified()) {
+            return true;
+        }
 
         final File inputFile = new File(directory, "temp.xlsx");
         final FileWriter out = new FileWriter(new File(directory, distributionName + ".csv"));
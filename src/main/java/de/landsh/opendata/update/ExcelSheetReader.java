@@ -0,0 +1,359 @@
+package de.landsh.opendata.update;
+
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.poifs.filesystem.FileMagic;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.FormulaError;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFCell;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.apache.poi.xssf.usermodel.XSSFRichTextString;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Liest die Zeilen eines Tabellenblatts einer Excel-Datei. Jede Zelle wird so formatiert, wie es
+ * {@link DataFormatter#formatCellValue(Cell)} tut; bei Formeln ist das der Text der Formel.
+ * <p>
+ * XLSX-Dateien werden mit dem Event-Modell von POI gelesen: Das Tabellenblatt wird per SAX durchlaufen und jede Zeile
+ * weitergegeben, sobald sie vollständig ist. Im Speicher liegen dabei nur die gemeinsam genutzten Zeichenketten und
+ * die Formate, nicht die ganze Arbeitsmappe. Andere Formate (XLS) und Tabellenblätter mit gemeinsam genutzten Formeln
+ * oder Array-Formeln, deren Text sich nur aus anderen Zellen ergibt, werden wie bisher vollständig mit
+ * {@link WorkbookFactory} geladen.
+ */
+public class ExcelSheetReader {
+
+    private static final Logger log = LoggerFactory.getLogger(ExcelSheetReader.class);
+
+    private ExcelSheetReader() {
+    }
+
+    /**
+     * Übergibt alle Zeilen des Tabellenblatts <code>sheetNumber</code> an den <code>handler</code>. Es werden nur
+     * Zeilen und Zellen geliefert, die in der Datei vorhanden sind.
+     */
+    public static void read(File file, int sheetNumber, RowHandler handler) throws IOException {
+        if (FileMagic.valueOf(file) == FileMagic.OOXML && readStreaming(file, sheetNumber, handler)) {
+            return;
+        }
+        readWorkbook(file, sheetNumber, handler);
+    }
+
+    static void readWorkbook(File file, int sheetNumber, RowHandler handler) throws IOException {
+        try (Workbook wb = WorkbookFactory.create(file, null, true)) {
+            final DataFormatter dataFormatter = new DataFormatter();
+            final Sheet sheet = wb.getSheetAt(sheetNumber);
+            for (Row row : sheet) {
+                final List<String> values = new ArrayList<>();
+                for (Cell cell : row) {
+                    values.add(dataFormatter.formatCellValue(cell));
+                }
+                handler.row(values);
+            }
+        }
+    }
+
+    /**
+     * @return <code>false</code>, wenn das Tabellenblatt Formeln enthält, die nur über das vollständige Modell gelesen
+     * werden können. Es wurden dann noch keine Zeilen übergeben.
+     */
+    static boolean readStreaming(File file, int sheetNumber, RowHandler handler) throws IOException {
+        try (OPCPackage pkg = OPCPackage.open(file, PackageAccess.READ)) {
+            final XSSFReader reader = new XSSFReader(pkg);
+
+            try (InputStream in = openSheet(reader, sheetNumber)) {
+                final FormulaScanner scanner = new FormulaScanner();
+                parse(in, scanner);
+                if (scanner.found) {
+                    log.debug("Tabellenblatt {} von {} enthält gemeinsam genutzte Formeln oder Array-Formeln.",
+                            sheetNumber, file);
+                    return false;
+                }
+            }
+
+            final ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg, false);
+            try (InputStream in = openSheet(reader, sheetNumber);
+                 SheetHandler sheetHandler = new SheetHandler(strings, reader.getStylesTable(),
+                         isDate1904(reader), handler)) {
+                parse(in, sheetHandler);
+            }
+            return true;
+        } catch (OpenXML4JException | SAXException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e);
+        }
+    }
+
+    private static InputStream openSheet(XSSFReader reader, int sheetNumber)
+            throws IOException, OpenXML4JException {
+        final Iterator<InputStream> sheets = reader.getSheetsData();
+        for (int i = 0; sheets.hasNext(); i++) {
+            final InputStream in = sheets.next();
+            if (i == sheetNumber) {
+                return in;
+            }
+            in.close();
+        }
+        throw new IllegalArgumentException("Sheet index (" + sheetNumber + ") is out of range");
+    }
+
+    private static boolean isDate1904(XSSFReader reader) throws IOException, OpenXML4JException, SAXException {
+        final boolean[] date1904 = new boolean[1];
+        try (InputStream in = reader.getWorkbookData()) {
+            parse(in, new DefaultHandler() {
+                @Override
+                public void startElement(String uri, String localName, String qName, Attributes attributes) {
+                    if ("workbookPr".equals(localName)) {
+                        final String value = attributes.getValue("date1904");
+                        date1904[0] = "1".equals(value) || "true".equals(value);
+                    }
+                }
+            });
+        }
+        return date1904[0];
+    }
+
+    private static void parse(InputStream in, DefaultHandler handler) throws IOException, SAXException {
+        final XMLReader xmlReader;
+        try {
+            xmlReader = XMLHelper.newXMLReader();
+        } catch (ParserConfigurationException e) {
+            throw new IOException(e);
+        }
+        xmlReader.setContentHandler(handler);
+        try {
+            xmlReader.parse(new InputSource(in));
+        } catch (FormulaScanner.Found e) {
+            // Der Rest des Tabellenblatts muss nicht mehr gelesen werden.
+        }
+    }
+
+    /**
+     * Sucht nach Formeln, deren Text nicht in jeder Zelle steht.
+     */
+    private static class FormulaScanner extends DefaultHandler {
+        private boolean found;
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes)
+                throws SAXException {
+            if ("f".equals(localName)) {
+                final String type = attributes.getValue("t");
+                if ("shared".equals(type) || "array".equals(type)) {
+                    found = true;
+                    throw new Found();
+                }
+            }
+        }
+
+        private static class Found extends SAXException {
+        }
+    }
+
+    /**
+     * Setzt die Zellen einer Zeile aus den Elementen <code>c</code> zusammen. Die Typen werden so unterschieden wie in
+     * {@link XSSFCell#getCellType()}.
+     * <p>
+     * Zahlen werden über eine Zelle in einer leeren Arbeitsmappe formatiert, die dasselbe Zahlenformat erhält. So
+     * ergibt {@link DataFormatter#formatCellValue(Cell)} genau denselben Text wie für die Zelle in der geladenen
+     * Arbeitsmappe.
+     */
+    private static class SheetHandler extends DefaultHandler implements AutoCloseable {
+        private final ReadOnlySharedStringsTable strings;
+        private final StylesTable styles;
+        private final RowHandler handler;
+        private final DataFormatter dataFormatter = new DataFormatter();
+        private final XSSFWorkbook formatWorkbook = new XSSFWorkbook();
+        private final XSSFCell formatCell = formatWorkbook.createSheet().createRow(0).createCell(0);
+        private final Map<Integer, XSSFCellStyle> formatStyles = new HashMap<>();
+
+        private final StringBuilder text = new StringBuilder();
+        private TreeMap<Integer, String> cells;
+        private int column;
+        private String type;
+        private int style;
+        private String formula;
+        private boolean inFormula;
+        private String value;
+        private boolean inValue;
+        private String inlineString;
+        private boolean inInlineString;
+        private boolean inPhonetic;
+
+        SheetHandler(ReadOnlySharedStringsTable strings, StylesTable styles, boolean date1904, RowHandler handler) {
+            this.strings = strings;
+            this.styles = styles;
+            this.handler = handler;
+            formatWorkbook.getCTWorkbook().getWorkbookPr().setDate1904(date1904);
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            switch (localName) {
+                case "row":
+                    cells = new TreeMap<>();
+                    column = -1;
+                    break;
+                case "c":
+                    final String ref = attributes.getValue("r");
+                    column = ref == null ? column + 1 : new CellReference(ref).getCol();
+                    type = attributes.getValue("t") == null ? "n" : attributes.getValue("t");
+                    final String s = attributes.getValue("s");
+                    style = s == null ? 0 : Integer.parseInt(s);
+                    formula = null;
+                    value = null;
+                    inlineString = null;
+                    break;
+                case "f":
+                    // Zellen aus einer Datentabelle sind keine Formelzellen.
+                    inFormula = !"dataTable".equals(attributes.getValue("t"));
+                    text.setLength(0);
+                    break;
+                case "v":
+                    inValue = true;
+                    text.setLength(0);
+                    break;
+                case "is":
+                    inInlineString = true;
+                    text.setLength(0);
+                    break;
+                case "rPh":
+                    inPhonetic = true;
+                    break;
+                default:
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (inFormula || inValue || inInlineString && !inPhonetic) {
+                text.append(ch, start, length);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            switch (localName) {
+                case "f":
+                    if (inFormula) {
+                        formula = text.toString();
+                        inFormula = false;
+                    }
+                    break;
+                case "v":
+                    value = text.toString();
+                    inValue = false;
+                    break;
+                case "is":
+                    inlineString = text.toString();
+                    inInlineString = false;
+                    break;
+                case "rPh":
+                    inPhonetic = false;
+                    break;
+                case "c":
+                    cells.put(column, format());
+                    break;
+                case "row":
+                    try {
+                        handler.row(new ArrayList<>(cells.values()));
+                    } catch (IOException e) {
+                        throw new SAXException(e);
+                    }
+                    break;
+                default:
+            }
+        }
+
+        private String format() {
+            if (formula != null) {
+                return formula;
+            }
+            switch (type) {
+                case "b":
+                    return "1".equals(value) ? "TRUE" : "FALSE";
+                case "e":
+                    return FormulaError.forString(value).getString();
+                case "s":
+                    try {
+                        return strings.getItemAt(Integer.parseInt(value)).getString();
+                    } catch (RuntimeException e) {
+                        return "";
+                    }
+                case "inlineStr":
+                    return decode(inlineString != null ? inlineString : value);
+                case "str":
+                    return decode(value);
+                default:
+                    return value == null ? "" : formatNumber(Double.parseDouble(value));
+            }
+        }
+
+        private static String decode(String s) {
+            return s == null ? "" : new XSSFRichTextString(s).getString();
+        }
+
+        private String formatNumber(double number) {
+            if (styles == null || styles.getNumCellStyles() == 0) {
+                return String.valueOf(number);
+            }
+            final XSSFCellStyle formatStyle = formatStyles.computeIfAbsent(style, this::createFormatStyle);
+            if (formatStyle == null) {
+                return String.valueOf(number);
+            }
+            formatCell.setCellStyle(formatStyle);
+            formatCell.setCellValue(number);
+            return dataFormatter.formatCellValue(formatCell);
+        }
+
+        private XSSFCellStyle createFormatStyle(int index) {
+            final XSSFCellStyle original = styles.getStyleAt(index);
+            if (original == null) {
+                return null;
+            }
+            final short dataFormat = original.getDataFormat();
+            final String formatString = original.getDataFormatString();
+            if (formatString != null) {
+                formatWorkbook.getStylesSource().putNumberFormat(dataFormat, formatString);
+            }
+            final XSSFCellStyle formatStyle = formatWorkbook.createCellStyle();
+            formatStyle.setDataFormat(dataFormat);
+            return formatStyle;
+        }
+
+        @Override
+        public void close() throws IOException {
+            formatWorkbook.close();
+        }
+    }
+}
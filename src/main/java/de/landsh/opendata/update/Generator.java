@@ -6,4 +6,10 @@ public interface Generator {
 
 
     boolean generateDistributions(File directory) throws Exception;
+
+    /**
+     * Übergibt die gemeinsamen Hilfsmittel des Laufs. Generatoren, die nichts herunterladen, müssen das nicht beachten.
+     */
+    default void setContext(GeneratorContext context) {
+    }
 }
@@ -0,0 +1,278 @@
+package de.landsh.opendata.update;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpStatus;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gemeinsame Hilfsmittel für alle Generatoren eines Laufs. Vor allem gibt es hier einen HTTP-Client mit einem Pool
+ * von Verbindungen, so dass Verbindungen zu demselben Server wiederverwendet werden können.
+ * <p>
+ * Zugangsdaten werden nicht im Client hinterlegt, sondern für jede Anfrage nur für den Server der Anfrage gesetzt.
+ * Sie werden dadurch weder an andere Generatoren noch bei einer Umleitung an einen anderen Server weitergegeben.
+ * <p>
+ * Außerdem enthält der Kontext einen {@link SourceCache}, über den Quelldateien, die mehrere Datensätze verwenden,
+ * nur einmal heruntergeladen werden, und einen {@link HostRateLimiter}, der Anfragen je Server über alle Generatoren
+ * hinweg begrenzt. Dateien, die ein Generator für mehrere Datensätze zugleich erzeugt, werden mit
+ * {@link #derive(String, FileProducer)} einmal je Lauf erzeugt. Gleichzeitige Abrufe eines {@link ConcurrentFetcher}
+ * laufen im Executor {@link #getFetchExecutor()}, den sich alle Generatoren teilen.
+ */
+public class GeneratorContext implements Closeable {
+
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 4;
+    public static final int DEFAULT_MAX_CONNECTIONS_TOTAL = 50;
+    public static final int DEFAULT_SOURCE_CACHE_MEGABYTES = 256;
+    public static final int DEFAULT_TIMEOUT_SECONDS = 60;
+    private static final Logger log = LoggerFactory.getLogger(GeneratorContext.class);
+    private static GeneratorContext defaultContext;
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+    private final SourceCache sourceCache;
+    private final Map<String, CompletableFuture<File>> derived = new ConcurrentHashMap<>();
+    private final HostRateLimiter rateLimiter = new HostRateLimiter();
+    private final ExecutorService fetchExecutor;
+
+    public GeneratorContext() {
+        this(DEFAULT_MAX_CONNECTIONS_PER_HOST, DEFAULT_MAX_CONNECTIONS_TOTAL);
+    }
+
+    public GeneratorContext(int maxConnectionsPerHost, int maxConnectionsTotal) {
+        this(maxConnectionsPerHost, maxConnectionsTotal,
+                new SourceCache(DEFAULT_SOURCE_CACHE_MEGABYTES * 1024L * 1024L, null));
+    }
+
+    public GeneratorContext(int maxConnectionsPerHost, int maxConnectionsTotal, SourceCache sourceCache) {
+        this(maxConnectionsPerHost, maxConnectionsTotal, DEFAULT_TIMEOUT_SECONDS, sourceCache);
+    }
+
+    /**
+     * @param timeoutSeconds Zeit in Sekunden, die höchstens auf den Aufbau einer Verbindung, auf eine freie
+     *                       Verbindung aus dem Pool und zwischen zwei Datenpaketen einer Antwort gewartet wird. Ohne
+     *                       diese Grenze würde ein Server, der nicht mehr antwortet, seine Verbindung und alle auf
+     *                       ihn wartenden Generatoren für immer blockieren.
+     */
+    public GeneratorContext(int maxConnectionsPerHost, int maxConnectionsTotal, int timeoutSeconds,
+                            SourceCache sourceCache) {
+        this(maxConnectionsPerHost, maxConnectionsTotal, timeoutSeconds, sourceCache, false);
+    }
+
+    /**
+     * @param virtualThreads <code>true</code>, wenn die Abrufe eines {@link ConcurrentFetcher} in virtuellen Threads
+     *                       laufen sollen, sofern es sie gibt
+     */
+    public GeneratorContext(int maxConnectionsPerHost, int maxConnectionsTotal, int timeoutSeconds,
+                            SourceCache sourceCache, boolean virtualThreads) {
+        this.sourceCache = sourceCache;
+        final ExecutorService virtual = virtualThreads ? newVirtualThreadPerTaskExecutor() : null;
+        fetchExecutor = virtual != null ? virtual : Executors.newCachedThreadPool(runnable -> {
+            final Thread thread = new Thread(runnable, "fetch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setDefaultMaxPerRoute(Math.max(1, maxConnectionsPerHost));
+        connectionManager.setMaxTotal(Math.max(1, maxConnectionsTotal));
+
+        final int timeoutMillis = (int) TimeUnit.SECONDS.toMillis(Math.max(1, timeoutSeconds));
+        final RequestConfig config = RequestConfig.custom()
+                .setConnectTimeout(timeoutMillis)
+                .setConnectionRequestTimeout(timeoutMillis)
+                .setSocketTimeout(timeoutMillis).build();
+
+        httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(config)
+                .build();
+    }
+
+    /**
+     * Virtuelle Threads gibt es erst ab Java 21 (Maven-Profil <code>java21</code>), daher wird die Factory-Methode per
+     * Reflection gesucht.
+     *
+     * @return ein Executor, der für jede Aufgabe einen virtuellen Thread startet, oder <code>null</code>, wenn es keine
+     * virtuellen Threads gibt
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Kontext für Generatoren, denen kein eigener Kontext übergeben wurde, z.B. in Tests. Er wird einmal erzeugt und
+     * von allen diesen Generatoren gemeinsam verwendet.
+     */
+    public static synchronized GeneratorContext getDefault() {
+        if (defaultContext == null) {
+            defaultContext = new GeneratorContext();
+        }
+        return defaultContext;
+    }
+
+    public CloseableHttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    public SourceCache getSourceCache() {
+        return sourceCache;
+    }
+
+    /**
+     * Begrenzer für Anfragen je Server, den sich alle Generatoren eines Laufs teilen.
+     */
+    public HostRateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Executor für die Abrufe aller {@link ConcurrentFetcher} eines Laufs. Wie viele Abrufe gleichzeitig laufen,
+     * bestimmt der jeweilige Fetcher; Threads werden wiederverwendet oder sind virtuell.
+     */
+    public ExecutorService getFetchExecutor() {
+        return fetchExecutor;
+    }
+
+    public CloseableHttpResponse execute(HttpUriRequest request) throws IOException {
+        return execute(request, null, null);
+    }
+
+    /**
+     * Führt eine Anfrage aus. Sind Zugangsdaten angegeben, gelten sie nur für den Server der Anfrage.
+     */
+    public CloseableHttpResponse execute(HttpUriRequest request, String username, String password) throws IOException {
+        final HttpClientContext context = HttpClientContext.create();
+        if (username != null && password != null) {
+            final HttpHost target = URIUtils.extractHost(request.getURI());
+            final CredentialsProvider provider = new BasicCredentialsProvider();
+            provider.setCredentials(new AuthScope(target), new UsernamePasswordCredentials(username, password));
+            context.setCredentialsProvider(provider);
+        }
+        return httpClient.execute(request, context);
+    }
+
+    /**
+     * Öffnet die Datei unter der angegebenen Adresse zum Lesen. Nach dem Schließen des Streams steht die Verbindung
+     * wieder für andere Anfragen zur Verfügung.
+     */
+    public InputStream openStream(String url) throws IOException {
+        final CloseableHttpResponse response = execute(new HttpGet(url));
+        if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK || response.getEntity() == null) {
+            EntityUtils.consumeQuietly(response.getEntity());
+            response.close();
+            throw new FileNotFoundException(url + ": " + response.getStatusLine());
+        }
+        return response.getEntity().getContent();
+    }
+
+    /**
+     * Öffnet die Datei unter der angegebenen Adresse zum Lesen. Die Datei wird über den {@link SourceCache}
+     * heruntergeladen, so dass weitere Generatoren, die dieselbe Datei lesen, sie nicht erneut abrufen.
+     */
+    public InputStream openCachedStream(String url) throws IOException {
+        return sourceCache.get(url, null, null, cache -> {
+            try (InputStream in = openStream(url)) {
+                return cache.read(in, null, null);
+            }
+        }).openStream();
+    }
+
+    /**
+     * Erzeugt Dateien nur einmal je Lauf, auch wenn mehrere Generatoren sie gleichzeitig anfordern. Die übrigen
+     * Aufrufer warten, bis die Dateien fertig sind. Schlägt das Erzeugen fehl, versucht es der nächste Aufruf erneut.
+     *
+     * @param key      beschreibt, welche Dateien erzeugt werden, z.B. Generator und Quelladresse
+     * @param producer schreibt die Dateien in das übergebene Verzeichnis
+     * @return Verzeichnis mit den Dateien; es darf nicht verändert werden und wird mit dem Kontext gelöscht
+     */
+    public File derive(String key, FileProducer producer) throws IOException {
+        final CompletableFuture<File> future = new CompletableFuture<>();
+        final CompletableFuture<File> existing = derived.putIfAbsent(key, future);
+        if (existing != null) {
+            try {
+                return existing.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(key);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+        }
+
+        File directory = null;
+        try {
+            directory = Files.createTempDirectory("derived").toFile();
+            producer.produce(directory);
+            future.complete(directory);
+            return directory;
+        } catch (IOException | RuntimeException e) {
+            derived.remove(key, future);
+            future.completeExceptionally(e);
+            if (directory != null) {
+                FileUtils.deleteQuietly(directory);
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        log.debug("Verbindungen: {}", connectionManager.getTotalStats());
+        log.info("Zwischenspeicher für Quelldateien: {} Treffer, {} Abrufe", sourceCache.getHits(),
+                sourceCache.getMisses());
+        sourceCache.close();
+        for (CompletableFuture<File> future : derived.values()) {
+            final File directory = future.getNow(null);
+            if (directory != null) {
+                FileUtils.deleteQuietly(directory);
+            }
+        }
+        derived.clear();
+        fetchExecutor.shutdownNow();
+        httpClient.close();
+    }
+
+    /**
+     * Erzeugt Dateien für {@link #derive(String, FileProducer)}.
+     */
+    @FunctionalInterface
+    public interface FileProducer {
+        void produce(File directory) throws IOException;
+    }
+}
@@ -0,0 +1,118 @@
+package de.landsh.opendata.update;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Begrenzt die Anfragen an einen Server: Zwischen zwei Anfragen an denselben Server liegt mindestens der angegebene
+ * Abstand und es laufen höchstens <code>maxInFlight</code> Anfragen gleichzeitig, auch wenn mehrere Threads oder
+ * Generatoren Anfragen stellen. Anfragen an verschiedene Server bremsen sich nicht gegenseitig.
+ * <p>
+ * Damit die Grenzen für alle Datensätze eines Laufs gemeinsam gelten, gibt es einen gemeinsamen Begrenzer im
+ * {@link GeneratorContext}. Die Grenzen für einen Server legt der erste Generator mit {@link #limit(String, int,
+ * long)} fest.
+ */
+public class HostRateLimiter {
+
+    private final int defaultMaxInFlight;
+    private final long defaultIntervalNanos;
+    private final Map<String, Host> hosts = new HashMap<>();
+
+    /**
+     * Begrenzer ohne Vorgaben; nur Server, für die {@link #limit(String, int, long)} aufgerufen wurde, werden
+     * gebremst.
+     */
+    public HostRateLimiter() {
+        this(0);
+    }
+
+    /**
+     * @param intervalMillis Mindestabstand zwischen zwei Anfragen an denselben Server in Millisekunden
+     */
+    public HostRateLimiter(long intervalMillis) {
+        this(intervalMillis, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param intervalMillis Mindestabstand zwischen zwei Anfragen an denselben Server in Millisekunden
+     * @param maxInFlight    Höchstzahl gleichzeitiger Anfragen an denselben Server
+     */
+    public HostRateLimiter(long intervalMillis, int maxInFlight) {
+        this.defaultIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, intervalMillis));
+        this.defaultMaxInFlight = Math.max(1, maxInFlight);
+    }
+
+    private static String host(String url) {
+        return URI.create(url).getAuthority();
+    }
+
+    /**
+     * Legt die Grenzen für den Server der angegebenen Adresse fest, sofern sie noch nicht festgelegt wurden.
+     */
+    public synchronized void limit(String url, int maxInFlight, long intervalMillis) {
+        hosts.computeIfAbsent(host(url),
+                h -> new Host(Math.max(1, maxInFlight), TimeUnit.MILLISECONDS.toNanos(Math.max(0, intervalMillis))));
+    }
+
+    private synchronized Host get(String url) {
+        return hosts.computeIfAbsent(host(url), h -> new Host(defaultMaxInFlight, defaultIntervalNanos));
+    }
+
+    /**
+     * Wartet, bis eine Anfrage an den Server der angegebenen Adresse gestellt werden darf. Nach der Anfrage muss
+     * {@link #release(String)} aufgerufen werden.
+     */
+    public void acquire(String url) throws IOException {
+        final Host host = get(url);
+        try {
+            host.permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + host(url));
+        }
+        if (host.intervalNanos == 0) {
+            return;
+        }
+
+        final long slot;
+        synchronized (host) {
+            final long now = System.nanoTime();
+            slot = host.nextSlot - now < 0 ? now : host.nextSlot;
+            host.nextSlot = slot + host.intervalNanos;
+        }
+
+        final long wait = slot - System.nanoTime();
+        if (wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                host.permits.release();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for " + host(url));
+            }
+        }
+    }
+
+    /**
+     * Gibt die mit {@link #acquire(String)} belegte Anfrage wieder frei.
+     */
+    public void release(String url) {
+        get(url).permits.release();
+    }
+
+    private static class Host {
+        private final Semaphore permits;
+        private final long intervalNanos;
+        private long nextSlot = System.nanoTime();
+
+        Host(int maxInFlight, long intervalNanos) {
+            this.permits = new Semaphore(maxInFlight);
+            this.intervalNanos = intervalNanos;
+        }
+    }
+}
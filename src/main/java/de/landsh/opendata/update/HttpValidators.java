@@ -0,0 +1,128 @@
+package de.landsh.opendata.update;
+
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Die Werte der HTTP-Header <code>ETag</code> und <code>Last-Modified</code> der zuletzt heruntergeladenen
+ * Quelldateien je URL. Beim nächsten Abruf werden sie als <code>If-None-Match</code> und
+ * <code>If-Modified-Since</code> mitgeschickt, so dass der Server mit 304 antworten kann, wenn sich nichts geändert
+ * hat.
+ * <p>
+ * Daneben können Generatoren weitere Werte ablegen, die den Stand ihrer Eingabedaten beschreiben.
+ */
+public class HttpValidators {
+
+    private static final Logger log = LoggerFactory.getLogger(HttpValidators.class);
+    private static final String PREFIX_ETAG = "etag.";
+    private static final String PREFIX_LAST_MODIFIED = "lastModified.";
+
+    private final Properties properties = new Properties();
+
+    /**
+     * Liest die gespeicherten Werte. Gibt es die Datei nicht oder ist sie nicht lesbar, wird ein leeres Objekt
+     * geliefert, so dass alle Quelldateien vollständig heruntergeladen werden.
+     */
+    public static HttpValidators read(File file) {
+        final HttpValidators validators = new HttpValidators();
+        if (file.exists()) {
+            try (InputStream in = Files.newInputStream(file.toPath())) {
+                validators.properties.load(in);
+            } catch (IOException | IllegalArgumentException e) {
+                log.warn("HTTP-Validatoren {} können nicht gelesen werden: {}", file, e.getMessage());
+                validators.properties.clear();
+            }
+        }
+        return validators;
+    }
+
+    public void write(File file) throws IOException {
+        final File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp.toPath())) {
+            properties.store(out, null);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    public String get(String key) {
+        return properties.getProperty(key);
+    }
+
+    public void put(String key, String value) {
+        if (value == null) {
+            properties.remove(key);
+        } else {
+            properties.setProperty(key, value);
+        }
+    }
+
+    public String getETag(String url) {
+        return get(PREFIX_ETAG + url);
+    }
+
+    public String getLastModified(String url) {
+        return get(PREFIX_LAST_MODIFIED + url);
+    }
+
+    public void put(String url, String etag, String lastModified) {
+        put(PREFIX_ETAG + url, etag);
+        put(PREFIX_LAST_MODIFIED + url, lastModified);
+    }
+
+    /**
+     * Vergisst die Werte zu einer URL, so dass der nächste Abruf unbedingt erfolgt.
+     */
+    public void remove(String url) {
+        put(url, null, null);
+    }
+
+    /**
+     * Prüft, ob die übergebenen Werte einer Antwort zu den gespeicherten Werten passen, die Datei also unverändert ist.
+     */
+    public boolean matches(String url, String etag, String lastModified) {
+        if (etag != null) {
+            return etag.equals(getETag(url));
+        }
+        return lastModified != null && getETag(url) == null && lastModified.equals(getLastModified(url));
+    }
+
+    /**
+     * Ergänzt die Header für einen bedingten Abruf, sofern Werte für die URL bekannt sind.
+     */
+    public void applyTo(HttpRequestBase request) {
+        final String url = request.getURI().toString();
+        final String etag = getETag(url);
+        final String lastModified = getLastModified(url);
+        if (etag != null) {
+            request.setHeader(HttpHeaders.IF_NONE_MATCH, etag);
+        }
+        if (lastModified != null) {
+            request.setHeader(HttpHeaders.IF_MODIFIED_SINCE, lastModified);
+        }
+    }
+
+    /**
+     * Übernimmt die Werte aus einer erfolgreichen Antwort.
+     */
+    public void remember(HttpRequestBase request, HttpResponse response) {
+        put(request.getURI().toString(), headerValue(response, HttpHeaders.ETAG),
+                headerValue(response, HttpHeaders.LAST_MODIFIED));
+    }
+
+    static String headerValue(HttpResponse response, String name) {
+        final Header header = response.getFirstHeader(name);
+        return header == null ? null : header.getValue();
+    }
+}
@@ -0,0 +1,88 @@
+package de.landsh.opendata.update;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Liest die Objekte eines JSON-Arrays eins nach dem anderen aus einem Datenstrom. Im Speicher liegt dabei immer nur
+ * das aktuelle Objekt. Eine Byte Order Mark am Anfang wird überlesen.
+ */
+public class JsonArrayReader implements Closeable {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final JsonParser parser;
+
+    public JsonArrayReader(InputStream in) throws IOException {
+        parser = JSON_FACTORY.createParser(in);
+        if (parser.nextToken() != JsonToken.START_ARRAY) {
+            throw new JsonParseException(parser, "JSON array expected");
+        }
+    }
+
+    /**
+     * @return das nächste Objekt oder <code>null</code> am Ende des Arrays
+     */
+    public JSONObject next() throws IOException {
+        final JsonToken token = parser.nextToken();
+        if (token == JsonToken.END_ARRAY) {
+            return null;
+        }
+        if (token != JsonToken.START_OBJECT) {
+            throw new JsonParseException(parser, "JSON object expected");
+        }
+        return readObject();
+    }
+
+    private JSONObject readObject() throws IOException {
+        final JSONObject object = new JSONObject();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String name = parser.getCurrentName();
+            object.put(name, readValue(parser.nextToken()));
+        }
+        return object;
+    }
+
+    private JSONArray readArray() throws IOException {
+        final JSONArray array = new JSONArray();
+        for (JsonToken token = parser.nextToken(); token != JsonToken.END_ARRAY; token = parser.nextToken()) {
+            array.put(readValue(token));
+        }
+        return array;
+    }
+
+    private Object readValue(JsonToken token) throws IOException {
+        switch (token) {
+            case START_OBJECT:
+                return readObject();
+            case START_ARRAY:
+                return readArray();
+            case VALUE_STRING:
+                return parser.getText();
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return parser.getNumberValue();
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            case VALUE_NULL:
+                return JSONObject.NULL;
+            default:
+                throw new JsonParseException(parser, "Unexpected token " + token);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        parser.close();
+    }
+}
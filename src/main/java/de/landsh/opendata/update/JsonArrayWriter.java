@@ -0,0 +1,85 @@
+package de.landsh.opendata.update;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Schreibt ein JSON-Array Objekt für Objekt, ohne das Array im Speicher aufzubauen. Das Ergebnis ist dasselbe wie mit
+ * {@link JSONArray#write(Writer, int, int)}.
+ */
+public class JsonArrayWriter implements Closeable {
+
+    private final Writer writer;
+    private final int indentFactor;
+    private final int indent;
+    private JSONObject first;
+    private int count;
+
+    /**
+     * Schreibt das Array kompakt in eine Zeile.
+     */
+    public JsonArrayWriter(Writer writer) {
+        this(writer, 0, 0);
+    }
+
+    public JsonArrayWriter(Writer writer, int indentFactor, int indent) {
+        this.writer = writer;
+        this.indentFactor = indentFactor;
+        this.indent = indent;
+    }
+
+    public void write(JSONObject object) throws IOException {
+        count++;
+        if (count == 1) {
+            // Ein Array mit nur einem Element wird anders eingerückt, daher kann das erste Element erst mit dem
+            // zweiten geschrieben werden.
+            first = object;
+            return;
+        }
+        if (count == 2) {
+            writer.write('[');
+            writeElement(first, false);
+            first = null;
+        }
+        writeElement(object, true);
+    }
+
+    private void writeElement(JSONObject object, boolean comma) throws IOException {
+        if (comma) {
+            writer.write(',');
+        }
+        if (indentFactor > 0) {
+            writer.write('\n');
+        }
+        writeIndent(indent + indentFactor);
+        object.write(writer, indentFactor, indent + indentFactor);
+    }
+
+    private void writeIndent(int n) throws IOException {
+        for (int i = 0; i < n; i++) {
+            writer.write(' ');
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (count == 0) {
+            writer.write("[]");
+        } else if (count == 1) {
+            writer.write('[');
+            first.write(writer, indentFactor, indent);
+            writer.write(']');
+        } else {
+            if (indentFactor > 0) {
+                writer.write('\n');
+            }
+            writeIndent(indent);
+            writer.write(']');
+        }
+        writer.close();
+    }
+}
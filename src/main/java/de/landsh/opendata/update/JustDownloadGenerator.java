@@ -1,29 +1,37 @@
 package de.landsh.opendata.update;
 
 import de.landsh.opendata.DatasetUpdate;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.http.HttpEntity;
-import org.apache.http.auth.AuthScope;
-import org.apache.http.auth.UsernamePasswordCredentials;
-import org.apache.http.client.CredentialsProvider;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.BasicCredentialsProvider;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
- * Dieser Generator lädt einfach nur eine Datei herunter.
+ * Dieser Generator lädt einfach nur eine Datei herunter. Die Prüfsummen der Datei werden dabei gleich mit berechnet.
+ * Sind {@link HttpValidators} gesetzt, erfolgt der Abruf bedingt; bei der Antwort 304 wird keine Datei geschrieben.
  */
-public class JustDownloadGenerator implements Generator {
+public class JustDownloadGenerator implements ConditionalGenerator, ChecksumProvider {
 
     private final String url;
     private final String distributionName;
     private final String password;
     private final String username;
+    private final Map<String, Checksums> checksums = new HashMap<>();
+    private GeneratorContext context = GeneratorContext.getDefault();
+    private HttpValidators validators;
+    private boolean notModified;
 
     public JustDownloadGenerator(String distributionName, DatasetUpdate update) {
         this.url = update.getOriginalURL();
@@ -35,34 +43,62 @@ public class JustDownloadGenerator implements Generator {
     @Override
     public boolean generateDistributions(File directory) throws IOException {
         final File file = new File(directory, distributionName);
+        checksums.clear();
+        notModified = false;
 
-        final CloseableHttpClient client;
-        if (username != null && password != null) {
-            final CredentialsProvider provider = new BasicCredentialsProvider();
-            final UsernamePasswordCredentials credentials = new UsernamePasswordCredentials(username, password);
-            provider.setCredentials(AuthScope.ANY, credentials);
-
-            client = HttpClientBuilder.create()
-                    .setDefaultCredentialsProvider(provider)
-                    .build();
-        } else {
-            client = HttpClientBuilder.create().build();
+        final HttpGet request = new HttpGet(url);
+        if (validators != null) {
+            validators.applyTo(request);
         }
+        final CloseableHttpResponse response = context.execute(request, username, password);
 
-        final CloseableHttpResponse response = client.execute(new HttpGet(url));
+        if (response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED) {
+            response.close();
+            notModified = true;
+            return true;
+        }
 
         if (response.getStatusLine().getStatusCode() == 200) {
 
             HttpEntity entity = response.getEntity();
             if (entity != null) {
-                FileOutputStream outstream = new FileOutputStream(file);
+                final MessageDigest md5 = DigestUtils.getMd5Digest();
+                final MessageDigest sha256 = DigestUtils.getSha256Digest();
+                final OutputStream outstream = new DigestOutputStream(
+                        new DigestOutputStream(new FileOutputStream(file), md5), sha256);
                 entity.writeTo(outstream);
                 outstream.close();
+                checksums.put(distributionName, new Checksums(Hex.encodeHexString(md5.digest()), Hex.encodeHexString(sha256.digest())));
+            }
+            if (validators != null) {
+                validators.remember(request, response);
             }
             response.close();
             return true;
         }
 
+        EntityUtils.consumeQuietly(response.getEntity());
+        response.close();
         return false;
     }
+
+    @Override
+    public void setContext(GeneratorContext context) {
+        this.context = context;
+    }
+
+    @Override
+    public void setValidators(HttpValidators validators) {
+        this.validators = validators;
+    }
+
+    @Override
+    public boolean isNotModified() {
+        return notModified;
+    }
+
+    @Override
+    public Map<String, Checksums> getChecksums() {
+        return checksums;
+    }
 }
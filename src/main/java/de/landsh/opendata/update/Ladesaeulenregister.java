@@ -5,8 +5,6 @@ import de.landsh.opendata.OpenDataUpdatesCkan;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -14,13 +12,16 @@ import java.io.*;
 import java.nio.file.Files;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import java.util.List;
 
 public class Ladesaeulenregister implements Generator {
 
     private static final String TARGET_FILE = "ladesaeulenregister.csv";
-    private static final String TEMP_FILE = "raw.csv";
+    private static final String TEMP_FILE = "raw.xlsx";
+    private static final String STATE = "Schleswig-Holstein";
     private static final Logger log = LoggerFactory.getLogger(Ladesaeulenregister.class);
     private final String url;
+    private GeneratorContext context = GeneratorContext.getDefault();
 
     public Ladesaeulenregister(DatasetUpdate update) {
         this.url = update.getOriginalURL();
@@ -32,8 +33,7 @@ public class Ladesaeulenregister implements Generator {
      * @return vollständigen URL der Excel-Datei
      */
     String determineExcelFileURL() throws IOException {
-        final CloseableHttpClient client = HttpClientBuilder.create().build();
-        final CloseableHttpResponse response = client.execute(new HttpGet(url));
+        final CloseableHttpResponse response = context.execute(new HttpGet(url));
 
         BufferedReader reader = new BufferedReader(new InputStreamReader(response.getEntity().getContent()));
 
@@ -49,7 +49,6 @@ public class Ladesaeulenregister implements Generator {
 
         reader.close();
         response.close();
-        client.close();
 
         final String scheme = StringUtils.substringBefore(this.url, "://");
         final String hostPort = StringUtils.substringBetween(this.url, "://", "/");
@@ -57,55 +56,59 @@ public class Ladesaeulenregister implements Generator {
         return scheme + "://" + hostPort + url;
     }
 
+    @Override
+    public void setContext(GeneratorContext context) {
+        this.context = context;
+    }
+
     @Override
     public boolean generateDistributions(File directory) throws Exception {
 
         final String excelURL = determineExcelFileURL();
 
-        // Excel-Datei herunterladen und als CSV umwandeln
+        // Excel-Datei herunterladen
         final DatasetUpdate excelDownload = new DatasetUpdate();
         excelDownload.setOriginalURL(excelURL);
-        final Excel2CsvGenerator excel2CsvGenerator = new Excel2CsvGenerator("raw", excelDownload);
-        boolean downloadSuccess = excel2CsvGenerator.generateDistributions(directory);
-
-        if (!downloadSuccess) {
+        final JustDownloadGenerator downloadGenerator = new JustDownloadGenerator(TEMP_FILE, excelDownload);
+        downloadGenerator.setContext(context);
+        if (!downloadGenerator.generateDistributions(directory)) {
             return false;
         }
 
-        final File rawCsvFile = new File(directory, TEMP_FILE);
-
-        final File targetFile = new File(directory, TARGET_FILE);
-        final PrintWriter out = new PrintWriter(new FileWriter(targetFile));
-
-        boolean inData = false;
-        final BufferedReader reader = new BufferedReader(new FileReader(rawCsvFile));
-        String line = reader.readLine();
-        while (line != null) {
-            if (inData) {
-                if (line.contains(",Schleswig-Holstein,")) {
-                    out.println(line);
-                }
-            } else {
-                if (line.startsWith("Betreiber,Straße")) {
-                    out.println(line);
-                    inData = true;
-                } else if (line.startsWith("Stand:")) {
-                    String rawDate = StringUtils.trim(StringUtils.substringAfter(line, "Stand:"));
-                    LocalDate date = LocalDate.parse(rawDate, DateTimeFormatter.ofPattern("dd.MM.yyyy"));
-                    Files.writeString( new File(directory, OpenDataUpdatesCkan.METADATA_FILE_TIME_START).toPath(),date.format(DateTimeFormatter.ISO_DATE));
-                    Files.writeString( new File(directory, OpenDataUpdatesCkan.METADATA_FILE_TIME_END).toPath(),date.format(DateTimeFormatter.ISO_DATE));
-                }
-            }
-
-            line = reader.readLine();
+        // Die Zeilen werden beim Lesen der Excel-Datei gleich anhand ihrer Zellen gefiltert; nur die übernommenen
+        // Zeilen werden in CSV umgewandelt.
+        final File excelFile = new File(directory, TEMP_FILE);
+        try (PrintWriter out = new PrintWriter(new FileWriter(new File(directory, TARGET_FILE)))) {
+            ExcelSheetReader.read(excelFile, 0, new RowPipeline()
+                    .header(Ladesaeulenregister::isHeader,
+                            row -> readDate(directory, Excel2CsvGenerator.toCsvLine(row)))
+                    .filter(row -> row.stream().anyMatch(value -> STATE.equals(value.trim())))
+                    .to(row -> out.println(Excel2CsvGenerator.toCsvLine(row))));
         }
-        out.close();
-        reader.close();
 
-        if (!rawCsvFile.delete()) {
-            log.warn("Could not delete temporary CSV file {}", rawCsvFile);
+        if (!excelFile.delete()) {
+            log.warn("Could not delete temporary Excel file {}", excelFile);
         }
 
         return true;
     }
+
+    /**
+     * Die Kopfzeile beginnt mit den Spalten <code>Betreiber</code> und <code>Straße</code>.
+     */
+    private static boolean isHeader(List<String> row) {
+        return row.size() > 1 && "Betreiber".equals(row.get(0).trim()) && row.get(1).trim().startsWith("Straße");
+    }
+
+    /**
+     * Übernimmt das Datum aus der Zeile <code>Stand: dd.MM.yyyy</code> vor der Kopfzeile als Zeitraum der Daten.
+     */
+    private static void readDate(File directory, String line) throws IOException {
+        if (line.startsWith("Stand:")) {
+            String rawDate = StringUtils.trim(StringUtils.substringAfter(line, "Stand:"));
+            LocalDate date = LocalDate.parse(rawDate, DateTimeFormatter.ofPattern("dd.MM.yyyy"));
+            Files.writeString(new File(directory, OpenDataUpdatesCkan.METADATA_FILE_TIME_START).toPath(), date.format(DateTimeFormatter.ISO_DATE));
+            Files.writeString(new File(directory, OpenDataUpdatesCkan.METADATA_FILE_TIME_END).toPath(), date.format(DateTimeFormatter.ISO_DATE));
+        }
+    }
 }
@@ -0,0 +1,470 @@
+package de.landsh.opendata.update;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Sortiert Zeilen in der natürlichen Ordnung von {@link String}.
+ * <p>
+ * Solange die Zeilen in das Speicherbudget passen (höchstens die Hälfte des Heaps), wird im Speicher sortiert.
+ * Sonst wird jedes Mal, wenn das Budget erreicht ist, der bisher gelesene Teil sortiert in eine temporäre Datei
+ * geschrieben. Am Ende werden alle diese Dateien gleichzeitig gelesen und über einen Heap zusammengeführt. Das
+ * Ergebnis ist in beiden Fällen dasselbe.
+ * <p>
+ * Ist die Größe der Eingabe bekannt, wählt {@link #chooseMode(long, long)} vorab das passende Verfahren aus, siehe
+ * {@link Mode}.
+ */
+public class LineSorter {
+
+    public static final long UNLIMITED = Long.MAX_VALUE;
+    private static final Logger log = LoggerFactory.getLogger(LineSorter.class);
+
+    /**
+     * Geschätzter Speicherbedarf je Byte der Eingabe, wenn jede Zeile ein eigener {@link String} ist. Bei kurzen
+     * Zeilen überwiegen die Objekt-Header.
+     */
+    static final int STRING_BYTES_PER_INPUT_BYTE = 4;
+    /**
+     * Geschätzter Speicherbedarf je Byte der Eingabe, wenn alle Zeichen in einem gemeinsamen Puffer liegen: zwei
+     * Bytes je Zeichen plus Anfang, Länge und Reihenfolge jeder Zeile.
+     */
+    static final int OFFSET_BYTES_PER_INPUT_BYTE = 3;
+    /**
+     * Bis zu dieser Anzahl Zeilen sortiert eine Teilaufgabe des parallelen Sortierens allein.
+     */
+    private static final int PARALLEL_THRESHOLD = 1 << 13;
+    private static final int INSERTION_SORT_THRESHOLD = 32;
+    private static final int MAX_BUFFER_SIZE = Integer.MAX_VALUE - 8;
+
+    /**
+     * Die Verfahren zum Sortieren. Alle liefern dasselbe Ergebnis; sie unterscheiden sich nur im Speicherbedarf und in
+     * der Anzahl der genutzten Prozessorkerne.
+     */
+    public enum Mode {
+        /**
+         * Ein {@link String} je Zeile, sortiert in einem Thread.
+         */
+        SEQUENTIAL,
+        /**
+         * Ein {@link String} je Zeile, sortiert mit {@link Arrays#parallelSort(Object[])} auf allen Kernen.
+         */
+        PARALLEL,
+        /**
+         * Alle Zeichen liegen in einem gemeinsamen Puffer, sortiert wird nur ein Feld mit den Nummern der Zeilen. Das
+         * spart die Objekt-Header der einzelnen Zeilen; sortiert wird ebenfalls auf allen Kernen.
+         */
+        OFFSETS,
+        /**
+         * Sortieren in Teilen über temporäre Dateien, siehe {@link #sort(BufferedReader, PrintWriter)}.
+         */
+        EXTERNAL
+    }
+
+    private final long memoryBudget;
+    private final File tempDirectory;
+    private int runCount;
+
+    public LineSorter(long memoryBudget, File tempDirectory) {
+        this.memoryBudget = memoryBudget;
+        this.tempDirectory = tempDirectory;
+    }
+
+    /**
+     * Geschätzter Speicherbedarf einer Zeile im Heap: Objekt-Header von String und Array, die Zeichen und der
+     * Verweis in der Liste.
+     */
+    static long estimateSize(String line) {
+        return 48L + 2L * line.length();
+    }
+
+    /**
+     * Liest eine Größenangabe wie <code>512m</code> oder <code>2G</code>.
+     *
+     * @return Anzahl Bytes oder {@link #UNLIMITED}, wenn nichts angegeben ist
+     */
+    public static long parseSize(String value) {
+        if (StringUtils.isBlank(value)) {
+            return UNLIMITED;
+        }
+        final String text = value.trim().toLowerCase();
+        final char unit = text.charAt(text.length() - 1);
+        final long factor;
+        switch (unit) {
+            case 'k':
+                factor = 1024L;
+                break;
+            case 'm':
+                factor = 1024L * 1024;
+                break;
+            case 'g':
+                factor = 1024L * 1024 * 1024;
+                break;
+            default:
+                factor = 1;
+        }
+        final String number = factor == 1 ? text : text.substring(0, text.length() - 1);
+        final long size = NumberUtils.toLong(number.trim(), -1);
+        if (size <= 0) {
+            throw new IllegalArgumentException("Ungültige Größenangabe: " + value);
+        }
+        return size * factor;
+    }
+
+    /**
+     * Liest den Namen eines Verfahrens, Groß- und Kleinschreibung spielen keine Rolle.
+     *
+     * @return das Verfahren oder <code>null</code>, wenn nichts angegeben ist
+     */
+    public static Mode parseMode(String value) {
+        if (StringUtils.isBlank(value)) {
+            return null;
+        }
+        for (Mode mode : Mode.values()) {
+            if (mode.name().equalsIgnoreCase(value.trim())) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException("Ungültiges Verfahren zum Sortieren: " + value + ", erlaubt sind "
+                + StringUtils.join(Mode.values(), ", "));
+    }
+
+    /**
+     * Wählt das Verfahren für eine Eingabe der angegebenen Größe. Verfügbar ist das Speicherbudget, höchstens aber
+     * die Hälfte des maximalen Heaps.
+     *
+     * @param inputSize    Größe der Eingabe in Bytes
+     * @param memoryBudget Speicherbudget in Bytes oder {@link #UNLIMITED}
+     */
+    public static Mode chooseMode(long inputSize, long memoryBudget) {
+        return chooseMode(inputSize, Math.min(memoryBudget, Runtime.getRuntime().maxMemory() / 2),
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    static Mode chooseMode(long inputSize, long availableMemory, int processors) {
+        final long strings = inputSize > availableMemory / STRING_BYTES_PER_INPUT_BYTE ? Long.MAX_VALUE
+                : inputSize * STRING_BYTES_PER_INPUT_BYTE;
+        if (strings <= availableMemory) {
+            return processors > 1 ? Mode.PARALLEL : Mode.SEQUENTIAL;
+        }
+        if (inputSize <= MAX_BUFFER_SIZE && inputSize <= availableMemory / OFFSET_BYTES_PER_INPUT_BYTE) {
+            return Mode.OFFSETS;
+        }
+        return Mode.EXTERNAL;
+    }
+
+    /**
+     * @return Anzahl der temporären Dateien beim letzten Aufruf von {@link #sort(BufferedReader, PrintWriter)}
+     */
+    int getRunCount() {
+        return runCount;
+    }
+
+    /**
+     * Liest alle Zeilen aus <code>in</code> und schreibt sie sortiert mit {@link PrintWriter#println(String)} nach
+     * <code>out</code>.
+     */
+    public void sort(BufferedReader in, PrintWriter out) throws IOException {
+        sortExternal(in, out);
+    }
+
+    /**
+     * Sortiert eine Eingabe bekannter Größe mit dem Verfahren, das {@link #chooseMode(long, long)} auswählt.
+     *
+     * @param inputSize Größe der Eingabe in Bytes
+     */
+    public void sort(BufferedReader in, PrintWriter out, long inputSize) throws IOException {
+        sort(in, out, chooseMode(inputSize, memoryBudget), inputSize);
+    }
+
+    /**
+     * Wie {@link #sort(BufferedReader, PrintWriter)}, aber mit dem angegebenen Verfahren. Das Speicherbudget wird nur
+     * bei {@link Mode#EXTERNAL} beachtet.
+     *
+     * @param inputSize Größe der Eingabe in Bytes, falls bekannt, sonst 0. Sie dient nur dazu, den Puffer bei
+     *                  {@link Mode#OFFSETS} gleich passend anzulegen.
+     */
+    public void sort(BufferedReader in, PrintWriter out, Mode mode, long inputSize) throws IOException {
+        log.debug("Sortiere mit dem Verfahren {}.", mode);
+        switch (mode) {
+            case SEQUENTIAL:
+                sortStrings(in, out, false);
+                break;
+            case PARALLEL:
+                sortStrings(in, out, true);
+                break;
+            case OFFSETS:
+                sortOffsets(in, out, inputSize);
+                break;
+            default:
+                sortExternal(in, out);
+        }
+    }
+
+    private void sortStrings(BufferedReader in, PrintWriter out, boolean parallel) throws IOException {
+        runCount = 0;
+        final List<String> lines = new ArrayList<>();
+        for (String line = in.readLine(); line != null; line = in.readLine()) {
+            lines.add(line);
+        }
+        for (String s : sorted(lines, parallel)) {
+            out.println(s);
+        }
+    }
+
+    private void sortOffsets(BufferedReader in, PrintWriter out, long inputSize) throws IOException {
+        runCount = 0;
+        // Die gängigen Zeichensätze ergeben höchstens so viele Zeichen, wie die Eingabe Bytes hat.
+        final OffsetSorter sorter = new OffsetSorter((int) Math.min(MAX_BUFFER_SIZE, Math.max(1 << 16, inputSize)));
+        for (String line = in.readLine(); line != null; line = in.readLine()) {
+            sorter.add(line);
+        }
+        sorter.sort();
+        sorter.writeTo(out);
+    }
+
+    private void sortExternal(BufferedReader in, PrintWriter out) throws IOException {
+        runCount = 0;
+        final long budget = Math.min(memoryBudget, Runtime.getRuntime().maxMemory() / 2);
+        final List<File> runs = new ArrayList<>();
+        try {
+            List<String> lines = new ArrayList<>();
+            long size = 0;
+            String line = in.readLine();
+            while (line != null) {
+                lines.add(line);
+                size += estimateSize(line);
+                if (size >= budget) {
+                    runs.add(writeRun(lines));
+                    lines = new ArrayList<>();
+                    size = 0;
+                }
+                line = in.readLine();
+            }
+
+            if (runs.isEmpty()) {
+                for (String s : sorted(lines, true)) {
+                    out.println(s);
+                }
+            } else {
+                if (!lines.isEmpty()) {
+                    runs.add(writeRun(lines));
+                }
+                lines = null;
+                runCount = runs.size();
+                log.debug("Führe {} sortierte Teildateien zusammen.", runs.size());
+                merge(runs, out);
+            }
+        } finally {
+            for (File run : runs) {
+                Files.deleteIfExists(run.toPath());
+            }
+        }
+    }
+
+    private static String[] sorted(List<String> lines, boolean parallel) {
+        final String[] array = lines.toArray(new String[0]);
+        lines.clear();
+        if (parallel) {
+            Arrays.parallelSort(array);
+        } else {
+            Arrays.sort(array);
+        }
+        return array;
+    }
+
+    /**
+     * Die Zeilen enthalten keine Zeilenumbrüche mehr und werden als UTF-8 gespeichert; so kommen beim Lesen genau
+     * dieselben Zeichen wieder heraus.
+     */
+    private File writeRun(List<String> lines) throws IOException {
+        final String[] sorted = sorted(lines, true);
+        final File run = File.createTempFile("sort", ".run", tempDirectory);
+        try (BufferedWriter writer = Files.newBufferedWriter(run.toPath(), StandardCharsets.UTF_8)) {
+            for (String s : sorted) {
+                writer.write(s);
+                writer.write('\n');
+            }
+        }
+        return run;
+    }
+
+    private void merge(List<File> runs, PrintWriter out) throws IOException {
+        final PriorityQueue<Run> heap = new PriorityQueue<>(runs.size());
+        try {
+            for (File file : runs) {
+                final Run run = new Run(Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8));
+                if (run.next()) {
+                    heap.add(run);
+                } else {
+                    run.reader.close();
+                }
+            }
+
+            while (!heap.isEmpty()) {
+                final Run run = heap.poll();
+                out.println(run.current);
+                if (run.next()) {
+                    heap.add(run);
+                } else {
+                    run.reader.close();
+                }
+            }
+        } finally {
+            for (Run run : heap) {
+                run.reader.close();
+            }
+        }
+    }
+
+    /**
+     * Hält alle Zeilen in einem gemeinsamen Zeichenpuffer. Sortiert wird ein Feld mit den Nummern der Zeilen per
+     * Mergesort, dessen Hälften ab einer gewissen Größe parallel im {@link ForkJoinPool} sortiert werden. Verglichen
+     * wird Zeichen für Zeichen wie bei {@link String#compareTo(String)}.
+     */
+    private static class OffsetSorter {
+        private char[] buffer;
+        private int[] starts = new int[1 << 10];
+        private int[] lengths = new int[1 << 10];
+        private int used;
+        private int count;
+        private int[] order;
+
+        OffsetSorter(int capacity) {
+            buffer = new char[capacity];
+        }
+
+        void add(String line) {
+            final int length = line.length();
+            if (length > MAX_BUFFER_SIZE - used) {
+                throw new IllegalStateException("Die Eingabe ist zu groß, um sie im Speicher zu sortieren.");
+            }
+            if (used + length > buffer.length) {
+                buffer = Arrays.copyOf(buffer, (int) Math.min(MAX_BUFFER_SIZE,
+                        Math.max(used + length, 2L * buffer.length)));
+            }
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, 2 * count);
+                lengths = Arrays.copyOf(lengths, 2 * count);
+            }
+            line.getChars(0, length, buffer, used);
+            starts[count] = used;
+            lengths[count] = length;
+            used += length;
+            count++;
+        }
+
+        void sort() {
+            order = new int[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+            ForkJoinPool.commonPool().invoke(new MergeSortTask(order, new int[count], 0, count));
+        }
+
+        void writeTo(PrintWriter out) {
+            for (int i = 0; i < count; i++) {
+                out.write(buffer, starts[order[i]], lengths[order[i]]);
+                out.println();
+            }
+        }
+
+        private int compare(int a, int b) {
+            return Arrays.compare(buffer, starts[a], starts[a] + lengths[a], buffer, starts[b], starts[b] + lengths[b]);
+        }
+
+        private void sequentialSort(int[] a, int[] tmp, int from, int to) {
+            if (to - from < INSERTION_SORT_THRESHOLD) {
+                for (int i = from + 1; i < to; i++) {
+                    final int value = a[i];
+                    int j = i - 1;
+                    while (j >= from && compare(a[j], value) > 0) {
+                        a[j + 1] = a[j];
+                        j--;
+                    }
+                    a[j + 1] = value;
+                }
+                return;
+            }
+            final int mid = (from + to) >>> 1;
+            sequentialSort(a, tmp, from, mid);
+            sequentialSort(a, tmp, mid, to);
+            merge(a, tmp, from, mid, to);
+        }
+
+        private void merge(int[] a, int[] tmp, int from, int mid, int to) {
+            if (compare(a[mid - 1], a[mid]) <= 0) {
+                return;
+            }
+            System.arraycopy(a, from, tmp, from, to - from);
+            int i = from;
+            int j = mid;
+            for (int k = from; k < to; k++) {
+                if (j >= to || i < mid && compare(tmp[i], tmp[j]) <= 0) {
+                    a[k] = tmp[i++];
+                } else {
+                    a[k] = tmp[j++];
+                }
+            }
+        }
+
+        private class MergeSortTask extends RecursiveAction {
+            private final int[] a;
+            private final int[] tmp;
+            private final int from;
+            private final int to;
+
+            MergeSortTask(int[] a, int[] tmp, int from, int to) {
+                this.a = a;
+                this.tmp = tmp;
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected void compute() {
+                if (to - from <= PARALLEL_THRESHOLD) {
+                    sequentialSort(a, tmp, from, to);
+                    return;
+                }
+                final int mid = (from + to) >>> 1;
+                invokeAll(new MergeSortTask(a, tmp, from, mid), new MergeSortTask(a, tmp, mid, to));
+                merge(a, tmp, from, mid, to);
+            }
+        }
+    }
+
+    private static class Run implements Comparable<Run> {
+        private final BufferedReader reader;
+        private String current;
+
+        Run(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        boolean next() throws IOException {
+            current = reader.readLine();
+            return current != null;
+        }
+
+        @Override
+        public int compareTo(Run other) {
+            return current.compareTo(other.current);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package de.landsh.opendata.update;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Verzeichnis der Fotos, die als <code>&lt;Objektnummer&gt;.jpg</code> in einem Verzeichnis liegen. Das Verzeichnis
+ * wird nur einmal gelesen, statt für jedes Denkmal einzeln nach einer Datei zu fragen - das ist auf einem
+ * Netzlaufwerk mit zehntausenden Dateien sehr langsam.
+ * <p>
+ * Das Ergebnis wird für alle Kreise eines Laufs wiederverwendet, solange sich der Änderungszeitpunkt des
+ * Verzeichnisses nicht ändert.
+ */
+class PhotoIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(PhotoIndex.class);
+    private static final String SUFFIX = ".jpg";
+    private static final Map<String, PhotoIndex> cache = new ConcurrentHashMap<>();
+
+    private final long lastModified;
+    private final int[] objectNumbers;
+
+    private PhotoIndex(long lastModified, int[] objectNumbers) {
+        this.lastModified = lastModified;
+        this.objectNumbers = objectNumbers;
+    }
+
+    /**
+     * Liefert das Verzeichnis der Fotos. Es wird neu gelesen, wenn sich das Verzeichnis seit dem letzten Aufruf
+     * geändert hat.
+     */
+    static PhotoIndex of(File directory) throws IOException {
+        final String key = directory.getAbsolutePath();
+        final long lastModified = directory.lastModified();
+        final PhotoIndex cached = cache.get(key);
+        if (cached != null && cached.lastModified == lastModified) {
+            return cached;
+        }
+
+        final PhotoIndex index = new PhotoIndex(lastModified, read(directory.toPath()));
+        log.debug("{} Fotos in {}", index.objectNumbers.length, directory);
+        cache.put(key, index);
+        return index;
+    }
+
+    private static int[] read(Path directory) throws IOException {
+        int[] numbers = new int[1024];
+        int size = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path path : stream) {
+                final int number = parseObjectNumber(path.getFileName().toString());
+                if (number < 0) {
+                    continue;
+                }
+                if (size == numbers.length) {
+                    numbers = Arrays.copyOf(numbers, size * 2);
+                }
+                numbers[size++] = number;
+            }
+        }
+        numbers = Arrays.copyOf(numbers, size);
+        Arrays.sort(numbers);
+        return numbers;
+    }
+
+    /**
+     * @return die Objektnummer aus dem Dateinamen oder -1, wenn der Name nicht genau <code>&lt;Objektnummer&gt;.jpg</code>
+     * lautet
+     */
+    static int parseObjectNumber(String fileName) {
+        final int length = fileName.length() - SUFFIX.length();
+        if (length <= 0 || length > 9 || !fileName.endsWith(SUFFIX)) {
+            return -1;
+        }
+        // Führende Nullen würden nicht zu "objectNumber + .jpg" passen.
+        if (fileName.charAt(0) == '0' && length > 1) {
+            return -1;
+        }
+        int number = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = fileName.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            number = number * 10 + (c - '0');
+        }
+        return number;
+    }
+
+    boolean contains(int objectNumber) {
+        return Arrays.binarySearch(objectNumbers, objectNumber) >= 0;
+    }
+
+    int size() {
+        return objectNumbers.length;
+    }
+}
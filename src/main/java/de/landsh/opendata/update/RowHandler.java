@@ -0,0 +1,16 @@
+package de.landsh.opendata.update;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Empfängt die Zeilen einer Tabelle nacheinander, z.B. beim Lesen einer Excel-Datei mit {@link ExcelSheetReader}.
+ */
+@FunctionalInterface
+public interface RowHandler {
+
+    /**
+     * @param values die formatierten Werte der Zellen einer Zeile
+     */
+    void row(List<String> values) throws IOException;
+}
@@ -0,0 +1,115 @@
+package de.landsh.opendata.update;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * Eine Kette von Verarbeitungsschritten für Zeilen, die z.B. von {@link ExcelSheetReader} geliefert werden. Jede Zeile
+ * durchläuft die Schritte in der Reihenfolge, in der sie angehängt wurden, und landet am Ende beim Ziel, sofern kein
+ * Schritt sie verworfen hat. So lassen sich Zeilen filtern und umformen, ohne sie erst in eine Datei zu schreiben.
+ * <p>
+ * Mit {@link #header(Predicate, RowHandler)} wird die Kopfzeile erkannt. Alle Zeilen davor gehen an einen eigenen
+ * Empfänger; die Kopfzeile selbst wird von {@link #filter(Predicate)} nicht verworfen.
+ *
+ * <pre>
+ * ExcelSheetReader.read(file, 0, new RowPipeline()
+ *         .header(row -&gt; row.get(0).equals("Betreiber"), this::readPreamble)
+ *         .filter(row -&gt; row.contains("Schleswig-Holstein"))
+ *         .to(row -&gt; out.println(String.join(",", row))));
+ * </pre>
+ */
+public class RowPipeline implements RowHandler {
+
+    private final List<Stage> stages = new ArrayList<>();
+    private RowHandler target = values -> {
+    };
+    private boolean headerFound;
+    private boolean currentIsHeader;
+
+    /**
+     * Verwirft alle Zeilen, die das Prädikat nicht erfüllen. Die Kopfzeile wird immer weitergegeben.
+     */
+    public RowPipeline filter(Predicate<List<String>> predicate) {
+        stages.add(values -> currentIsHeader || predicate.test(values) ? values : null);
+        return this;
+    }
+
+    /**
+     * Formt jede Zeile um, auch die Kopfzeile. Liefert <code>mapper</code> <code>null</code>, wird die Zeile
+     * verworfen.
+     */
+    public RowPipeline map(UnaryOperator<List<String>> mapper) {
+        stages.add(mapper::apply);
+        return this;
+    }
+
+    /**
+     * Übergibt jede Zeile zusätzlich an <code>handler</code>, z.B. um Werte aus ihr zu übernehmen.
+     */
+    public RowPipeline peek(RowHandler handler) {
+        stages.add(values -> {
+            handler.row(values);
+            return values;
+        });
+        return this;
+    }
+
+    /**
+     * Erkennt die Kopfzeile: Alle Zeilen vor der ersten Zeile, die das Prädikat erfüllt, gehen nur an
+     * <code>preamble</code>. Die Kopfzeile und alle weiteren Zeilen werden weitergegeben.
+     */
+    public RowPipeline header(Predicate<List<String>> isHeader, RowHandler preamble) {
+        stages.add(values -> {
+            if (headerFound) {
+                return values;
+            }
+            if (isHeader.test(values)) {
+                headerFound = true;
+                currentIsHeader = true;
+                return values;
+            }
+            preamble.row(values);
+            return null;
+        });
+        return this;
+    }
+
+    /**
+     * Legt das Ziel für alle Zeilen fest, die die Kette durchlaufen haben.
+     */
+    public RowPipeline to(RowHandler target) {
+        this.target = target;
+        return this;
+    }
+
+    /**
+     * @return <code>true</code>, wenn eine Kopfzeile erkannt wurde
+     */
+    public boolean isHeaderFound() {
+        return headerFound;
+    }
+
+    @Override
+    public void row(List<String> values) throws IOException {
+        currentIsHeader = false;
+        List<String> current = values;
+        for (Stage stage : stages) {
+            current = stage.apply(current);
+            if (current == null) {
+                return;
+            }
+        }
+        target.row(current);
+    }
+
+    @FunctionalInterface
+    private interface Stage {
+        /**
+         * @return die weiterzugebende Zeile oder <code>null</code>, wenn die Zeile verworfen wird
+         */
+        List<String> apply(List<String> values) throws IOException;
+    }
+}
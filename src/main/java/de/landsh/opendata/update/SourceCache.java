@@ -0,0 +1,364 @@
+package de.landsh.opendata.update;
+
+import lombok.Data;
+import lombok.ToString;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.DeferredFileOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Zwischenspeicher für heruntergeladene Quelldateien, den sich alle Generatoren eines Laufs teilen. Verweisen mehrere
+ * Datensätze auf dieselbe Datei, wird sie nur einmal heruntergeladen, auch wenn die Datensätze gleichzeitig bearbeitet
+ * werden. Der Schlüssel besteht aus URL und Zugangsdaten.
+ * <p>
+ * Die Dateien im Speicher belegen zusammen höchstens <code>maxMemory</code> Bytes. Wird es mehr, werden die am
+ * längsten nicht verwendeten Dateien verdrängt. Ist ein Verzeichnis zum Auslagern angegeben, werden sie dorthin
+ * geschrieben statt verworfen; Dateien, die allein größer als das Budget sind, landen beim Herunterladen direkt dort.
+ * Ausgelagerte Dateien werden mit {@link #close()} gelöscht.
+ */
+public class SourceCache implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(SourceCache.class);
+
+    private final long maxMemory;
+    private final File spillDirectory;
+    private final LinkedHashMap<Key, Source> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Key, CompletableFuture<Source>> loading = new HashMap<>();
+    private long memoryUsed;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param maxMemory      Höchstgröße aller Dateien im Speicher in Bytes
+     * @param spillDirectory Verzeichnis zum Auslagern oder <code>null</code>, dann werden Dateien verworfen. Gibt es
+     *                       das Verzeichnis noch nicht, wird es angelegt.
+     * @throws UncheckedIOException wenn das Verzeichnis nicht angelegt werden kann
+     */
+    public SourceCache(long maxMemory, File spillDirectory) {
+        this.maxMemory = maxMemory;
+        this.spillDirectory = spillDirectory;
+        if (spillDirectory != null) {
+            try {
+                Files.createDirectories(spillDirectory.toPath());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Verzeichnis zum Auslagern " + spillDirectory
+                        + " kann nicht angelegt werden.", e);
+            }
+        }
+    }
+
+    /**
+     * Liefert die Datei aus dem Zwischenspeicher oder lädt sie mit dem <code>loader</code>. Lädt gerade ein anderer
+     * Thread dieselbe Datei, wird auf dessen Ergebnis gewartet.
+     * <p>
+     * Liefert der <code>loader</code> <code>null</code> (z.B. weil die Datei bei einem bedingten Abruf unverändert
+     * ist), wird nichts gespeichert. Wartende Threads laden die Datei dann selbst.
+     *
+     * @return die Datei oder <code>null</code>, wenn der eigene <code>loader</code> <code>null</code> geliefert hat
+     */
+    public Source get(String url, String username, String password, SourceLoader loader) throws IOException {
+        final Key key = new Key(url, username, password);
+        while (true) {
+            final CompletableFuture<Source> future;
+            boolean owner = false;
+            synchronized (this) {
+                final Source cached = entries.get(key);
+                if (cached != null) {
+                    hits++;
+                    return cached;
+                }
+                CompletableFuture<Source> running = loading.get(key);
+                if (running == null) {
+                    misses++;
+                    running = new CompletableFuture<>();
+                    loading.put(key, running);
+                    owner = true;
+                }
+                future = running;
+            }
+
+            if (owner) {
+                return load(key, loader, future);
+            }
+
+            try {
+                final Source source = future.get();
+                if (source != null) {
+                    return source;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for " + url, e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Liefert die Datei, sofern sie im Zwischenspeicher liegt, ohne sie zu laden.
+     */
+    public synchronized Source getIfPresent(String url, String username, String password) {
+        final Source source = entries.get(new Key(url, username, password));
+        if (source != null) {
+            hits++;
+        }
+        return source;
+    }
+
+    /**
+     * Legt eine Datei ab, die nicht heruntergeladen, sondern z.B. von einem Generator erzeugt wurde.
+     */
+    public void put(String url, String username, String password, Source source) {
+        final Key key = new Key(url, username, password);
+        final List<Source> spill;
+        synchronized (this) {
+            final Source previous = entries.remove(key);
+            if (previous != null && previous.isInMemory() && !previous.isSpilling()) {
+                memoryUsed -= previous.getSize();
+            }
+            spill = put(key, source);
+        }
+        spill(spill);
+    }
+
+    private Source load(Key key, SourceLoader loader, CompletableFuture<Source> future) throws IOException {
+        final Source source;
+        try {
+            source = loader.load(this);
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                loading.remove(key);
+            }
+            future.completeExceptionally(e);
+            throw e;
+        }
+
+        final List<Source> spill;
+        synchronized (this) {
+            loading.remove(key);
+            spill = source == null ? List.of() : put(key, source);
+        }
+        future.complete(source);
+
+        spill(spill);
+        return source;
+    }
+
+    /**
+     * Lagert Dateien aus, die beim Verdrängen aus dem Speicher ausgewählt wurden. Ihr Platz ist dabei schon
+     * freigegeben worden. Schlägt das Auslagern fehl, werden sie daher ganz aus dem Zwischenspeicher entfernt.
+     */
+    private void spill(List<Source> sources) {
+        for (Source s : sources) {
+            if (!s.spill(spillDirectory)) {
+                synchronized (this) {
+                    entries.values().remove(s);
+                }
+            }
+        }
+    }
+
+    /**
+     * Nimmt eine Datei auf und verdrängt, falls nötig, ältere Dateien aus dem Speicher.
+     *
+     * @return die Dateien, die ausgelagert werden müssen
+     */
+    private List<Source> put(Key key, Source source) {
+        final List<Source> spill = new ArrayList<>();
+        if (source.isInMemory() && source.getSize() > maxMemory) {
+            // Zu groß für den Speicher und kein Verzeichnis zum Auslagern
+            log.debug("{} ist zu groß für den Zwischenspeicher ({} Bytes).", key.getUrl(), source.getSize());
+            return spill;
+        }
+        entries.put(key, source);
+        if (source.isInMemory()) {
+            memoryUsed += source.getSize();
+        }
+
+        final Iterator<Map.Entry<Key, Source>> it = entries.entrySet().iterator();
+        while (memoryUsed > maxMemory && it.hasNext()) {
+            final Map.Entry<Key, Source> eldest = it.next();
+            final Source s = eldest.getValue();
+            if (!s.isInMemory() || s.isSpilling()) {
+                continue;
+            }
+            memoryUsed -= s.getSize();
+            if (spillDirectory == null) {
+                log.debug("{} wird aus dem Zwischenspeicher verdrängt.", eldest.getKey().getUrl());
+                it.remove();
+            } else {
+                s.setSpilling(true);
+                spill.add(s);
+            }
+        }
+        return spill;
+    }
+
+    /**
+     * Liest den Inhalt einer Datei. Passt er nicht in das Budget und ist ein Verzeichnis zum Auslagern angegeben,
+     * wird er direkt dort abgelegt.
+     */
+    public Source read(InputStream in, String etag, String lastModified) throws IOException {
+        if (spillDirectory == null) {
+            return new Source(IOUtils.toByteArray(in), null, etag, lastModified);
+        }
+        final int threshold = (int) Math.min(Integer.MAX_VALUE - 8, maxMemory);
+        try (DeferredFileOutputStream out = new DeferredFileOutputStream(threshold, "source", ".tmp", spillDirectory)) {
+            IOUtils.copy(in, out);
+            out.close();
+            if (out.isInMemory()) {
+                return new Source(out.getData(), null, etag, lastModified);
+            }
+            return new Source(null, out.getFile(), etag, lastModified);
+        }
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    synchronized long getMemoryUsed() {
+        return memoryUsed;
+    }
+
+    /**
+     * Leert den Zwischenspeicher und löscht alle ausgelagerten Dateien.
+     */
+    @Override
+    public void close() {
+        final List<Source> sources;
+        synchronized (this) {
+            sources = new ArrayList<>(entries.values());
+            entries.clear();
+            memoryUsed = 0;
+        }
+        for (Source source : sources) {
+            source.delete();
+        }
+    }
+
+    /**
+     * Lädt eine Datei, z.B. mit einer HTTP-Anfrage, und liest sie mit {@link SourceCache#read(InputStream, String,
+     * String)}.
+     */
+    @FunctionalInterface
+    public interface SourceLoader {
+        /**
+         * @return die Datei oder <code>null</code>, wenn nichts gespeichert werden soll
+         */
+        Source load(SourceCache cache) throws IOException;
+    }
+
+    /**
+     * Eine heruntergeladene Datei mit den Werten für bedingte Abrufe. Der Inhalt liegt entweder im Speicher oder in
+     * einer ausgelagerten Datei.
+     */
+    public static class Source {
+        private final String etag;
+        private final String lastModified;
+        private final long size;
+        private volatile byte[] data;
+        private volatile File file;
+        private boolean spilling;
+
+        Source(byte[] data, File file, String etag, String lastModified) {
+            this.data = data;
+            this.file = file;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.size = data != null ? data.length : file.length();
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        boolean isInMemory() {
+            return data != null;
+        }
+
+        private boolean isSpilling() {
+            return spilling;
+        }
+
+        private void setSpilling(boolean spilling) {
+            this.spilling = spilling;
+        }
+
+        public InputStream openStream() throws IOException {
+            final byte[] bytes = data;
+            if (bytes != null) {
+                return new ByteArrayInputStream(bytes);
+            }
+            return Files.newInputStream(file.toPath());
+        }
+
+        /**
+         * @return <code>true</code>, wenn der Inhalt ausgelagert wurde
+         */
+        private boolean spill(File directory) {
+            File spilled = null;
+            try {
+                spilled = File.createTempFile("source", ".tmp", directory);
+                FileUtils.writeByteArrayToFile(spilled, data);
+                file = spilled;
+                data = null;
+                return true;
+            } catch (IOException e) {
+                log.warn("Quelldatei kann nicht ausgelagert werden: {}", e.getMessage());
+                FileUtils.deleteQuietly(spilled);
+                setSpilling(false);
+                return false;
+            }
+        }
+
+        private void delete() {
+            final File f = file;
+            if (f != null) {
+                FileUtils.deleteQuietly(f);
+            }
+        }
+    }
+
+    @Data
+    private static class Key {
+        private final String url;
+        private final String username;
+        @ToString.Exclude
+        private final String password;
+    }
+}
@@ -1,6 +1,7 @@
 package de.landsh.opendata.update;
 
 import de.landsh.opendata.DatasetUpdate;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.math.NumberUtils;
 import org.apache.commons.text.StringEscapeUtils;
@@ -11,12 +12,10 @@ import org.slf4j.LoggerFactory;
 
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
 import java.io.*;
-import java.net.URL;
 import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -32,13 +31,11 @@ import java.util.Map;
 public class WappenrolleGenerator implements Generator {
 
     private static final Logger log = LoggerFactory.getLogger(WappenrolleGenerator.class);
+    private static final String[] EXTENSIONS = {".json", ".rdf"};
     private final String type;
     private final Map<Integer, String> geocoding = new HashMap<>();
-    private final JSONArray wappen = new JSONArray();
-    private final JSONArray flaggen = new JSONArray();
-    private final List<String> xmlWappen = new LinkedList<>();
-    private final List<String> xmlFlaggen = new LinkedList<>();
     private final String url;
+    private GeneratorContext context = GeneratorContext.getDefault();
 
     public WappenrolleGenerator(DatasetUpdate update) {
         this.type = update.getGeneratorArgs().get("type");
@@ -55,12 +52,41 @@ public class WappenrolleGenerator implements Generator {
         return s[2] + "-" + s[1] + "-" + s[0];
     }
 
+    @Override
+    public void setContext(GeneratorContext context) {
+        this.context = context;
+    }
+
     @Override
     public boolean generateDistributions(File directory) throws Exception {
+        final String name = "wappen".equals(type) ? "wappen" : "flaggen";
+
+        // Beide Datensätze werden in einem Durchgang erzeugt. Der zweite Datensatz übernimmt seine Dateien aus dem
+        // Kontext, statt die XML-Datei erneut zu lesen.
+        final File converted = context.derive(WappenrolleGenerator.class.getName() + " " + url, this::convert);
+        for (String extension : EXTENSIONS) {
+            FileUtils.copyFile(new File(converted, name + extension), new File(directory, name + extension));
+        }
+
+        return true;
+    }
+
+    /**
+     * Liest die XML-Datei und schreibt dabei die Dateien beider Datensätze in das angegebene Verzeichnis.
+     */
+    private void convert(File directory) throws IOException {
         readId2Geocoding();
 
-        final InputStream in = new URL(url).openStream();
+        try (InputStream in = context.openCachedStream(url);
+             Output wappen = new Output(directory, "wappen");
+             Output flaggen = new Output(directory, "flaggen")) {
+            parse(in, wappen, flaggen);
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
 
+    private void parse(InputStream in, Output wappen, Output flaggen) throws XMLStreamException, IOException {
         final XMLInputFactory factory = XMLInputFactory.newInstance();
         final XMLStreamReader parser = factory.createXMLStreamReader(in);
 
@@ -77,7 +103,7 @@ public class WappenrolleGenerator implements Generator {
                     // Es beginnt ein neues Wappen.
 
                     if (entry != null) {
-                        processEntry(entry);
+                        processEntry(entry, wappen, flaggen);
                     }
 
                     entry = new HashMap<>();
@@ -100,35 +126,9 @@ public class WappenrolleGenerator implements Generator {
         }
 
         if (entry != null) {
-            processEntry(entry);
-        }
-
-        if ("wappen".equals(type)) {
-            writeToFile(wappen, new File(directory, "wappen.json"));
-            writeToFile(xmlWappen, new File(directory, "wappen.rdf"));
-        } else {
-            writeToFile(flaggen, new File(directory, "flaggen.json"));
-            writeToFile(xmlFlaggen, new File(directory, "flaggen.rdf"));
-        }
-
-        return true;
-    }
-
-    private void writeToFile(JSONArray jsonArray, File file) throws IOException {
-        final FileWriter writer = new FileWriter(file);
-        jsonArray.write(writer);
-        writer.close();
-    }
-
-    private void writeToFile(List<String> xmlList, File file) throws IOException {
-        final PrintWriter writer = new PrintWriter(new FileWriter(file));
-        writer.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
-        writer.println("<rdf:RDF xmlns:wr=\"https://efi2.schleswig-holstein.de/wr/\" xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\" xmlns:foaf=\"http://xmlns.com/foaf/0.1/\">");
-        for (String xml : xmlList) {
-            writer.println(xml);
+            processEntry(entry, wappen, flaggen);
         }
-        writer.println("</rdf:RDF>");
-        writer.close();
+        parser.close();
     }
 
     /**
@@ -146,7 +146,7 @@ public class WappenrolleGenerator implements Generator {
         in.close();
     }
 
-    private void processEntry(Map<String, String> entry) {
+    private void processEntry(Map<String, String> entry, Output wappen, Output flaggen) throws IOException {
         if (StringUtils.isNotEmpty(entry.get("Flaggenbeschreibung"))) {
             final JSONObject json = commonJson(entry);
             final StringBuilder xml = new StringBuilder();
@@ -172,13 +172,11 @@ public class WappenrolleGenerator implements Generator {
                 xml.append("<foaf:img rdf:resource=\"https://efi2.schleswig-holstein.de/wr/images/").append(entry.get("txtBILD-F")).append("\" />");
             }
 
-            flaggen.put(json);
-
             appendCommonXml(xml, entry);
 
             xml.append("</wr:Flag>");
 
-            xmlFlaggen.add(xml.toString());
+            flaggen.write(json, xml.toString());
         }
 
         if (StringUtils.isNotEmpty(entry.get("Wappenbeschreibung"))) {
@@ -207,11 +205,9 @@ public class WappenrolleGenerator implements Generator {
                     .append(StringEscapeUtils.escapeXml11(entry.get("Wappenbeschreibung")))
                     .append("</wr:description>");
 
-            wappen.put(json);
-
             appendCommonXml(xml, entry);
             xml.append("</wr:CoatOfArms>");
-            xmlWappen.add(xml.toString());
+            wappen.write(json, xml.toString());
 
         }
     }
@@ -297,4 +293,31 @@ public class WappenrolleGenerator implements Generator {
         }
         return json;
     }
+
+    /**
+     * Die JSON- und die RDF-Datei eines Datensatzes, in die die Einträge nacheinander geschrieben werden.
+     */
+    private static class Output implements Closeable {
+        private final JsonArrayWriter json;
+        private final PrintWriter rdf;
+
+        Output(File directory, String name) throws IOException {
+            json = new JsonArrayWriter(new FileWriter(new File(directory, name + ".json")));
+            rdf = new PrintWriter(new FileWriter(new File(directory, name + ".rdf")));
+            rdf.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+            rdf.println("<rdf:RDF xmlns:wr=\"https://efi2.schleswig-holstein.de/wr/\" xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\" xmlns:foaf=\"http://xmlns.com/foaf/0.1/\">");
+        }
+
+        void write(JSONObject entry, String xml) throws IOException {
+            json.write(entry);
+            rdf.println(xml);
+        }
+
+        @Override
+        public void close() throws IOException {
+            rdf.println("</rdf:RDF>");
+            rdf.close();
+            json.close();
+        }
+    }
 }
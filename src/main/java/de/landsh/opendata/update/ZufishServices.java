@@ -1,9 +1,8 @@
 package de.landsh.opendata.update;
 
 import de.landsh.opendata.DatasetUpdate;
-import org.json.JSONArray;
+import org.apache.commons.text.StringEscapeUtils;
 import org.json.JSONObject;
-import org.json.JSONTokener;
 
 import java.io.*;
 import java.net.MalformedURLException;
@@ -12,55 +11,70 @@ import java.net.URL;
 public class ZufishServices implements Generator {
 
     private final URL url;
+    private GeneratorContext context = GeneratorContext.getDefault();
 
     public ZufishServices(String datasetName, DatasetUpdate update) throws MalformedURLException {
         this.url = new URL(update.getOriginalURL());
     }
 
     @Override
-    public boolean generateDistributions(File directory) throws Exception {
-        final InputStream is = url.openStream();
-        final JSONArray json = new JSONArray(new JSONTokener(is));
-
-        final PrintStream outCSV = new PrintStream(new FileOutputStream(new File(directory, "online-services.csv")));
-        outCSV.println("id,url,name,deliveryChannel,hasPaymentMethod,trustLevel");
-
-        JSONArray output = new JSONArray();
-
-        for (int i = 0; i < json.length(); i++) {
-            final JSONObject os = json.getJSONObject(i).getJSONObject("object");
-            final String id = os.get("id").toString();
-            final String link = os.getString("link");
-            final String name = os.getString("name");
+    public void setContext(GeneratorContext context) {
+        this.context = context;
+    }
 
-            String deliveryChannel = "";
-            if (os.has("deliveryChannel")
-                    && os.getJSONObject("deliveryChannel").has("communicationSystem")
-                    && os.getJSONObject("deliveryChannel").getJSONObject("communicationSystem").has("type")) {
-                deliveryChannel = os.getJSONObject("deliveryChannel").getJSONObject("communicationSystem").getJSONObject("type").getString("key");
+    /**
+     * Liest die Online-Dienste einzeln aus dem Datenstrom und schreibt sie sofort in die CSV- und die JSON-Datei, so
+     * dass nie der ganze Katalog im Speicher liegt.
+     */
+    @Override
+    public boolean generateDistributions(File directory) throws Exception {
+        try (JsonArrayReader reader = new JsonArrayReader(context.openStream(url.toString()));
+             PrintStream outCSV = new PrintStream(new FileOutputStream(new File(directory, "online-services.csv")));
+             JsonArrayWriter outJSON = new JsonArrayWriter(new FileWriter(new File(directory, "online-services.json")))) {
+            outCSV.println("id,url,name,deliveryChannel,hasPaymentMethod,trustLevel");
+
+            for (JSONObject service = reader.next(); service != null; service = reader.next()) {
+                final JSONObject os = service.getJSONObject("object");
+                final String id = os.get("id").toString();
+                final String link = os.getString("link");
+                final String name = os.getString("name");
+
+                String deliveryChannel = "";
+                if (os.has("deliveryChannel")
+                        && os.getJSONObject("deliveryChannel").has("communicationSystem")
+                        && os.getJSONObject("deliveryChannel").getJSONObject("communicationSystem").has("type")) {
+                    deliveryChannel = os.getJSONObject("deliveryChannel").getJSONObject("communicationSystem").getJSONObject("type").getString("key");
+                }
+
+                boolean hasPaymentMethod = !os.getJSONArray("paymentMethods").isEmpty();
+                final String trustLevel = os.getString("trustLevel");
+
+                final JSONObject entry = new JSONObject();
+                entry.put("id", id);
+                entry.put("link", link);
+                entry.put("name", name);
+                entry.put("deliveryChannel", deliveryChannel);
+                entry.put("hasPaymentMethod", hasPaymentMethod);
+                entry.put("trustLevel", trustLevel);
+                outJSON.write(entry);
+
+                outCSV.println(toCsvLine(id, link, name, deliveryChannel, hasPaymentMethod, trustLevel));
             }
-
-            boolean hasPaymentMethod = !os.getJSONArray("paymentMethods").isEmpty();
-            final String trustLevel = os.getString("trustLevel");
-
-            final JSONObject entry = new JSONObject();
-            entry.put("id", id);
-            entry.put("link", link);
-            entry.put("name", name);
-            entry.put("deliveryChannel", deliveryChannel);
-            entry.put("hasPaymentMethod", hasPaymentMethod);
-            entry.put("trustLevel", trustLevel);
-            output.put(entry);
-
-            outCSV.println(id + "," + link + ",\"" + name + "\"," + deliveryChannel + "," + hasPaymentMethod + "," + trustLevel);
-
         }
-
-        final FileWriter jsonWriter = new FileWriter(new File(directory, "online-services.json"));
-        output.write(jsonWriter);
-        jsonWriter.close();
-
-        outCSV.close();
         return true;
     }
+
+    /**
+     * Der Name steht immer in Anführungszeichen, alle anderen Werte nur, wenn sie Kommas, Anführungszeichen oder
+     * Zeilenumbrüche enthalten.
+     */
+    static String toCsvLine(String id, String link, String name, String deliveryChannel, boolean hasPaymentMethod,
+                            String trustLevel) {
+        return StringEscapeUtils.escapeCsv(id) + ","
+                + StringEscapeUtils.escapeCsv(link) + ","
+                + "\"" + name.replace("\"", "\"\"") + "\","
+                + StringEscapeUtils.escapeCsv(deliveryChannel) + ","
+                + hasPaymentMethod + ","
+                + StringEscapeUtils.escapeCsv(trustLevel);
+    }
 }
@@ -0,0 +1,121 @@
+package de.landsh.opendata;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CsvDeltaTest {
+
+    private File tempDirectory;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        tempDirectory = Files.createTempDirectory("delta").toFile();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(tempDirectory);
+    }
+
+    private CsvDelta compute(String previous, String current) throws IOException {
+        final File a = new File(tempDirectory, "previous.csv");
+        final File b = new File(tempDirectory, "current.csv");
+        FileUtils.writeStringToFile(a, previous, StandardCharsets.UTF_8);
+        FileUtils.writeStringToFile(b, current, StandardCharsets.UTF_8);
+        return CsvDelta.compute(a, b);
+    }
+
+    @Test
+    void append() throws Exception {
+        final String previous = "Datum,Wert\n2022-01-12,1\n";
+        final CsvDelta delta = compute(previous, previous + "2022-01-13,2\n2022-01-14,3\n");
+        assertTrue(delta.isAppend());
+        assertEquals(1, delta.getPreviousLines());
+        assertEquals(3, delta.getCurrentLines());
+        assertEquals(2, delta.getAppendedLines());
+        assertEquals(previous.length(), delta.getOffset());
+        assertEquals(26, delta.getLength());
+        assertEquals(-1, delta.getFirstChangedLine());
+    }
+
+    @Test
+    void appendWithoutTrailingNewline() throws Exception {
+        final CsvDelta delta = compute("Datum,Wert\n2022-01-12,1", "Datum,Wert\n2022-01-12,1\n2022-01-13,2");
+        assertTrue(delta.isAppend());
+        assertEquals(1, delta.getPreviousLines());
+        assertEquals(2, delta.getCurrentLines());
+        assertEquals(24, delta.getOffset());
+        assertEquals(12, delta.getLength());
+
+        // Die letzte Zeile wurde verlängert, nicht ergänzt.
+        final CsvDelta changed = compute("Datum,Wert\n2022-01-12,1", "Datum,Wert\n2022-01-12,10\n");
+        assertFalse(changed.isAppend());
+        assertEquals(1, changed.getFirstChangedLine());
+        assertEquals(11, changed.getOffset());
+    }
+
+    @Test
+    void modified() throws Exception {
+        final CsvDelta delta = compute("Datum,Wert\n2022-01-12,1\n2022-01-13,2\n",
+                "Datum,Wert\n2022-01-12,1\n2022-01-13,5\n2022-01-14,3\n");
+        assertFalse(delta.isAppend());
+        assertEquals(2, delta.getFirstChangedLine());
+        assertEquals(24, delta.getOffset());
+        assertEquals(2, delta.getPreviousLines());
+        assertEquals(3, delta.getCurrentLines());
+
+        final CsvDelta header = compute("Datum,Wert\n", "Datum,Anzahl\n");
+        assertFalse(header.isAppend());
+        assertEquals(0, header.getFirstChangedLine());
+    }
+
+    /**
+     * Mit der Prüfsumme der alten Fassung wird nur die neue gelesen. Passt die Prüfsumme nicht, werden beide Dateien
+     * verglichen.
+     */
+    @Test
+    void knownChecksum() throws Exception {
+        final File a = new File(tempDirectory, "previous.csv");
+        final File b = new File(tempDirectory, "current.csv");
+        FileUtils.writeStringToFile(a, "Datum,Wert\n2022-01-12,1\n", StandardCharsets.UTF_8);
+        FileUtils.writeStringToFile(b, "Datum,Wert\n2022-01-12,1\n2022-01-13,2\n", StandardCharsets.UTF_8);
+
+        final CsvDelta delta = CsvDelta.compute(a, FileManifest.sha256(a), b);
+        assertTrue(delta.isAppend());
+        assertEquals(1, delta.getAppendedLines());
+        assertEquals(24, delta.getOffset());
+
+        final CsvDelta wrongChecksum = CsvDelta.compute(a, "0000", b);
+        assertEquals(delta, wrongChecksum);
+    }
+
+    /**
+     * Gezählt werden Zeilenumbrüche: Ein Zeilenumbruch in einem Feld in Anführungszeichen zählt als eigene Zeile.
+     */
+    @Test
+    void quotedNewline() throws Exception {
+        final String previous = "Datum,Text\n";
+        final CsvDelta delta = compute(previous, previous + "2022-01-13,\"A\nB\"\n");
+        assertTrue(delta.isAppend());
+        assertEquals(2, delta.getAppendedLines());
+    }
+
+    @Test
+    void equal() throws Exception {
+        final CsvDelta delta = compute("Datum,Wert\n2022-01-12,1\n", "Datum,Wert\n2022-01-12,1\n");
+        assertTrue(delta.isAppend());
+        assertEquals(0, delta.getAppendedLines());
+        assertEquals(0, delta.getLength());
+    }
+}
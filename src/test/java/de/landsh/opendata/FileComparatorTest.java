@@ -0,0 +1,104 @@
+package de.landsh.opendata;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FileComparatorTest {
+
+    /**
+     * 20 MB, also deutlich größer als der Puffer und kein Vielfaches davon.
+     */
+    private static final int SIZE = 20 * 1024 * 1024 + 17;
+
+    private File dir;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("compare").toFile();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    /**
+     * Erzeugt eine große Datei mit zufälligem, aber reproduzierbarem Inhalt.
+     */
+    private File createLargeFile(String name) throws IOException {
+        final byte[] data = new byte[SIZE];
+        new Random(42).nextBytes(data);
+        final File file = new File(dir, name);
+        Files.write(file.toPath(), data);
+        return file;
+    }
+
+    private void changeByte(File file, long position) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(position);
+            final int value = raf.read();
+            raf.seek(position);
+            raf.write(value ^ 0xff);
+        }
+    }
+
+    @Test
+    public void equalFiles() throws IOException {
+        final File a = createLargeFile("a.csv");
+        final File b = createLargeFile("b.csv");
+
+        assertEquals(FileComparator.EQUAL, FileComparator.findFirstDifference(a, b));
+    }
+
+    @Test
+    public void differenceAtLastByte() throws IOException {
+        final File a = createLargeFile("a.csv");
+        final File b = createLargeFile("b.csv");
+        changeByte(b, SIZE - 1);
+
+        assertEquals(SIZE - 1, FileComparator.findFirstDifference(a, b));
+    }
+
+    @Test
+    public void differenceAtBlockBoundary() throws IOException {
+        final File a = createLargeFile("a.csv");
+        final File b = createLargeFile("b.csv");
+        changeByte(b, 64 * 1024);
+        changeByte(b, 5_000_000);
+
+        assertEquals(64 * 1024, FileComparator.findFirstDifference(a, b));
+    }
+
+    @Test
+    public void differentLength() throws IOException {
+        final File a = createLargeFile("a.csv");
+        final File b = createLargeFile("b.csv");
+        try (RandomAccessFile raf = new RandomAccessFile(b, "rw")) {
+            raf.setLength(SIZE - 1000);
+        }
+
+        assertEquals(SIZE - 1000, FileComparator.findFirstDifference(a, b));
+        assertEquals(SIZE - 1000, FileComparator.findFirstDifference(b, a));
+    }
+
+    @Test
+    public void emptyFiles() throws IOException {
+        final File a = new File(dir, "a.csv");
+        final File b = new File(dir, "b.csv");
+        assertTrue(a.createNewFile());
+        assertTrue(b.createNewFile());
+
+        assertEquals(FileComparator.EQUAL, FileComparator.findFirstDifference(a, b));
+    }
+}
@@ -0,0 +1,101 @@
+package de.landsh.opendata;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FileManifestTest {
+
+    private File dir;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("manifest").toFile();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    private File writeFile(String name, String content) throws IOException {
+        final File file = new File(dir, name);
+        Files.writeString(file.toPath(), content);
+        return file;
+    }
+
+    @Test
+    public void getSha256() throws IOException {
+        final File file = writeFile("data.csv", "a,b,c");
+        final FileManifest manifest = new FileManifest(dir);
+
+        assertNull(manifest.getCachedSha256(file));
+        assertEquals(DigestUtils.sha256Hex("a,b,c".getBytes(StandardCharsets.UTF_8)), manifest.getSha256(file));
+        assertEquals(DigestUtils.sha256Hex("a,b,c".getBytes(StandardCharsets.UTF_8)), manifest.getCachedSha256(file));
+    }
+
+    @Test
+    public void writeAndRead() throws IOException {
+        final File file = writeFile("data.csv", "a,b,c");
+        final FileManifest manifest = new FileManifest(dir);
+        final String sha256 = manifest.getSha256(file);
+        manifest.write();
+
+        assertTrue(new File(dir, OpenDataUpdatesCkan.METADATA_FILE_MANIFEST).exists());
+        assertEquals(sha256, FileManifest.read(dir).getCachedSha256(file));
+    }
+
+    @Test
+    public void md5() throws IOException {
+        final File file = writeFile("data.csv", "a,b,c");
+        final FileManifest manifest = new FileManifest(dir);
+        manifest.put(file, "sha256", "md5");
+        manifest.write();
+
+        final FileManifest result = FileManifest.read(dir);
+        assertEquals("sha256", result.getCachedSha256(file));
+        assertEquals("md5", result.getCachedMd5(file));
+    }
+
+    /**
+     * Ändert sich die Datei, darf die gespeicherte Prüfsumme nicht mehr verwendet werden.
+     */
+    @Test
+    public void changedFile() throws IOException {
+        final File file = writeFile("data.csv", "a,b,c");
+        final FileManifest manifest = new FileManifest(dir);
+        manifest.getSha256(file);
+        manifest.write();
+
+        writeFile("data.csv", "a,b,c,d");
+
+        assertNull(FileManifest.read(dir).getCachedSha256(file));
+    }
+
+    @Test
+    public void removedFile() throws IOException {
+        final File file = writeFile("data.csv", "a,b,c");
+        final FileManifest manifest = new FileManifest(dir);
+        manifest.getSha256(file);
+        assertTrue(file.delete());
+        manifest.write();
+
+        final File recreated = writeFile("data.csv", "a,b,c");
+        assertTrue(recreated.setLastModified(file.lastModified()));
+        assertNull(FileManifest.read(dir).getCachedSha256(recreated));
+    }
+
+    @Test
+    public void missingManifest() {
+        assertNull(FileManifest.read(dir).getCachedSha256(new File(dir, "data.csv")));
+    }
+}
@@ -4,6 +4,7 @@ import de.landsh.opendata.ckan.ApiKey;
 import de.landsh.opendata.ckan.CkanAPI;
 import de.landsh.opendata.ckan.Resource;
 import de.landsh.opendata.update.*;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.json.JSONObject;
 import org.json.JSONTokener;
@@ -18,20 +19,25 @@ import org.mockserver.client.MockServerClient;
 import org.mockserver.integration.ClientAndServer;
 import org.mockserver.model.Header;
 import org.mockserver.model.HttpStatusCode;
+import org.mockserver.verify.VerificationTimes;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.lang.reflect.Method;
 import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
-import java.util.HashMap;
-import java.util.UUID;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import static de.landsh.opendata.OpenDataUpdatesCkan.getExtrasValue;
@@ -268,7 +274,7 @@ public class OpenDataUpdatesCkanTest {
 
         final ArgumentCaptor<File> argumentFile = ArgumentCaptor.forClass(File.class);
         Mockito.when(ckanAPI.uploadFile(eq(newId), argumentFile.capture(), eq("standorte-sh_wlan.json"),
-                eq("JSON"), eq("application/json"))).thenReturn(true);
+                eq("JSON"), eq("application/json"), eq(DigestUtils.md5Hex(DATA_NEW)))).thenReturn(true);
 
         Mockito.when(ckanAPI.putDatasetInCollection(newId, "standorte-sh_wlan")).thenReturn(true);
 
@@ -392,6 +398,136 @@ public class OpenDataUpdatesCkanTest {
 
     }
 
+    /**
+     * Beim zweiten Lauf wird die Quelldatei bedingt abgerufen; der Server antwortet mit 304.
+     */
+    @Test
+    void work_conditionalRequest() throws Exception {
+        final byte[] DATA = "Hello, world!".getBytes();
+        final DatasetUpdate update = new DatasetUpdate();
+        update.datasetId = "my-dataset-conditional";
+        update.originalURL = "http://localhost:" + mockServer.getPort() + "/conditional.csv";
+        update.generator = "just-download";
+
+        final MockServerClient mockServerClient = new MockServerClient("127.0.0.1", mockServer.getPort());
+        mockServerClient
+                .when(request().withMethod("GET").withPath("/conditional.csv")
+                        .withHeader("If-None-Match", "\"v1\""), exactly(1))
+                .respond(response().withStatusCode(HttpStatusCode.NOT_MODIFIED_304.code()));
+        mockServerClient
+                .when(request().withMethod("GET").withPath("/conditional.csv"), exactly(1))
+                .respond(response()
+                        .withStatusCode(HttpStatusCode.OK_200.code())
+                        .withHeaders(new Header("ETag", "\"v1\""))
+                        .withBody(DATA));
+
+        final File dataDir = new File(localDataDir, "my-dataset-conditional");
+        assertTrue(dataDir.mkdir());
+        Files.write(new File(dataDir, "my-dataset-conditional.csv").toPath(), DATA);
+
+        assertTrue(openDataUpdatesCkan.work(update));
+        final HttpValidators validators = HttpValidators.read(new File(dataDir, OpenDataUpdatesCkan.METADATA_FILE_HTTP_VALIDATORS));
+        assertEquals("\"v1\"", validators.getETag(update.originalURL));
+
+        assertTrue(openDataUpdatesCkan.work(update));
+
+        mockServerClient.verify(request().withPath("/conditional.csv").withHeader("If-None-Match", "\"v1\""),
+                VerificationTimes.exactly(1));
+        Mockito.verifyNoInteractions(ckanAPI);
+    }
+
+    /**
+     * Auch wenn der Server mit 304 antwortet, wird der Datensatz erst nach Ablauf von <code>frequency</code> erneut
+     * abgerufen.
+     */
+    @Test
+    void work_conditionalRequest_frequency() throws Exception {
+        final DatasetUpdate update = new DatasetUpdate();
+        update.datasetId = "my-dataset-conditional3";
+        update.originalURL = "http://localhost:" + mockServer.getPort() + "/conditional3.csv";
+        update.generator = "just-download";
+        update.frequency = DatasetUpdate.Frequency.WEEKLY;
+
+        final File dataDir = new File(localDataDir, "my-dataset-conditional3");
+        assertTrue(dataDir.mkdir());
+        final File localCopy = new File(dataDir, "my-dataset-conditional3.csv");
+        Files.writeString(localCopy.toPath(), "Hello, world!");
+        final File validatorsFile = new File(dataDir, OpenDataUpdatesCkan.METADATA_FILE_HTTP_VALIDATORS);
+        final HttpValidators validators = new HttpValidators();
+        validators.put(update.originalURL, "\"v1\"", null);
+        validators.write(validatorsFile);
+        final long eightDaysAgo = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(8);
+        assertTrue(localCopy.setLastModified(eightDaysAgo));
+        assertTrue(validatorsFile.setLastModified(eightDaysAgo));
+
+        final MockServerClient mockServerClient = new MockServerClient("127.0.0.1", mockServer.getPort());
+        mockServerClient
+                .when(request().withMethod("GET").withPath("/conditional3.csv")
+                        .withHeader("If-None-Match", "\"v1\""))
+                .respond(response().withStatusCode(HttpStatusCode.NOT_MODIFIED_304.code()));
+
+        assertEquals(UpdateStatus.UNCHANGED, openDataUpdatesCkan.process(update));
+        assertEquals(UpdateStatus.SKIPPED, openDataUpdatesCkan.process(update));
+
+        mockServerClient.verify(request().withPath("/conditional3.csv"), VerificationTimes.exactly(1));
+        assertEquals(eightDaysAgo, localCopy.lastModified());
+        Mockito.verifyNoInteractions(ckanAPI);
+    }
+
+    /**
+     * Ohne lokale Kopie wird trotz gespeicherter Werte unbedingt heruntergeladen.
+     */
+    @Test
+    void work_conditionalRequest_missingLocalCopy() throws Exception {
+        final DatasetUpdate update = new DatasetUpdate();
+        update.datasetId = "my-dataset-conditional2";
+        update.originalURL = "http://localhost:" + mockServer.getPort() + "/conditional2.csv";
+        update.generator = "just-download";
+        update.type = DatasetUpdate.Type.OVERWRITE;
+
+        final File dataDir = new File(localDataDir, "my-dataset-conditional2");
+        assertTrue(dataDir.mkdir());
+        final HttpValidators validators = new HttpValidators();
+        validators.put(update.originalURL, "\"v1\"", null);
+        validators.write(new File(dataDir, OpenDataUpdatesCkan.METADATA_FILE_HTTP_VALIDATORS));
+
+        final MockServerClient mockServerClient = new MockServerClient("127.0.0.1", mockServer.getPort());
+        mockServerClient
+                .when(request().withMethod("GET").withPath("/conditional2.csv"), exactly(1))
+                .respond(response().withStatusCode(HttpStatusCode.OK_200.code()).withBody("new"));
+
+        openDataUpdatesCkan.work(update);
+
+        mockServerClient.verify(request().withPath("/conditional2.csv").withHeader("If-None-Match", "\"v1\""),
+                VerificationTimes.exactly(0));
+        assertArrayEquals("new".getBytes(), Files.readAllBytes(new File(dataDir, "my-dataset-conditional2.csv").toPath()));
+    }
+
+    /**
+     * Nach dem Aktualisieren der lokalen Kopie stehen die Prüfsummen der Dateien im Manifest.
+     */
+    @Test
+    void work_writesManifest() throws Exception {
+        final String id = "testungen-in-der-schule-mit-einem-positiven-testergebnis";
+        final DatasetUpdate update = new DatasetUpdate();
+        update.datasetId = id;
+        update.generator = WriteNewFileGenerator.class.getCanonicalName();
+        update.type = DatasetUpdate.Type.APPEND;
+        update.isPrivate = true;
+
+        createFakeLocalCopy(id, "csv", "old data");
+
+        final JSONTokener jsonTokener = new JSONTokener(getClass().getResourceAsStream("/package_show__testungen-in-der-schule-mit-einem-positiven-testergebnis.json"));
+        Mockito.when(ckanAPI.readDataset(id)).thenReturn(new JSONObject(jsonTokener));
+        Mockito.when(ckanAPI.getResources(any())).thenCallRealMethod();
+
+        assertTrue(openDataUpdatesCkan.work(update));
+
+        final File localCopy = new File(new File(localDataDir, id), id + ".csv");
+        final FileManifest manifest = FileManifest.read(localCopy.getParentFile());
+        assertEquals(DigestUtils.sha256Hex(Files.readAllBytes(localCopy.toPath())), manifest.getCachedSha256(localCopy));
+    }
+
     /**
      * Der Datensatz soll nur maximal jeden Monat aktualisiert werden.
      */
@@ -436,5 +572,142 @@ public class OpenDataUpdatesCkanTest {
         assertEquals(1, DummyGenerator.invokationCounter);
     }
 
+    /**
+     * Mehrere Datensätze werden parallel bearbeitet. Eine Exception bei einem Datensatz darf die anderen nicht
+     * beeinflussen.
+     */
+    @Test
+    void workAll() throws Exception {
+        assertTrue(new File(localDataDir, "noop").mkdir());
+
+        final DatasetUpdate unchanged = new DatasetUpdate();
+        unchanged.setCollectionId("noop");
+        unchanged.setGenerator(NoopGenerator.class.getName());
+
+        final DatasetUpdate missingDirectory = new DatasetUpdate();
+        missingDirectory.setDatasetId("missing");
+        missingDirectory.setType(DatasetUpdate.Type.APPEND);
+        missingDirectory.setGenerator(DummyGenerator.class.getName());
+
+        final DatasetUpdate failing = new DatasetUpdate();
+        failing.setDatasetId("failing");
+        failing.setType(DatasetUpdate.Type.APPEND);
+        failing.setPrivate(true);
+        failing.setGenerator(WriteNewFileGenerator.class.getName());
+        createFakeLocalCopy("failing", "csv", "old data");
+        Mockito.when(ckanAPI.readDataset("failing")).thenThrow(new IOException("CKAN nicht erreichbar"));
+
+        final DatasetUpdate inactive = new DatasetUpdate();
+        inactive.setDatasetId("inactive");
+        inactive.setActive(false);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        final Map<String, UpdateStatus> result = openDataUpdatesCkan.workAll(
+                Arrays.asList(unchanged, missingDirectory, failing, inactive), executor);
+        executor.shutdown();
+
+        assertEquals(Arrays.asList("noop", "missing", "failing", "inactive"), new ArrayList<>(result.keySet()));
+        assertEquals(UpdateStatus.UNCHANGED, result.get("noop"));
+        assertEquals(UpdateStatus.FAILED, result.get("missing"));
+        assertEquals(UpdateStatus.FAILED, result.get("failing"));
+        assertEquals(UpdateStatus.SKIPPED, result.get("inactive"));
+    }
+
+    /**
+     * Ab Java 21 läuft jeder Datensatz in einem virtuellen Thread, vorher wird ein Thread-Pool mit
+     * <code>parallelism</code> Threads verwendet.
+     */
+    @Test
+    void createExecutor_virtualThreads() throws Exception {
+        final UpdateSettings settings = new UpdateSettings();
+        settings.setVirtualThreads(true);
+        settings.setParallelism(3);
+
+        final ExecutorService executor = OpenDataUpdatesCkan.createExecutor(settings);
+        try {
+            final Method isVirtual = findIsVirtual();
+            if (isVirtual == null) {
+                assertTrue(executor instanceof ThreadPoolExecutor);
+                assertEquals(3, ((ThreadPoolExecutor) executor).getMaximumPoolSize());
+            } else {
+                final Thread thread = executor.submit(Thread::currentThread).get();
+                assertEquals(Boolean.TRUE, isVirtual.invoke(thread));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static Method findIsVirtual() {
+        try {
+            return Thread.class.getMethod("isVirtual");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    @Test
+    void moveFile() throws Exception {
+        final File source = new File(Files.createTempDirectory("tmp").toFile(), "data.csv");
+        Files.writeString(source.toPath(), "new data");
+        assertTrue(source.setLastModified(1_600_000_000_000L));
+        final File target = createFakeLocalCopy("move", "csv", "old data");
+
+        OpenDataUpdatesCkan.moveFile(source, target);
+
+        assertFalse(source.exists());
+        assertEquals("new data", Files.readString(target.toPath()));
+        assertEquals(1_600_000_000_000L, target.lastModified());
+        assertArrayEquals(new String[]{target.getName()}, target.getParentFile().list());
+    }
+
+    /**
+     * Liegen temporäres Verzeichnis und lokale Kopie in verschiedenen Dateisystemen, wird die Datei neben das Ziel
+     * kopiert und dort umbenannt.
+     */
+    @Test
+    void copyAndMove() throws Exception {
+        final File source = new File(Files.createTempDirectory("tmp").toFile(), "data.csv");
+        Files.writeString(source.toPath(), "new data");
+        assertTrue(source.setLastModified(1_600_000_000_000L));
+        final File target = createFakeLocalCopy("copy", "csv", "old data");
+
+        OpenDataUpdatesCkan.copyAndMove(source, target);
+
+        assertFalse(source.exists());
+        assertEquals("new data", Files.readString(target.toPath()));
+        assertEquals(1_600_000_000_000L, target.lastModified());
+        assertArrayEquals(new String[]{target.getName()}, target.getParentFile().list());
+    }
+
+    /**
+     * Unveränderte Dateien werden in der lokalen Kopie nicht neu geschrieben.
+     */
+    @Test
+    void work_keepsUnchangedFile() throws Exception {
+        final String id = "unchanged-copy";
+        final DatasetUpdate update = new DatasetUpdate();
+        update.datasetId = id;
+        update.originalURL = "http://localhost:" + mockServer.getPort() + "/unchanged.csv";
+        update.generator = "just-download";
+        update.format = "csv";
+
+        new MockServerClient("127.0.0.1", mockServer.getPort())
+                .when(request().withMethod("GET").withPath("/unchanged.csv"), exactly(1))
+                .respond(response().withStatusCode(HttpStatusCode.OK_200.code()).withBody("same data"));
+
+        final File localCopy = createFakeLocalCopy(id, "csv", "same data");
+        assertTrue(localCopy.setLastModified(1_600_000_000_000L));
+        final Object fileKey = Files.readAttributes(localCopy.toPath(), BasicFileAttributes.class).fileKey();
+
+        assertEquals(UpdateStatus.UNCHANGED, openDataUpdatesCkan.process(update));
 
+        Mockito.verify(ckanAPI, times(0)).updatePackage(any());
+        assertEquals("same data", Files.readString(localCopy.toPath()));
+        assertEquals(1_600_000_000_000L, localCopy.lastModified());
+        if (fileKey != null) {
+            assertEquals(fileKey, Files.readAttributes(localCopy.toPath(), BasicFileAttributes.class).fileKey());
+        }
+        assertNotNull(FileManifest.read(localCopy.getParentFile()).getCachedSha256(localCopy));
+    }
 }
@@ -0,0 +1,122 @@
+package de.landsh.opendata;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SnapshotStoreTest {
+
+    private File tempDirectory;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        tempDirectory = Files.createTempDirectory("snapshots").toFile();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(tempDirectory);
+    }
+
+    private File write(File directory, String name, String content) throws IOException {
+        final File file = new File(directory, name);
+        FileUtils.writeStringToFile(file, content, StandardCharsets.UTF_8);
+        return file;
+    }
+
+    private String record(SnapshotStore store, File directory) throws IOException {
+        return store.record(directory, FileManifest.read(directory));
+    }
+
+    @Test
+    void deduplicate() throws Exception {
+        final File a = new File(tempDirectory, "a");
+        final File b = new File(tempDirectory, "b");
+        write(a, "data.csv", "1,2,3");
+        write(b, "daten.csv", "1,2,3");
+        write(a, "_META_MANIFEST", "wird ignoriert");
+
+        final SnapshotStore store = new SnapshotStore(tempDirectory, 3);
+        assertNotNull(record(store, a));
+        assertNotNull(record(store, b));
+
+        final String sha256 = FileManifest.sha256(new File(a, "data.csv"));
+        assertTrue(store.blobFile(sha256).exists());
+        final File[] blobs = store.blobFile(sha256).getParentFile().listFiles();
+        assertNotNull(blobs);
+        assertEquals(1, blobs.length);
+
+        final List<String> snapshots = store.list(a);
+        assertEquals(1, snapshots.size());
+        assertEquals(Map.of("data.csv", sha256), store.read(a, snapshots.get(0)));
+
+        // keine Änderung, kein neuer Stand
+        assertNull(record(store, a));
+        assertEquals(1, store.list(a).size());
+    }
+
+    @Test
+    void retentionAndRestore() throws Exception {
+        final File a = new File(tempDirectory, "a");
+        final SnapshotStore store = new SnapshotStore(tempDirectory, 2);
+
+        write(a, "data.csv", "Version 1");
+        final String first = record(store, a);
+        final String firstSha256 = FileManifest.sha256(new File(a, "data.csv"));
+        write(a, "data.csv", "Version 2");
+        final String second = record(store, a);
+        write(a, "data.csv", "Version 3");
+        write(a, "neu.csv", "neu");
+        final String third = record(store, a);
+
+        assertEquals(List.of(second, third), store.list(a));
+        assertFalse(first.equals(second));
+        // Inhalte werden erst am Ende des Laufs gelöscht.
+        assertTrue(store.blobFile(firstSha256).exists());
+        store.collectGarbage();
+        assertFalse(store.blobFile(firstSha256).exists());
+        assertTrue(store.blobFile(FileManifest.sha256(new File(a, "data.csv"))).exists());
+
+        final File restored = new File(tempDirectory, "restored");
+        store.restore(a, second, restored);
+        assertEquals("Version 2", FileUtils.readFileToString(new File(restored, "data.csv"), StandardCharsets.UTF_8));
+        assertFalse(new File(restored, "neu.csv").exists());
+    }
+
+    /**
+     * Wurde ein Lauf nach dem Löschen von Ständen, aber vor dem Aufräumen abgebrochen, räumt der nächste Lauf auf.
+     */
+    @Test
+    void collectGarbageAfterAbortedRun() throws Exception {
+        final File a = new File(tempDirectory, "a");
+        write(a, "data.csv", "Version 1");
+        final String firstSha256 = FileManifest.sha256(new File(a, "data.csv"));
+
+        final SnapshotStore abortedRun = new SnapshotStore(tempDirectory, 1);
+        record(abortedRun, a);
+        write(a, "data.csv", "Version 2");
+        record(abortedRun, a);
+        assertTrue(abortedRun.blobFile(firstSha256).exists());
+
+        final SnapshotStore nextRun = new SnapshotStore(tempDirectory, 1);
+        nextRun.collectGarbage();
+        assertFalse(nextRun.blobFile(firstSha256).exists());
+        assertTrue(nextRun.blobFile(FileManifest.sha256(new File(a, "data.csv"))).exists());
+        assertFalse(new File(new File(tempDirectory, SnapshotStore.BLOB_DIRECTORY), SnapshotStore.PRUNED_MARKER)
+                .exists());
+    }
+}
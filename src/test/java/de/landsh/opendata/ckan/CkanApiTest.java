@@ -229,4 +229,75 @@ public class CkanApiTest {
         assertEquals(772, resource.getByteSize());
     }
 
+    @Test
+    public void readDataset_cached() throws Exception {
+        final JSONObject json = jsonFromResource("/package_show__kindertagesstatten1.json");
+        Mockito.when(restClient.executeHttpRequest(Mockito.any())).thenReturn(json);
+
+        final JSONObject first = ckanAPI.readDataset("kindertagesstatten1");
+        first.put("title", "geändert");
+        final JSONObject second = ckanAPI.readDataset("kindertagesstatten1");
+
+        Mockito.verify(restClient, Mockito.times(1)).executeHttpRequest(Mockito.any());
+        assertNotEquals("geändert", second.getString("title"));
+        assertEquals(1, ckanAPI.getCacheHits());
+        assertEquals(1, ckanAPI.getCacheMisses());
+        assertEquals("f2d024c8-dbcc-4786-837e-d4eca1a23a57", ckanAPI.getOrganization("kindertagesstatten1"));
+        assertEquals(2, ckanAPI.getCacheHits());
+    }
+
+    @Test
+    public void readDataset_invalidatedByUpdate() throws Exception {
+        final JSONObject json = jsonFromResource("/package_show__kindertagesstatten1.json");
+        final JSONObject success = new JSONObject().put("success", true);
+        Mockito.when(restClient.executeHttpRequest(Mockito.any())).thenReturn(json, success, json);
+
+        // Der Datensatz wird über seinen Namen gelesen und über seine Id aktualisiert.
+        final JSONObject dataset = ckanAPI.readDataset("kindertagesstatten1");
+        dataset.remove("name");
+        assertTrue(ckanAPI.updatePackage(dataset));
+        ckanAPI.readDataset("kindertagesstatten1");
+
+        Mockito.verify(restClient, Mockito.times(3)).executeHttpRequest(Mockito.any());
+        assertEquals(0, ckanAPI.getCacheHits());
+        assertEquals(2, ckanAPI.getCacheMisses());
+    }
+
+    @Test
+    public void readDataset_invalidatedByDeleteResource() throws Exception {
+        final JSONObject json = jsonFromResource("/package_show__kindertagesstatten1.json");
+        final JSONObject success = new JSONObject().put("success", true);
+        Mockito.when(restClient.executeHttpRequest(Mockito.any())).thenReturn(json, success, json);
+
+        final JSONObject dataset = ckanAPI.readDataset("kindertagesstatten1");
+        assertTrue(ckanAPI.deleteResource(dataset.getJSONArray("resources").getJSONObject(0).getString("id")));
+        ckanAPI.readDataset("kindertagesstatten1");
+
+        assertEquals(0, ckanAPI.getCacheHits());
+        assertEquals(2, ckanAPI.getCacheMisses());
+    }
+
+    /**
+     * Liest ein anderer Thread den Datensatz, während er geändert wird, darf der alte Stand nicht im Cache landen.
+     */
+    @Test
+    public void readDataset_concurrentWithUpdate() throws Exception {
+        final JSONObject json = jsonFromResource("/package_show__kindertagesstatten1.json");
+        final JSONObject success = new JSONObject().put("success", true);
+        Mockito.when(restClient.executeHttpRequest(Mockito.any())).thenAnswer(invocation -> {
+            final HttpUriRequest request = invocation.getArgument(0);
+            if (request.getURI().getPath().endsWith("package_update")) {
+                ckanAPI.readDataset("kindertagesstatten1");
+                return success;
+            }
+            return json;
+        });
+
+        final JSONObject dataset = ckanAPI.readDataset("kindertagesstatten1");
+        assertTrue(ckanAPI.updatePackage(dataset));
+        ckanAPI.readDataset("kindertagesstatten1");
+
+        assertEquals(0, ckanAPI.getCacheHits());
+        assertEquals(3, ckanAPI.getCacheMisses());
+    }
 }
@@ -0,0 +1,49 @@
+package de.landsh.opendata.ckan;
+
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MeasuringRestClientTest {
+
+    private final RestClient delegate = Mockito.mock(RestClient.class);
+    private final RestClientMetrics metrics = new RestClientMetrics();
+    private final MeasuringRestClient restClient = new MeasuringRestClient(delegate, metrics);
+
+    @Test
+    void executeHttpRequest() throws Exception {
+        final JSONObject success = new JSONObject().put("success", true);
+        final JSONObject failure = new JSONObject().put("success", false);
+        Mockito.when(delegate.executeHttpRequest(ArgumentMatchers.any(HttpGet.class))).thenReturn(success);
+        Mockito.when(delegate.executeHttpRequest(ArgumentMatchers.any(HttpPost.class))).thenReturn(failure);
+
+        assertSame(success, restClient.executeHttpRequest(new HttpGet("http://localhost/api/3/action/package_show?id=a")));
+        assertSame(success, restClient.executeHttpRequest(new HttpGet("http://localhost/api/3/action/package_show?id=b")));
+        assertSame(failure, restClient.executeHttpRequest(new HttpPost("http://localhost/api/3/action/package_update")));
+
+        final Map<String, RestClientMetrics.Statistics> statistics = metrics.getStatistics();
+        assertEquals(2, statistics.size());
+        assertEquals(2, statistics.get("package_show").getCount());
+        assertEquals(0, statistics.get("package_show").getErrors());
+        assertEquals(1, statistics.get("package_update").getCount());
+        assertEquals(1, statistics.get("package_update").getErrors());
+    }
+
+    @Test
+    void executeHttpRequest_exception() throws Exception {
+        Mockito.when(delegate.executeHttpRequest(ArgumentMatchers.any())).thenThrow(new IOException("timeout"));
+
+        assertThrows(IOException.class,
+                () -> restClient.executeHttpRequest(new HttpGet("http://localhost/api/3/action/package_show?id=a")));
+
+        assertEquals(1, metrics.getStatistics().get("package_show").getErrors());
+    }
+}
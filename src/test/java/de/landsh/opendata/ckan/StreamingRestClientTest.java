@@ -0,0 +1,107 @@
+package de.landsh.opendata.ckan;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.HttpClients;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.mockserver.client.MockServerClient;
+import org.mockserver.integration.ClientAndServer;
+import org.mockserver.model.Header;
+import org.mockserver.model.HttpStatusCode;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockserver.integration.ClientAndServer.startClientAndServer;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+
+class StreamingRestClientTest {
+
+    private static ClientAndServer mockServer;
+    private static String packageShow;
+
+    @BeforeAll
+    public static void startServer() throws IOException {
+        mockServer = startClientAndServer(1080);
+        packageShow = IOUtils.toString(Objects.requireNonNull(StreamingRestClientTest.class.getResourceAsStream("/package_show__kindertagesstatten1.json")), StandardCharsets.UTF_8);
+
+        final MockServerClient mockServerClient = new MockServerClient("127.0.0.1", mockServer.getPort());
+        mockServerClient
+                .when(request().withMethod("GET").withPath("/api/3/action/package_show"))
+                .respond(response()
+                        .withStatusCode(HttpStatusCode.OK_200.code())
+                        .withHeaders(new Header("Content-Type", "application/json;charset=utf-8"))
+                        .withBody(packageShow, StandardCharsets.UTF_8));
+        mockServerClient
+                .when(request().withMethod("GET").withPath("/api/3/action/broken"))
+                .respond(response()
+                        .withStatusCode(HttpStatusCode.BAD_GATEWAY_502.code())
+                        .withBody("<html>Bad Gateway</html>"));
+    }
+
+    @AfterAll
+    public static void stopServer() {
+        mockServer.stop(true);
+        while (!mockServer.hasStopped(3, 100L, TimeUnit.MILLISECONDS)) {
+        }
+    }
+
+    private String url(String action) {
+        return "http://localhost:" + mockServer.getPort() + "/api/3/action/" + action;
+    }
+
+    @Test
+    void executeHttpRequest() throws Exception {
+        final StreamingRestClient restClient = new StreamingRestClient(HttpClients.createDefault(), Collections.emptySet());
+
+        final JSONObject result = restClient.executeHttpRequest(new HttpGet(url("package_show?id=kindertagesstatten1")));
+
+        assertTrue(new JSONObject(packageShow).similar(result));
+    }
+
+    @Test
+    void executeHttpRequest_skippedFields() throws Exception {
+        final StreamingRestClient restClient = new StreamingRestClient(HttpClients.createDefault(), CkanAPI.SKIPPED_FIELDS);
+
+        final JSONObject result = restClient.executeHttpRequest(new HttpGet(url("package_show?id=kindertagesstatten1"))).getJSONObject("result");
+
+        assertFalse(result.has("archiver"));
+        assertFalse(result.has("qa"));
+        assertFalse(result.getJSONArray("resources").getJSONObject(0).has("archiver"));
+        assertFalse(result.getJSONArray("resources").getJSONObject(0).has("qa"));
+        assertEquals("kindertagesstatten1", result.getString("name"));
+        assertEquals("f2d024c8-dbcc-4786-837e-d4eca1a23a57", result.getJSONObject("organization").getString("id"));
+        assertTrue(result.getJSONArray("resources").getJSONObject(0).has("url"));
+    }
+
+    @Test
+    void executeHttpRequest_typed() throws Exception {
+        final StreamingRestClient restClient = new StreamingRestClient(HttpClients.createDefault());
+
+        final PackageShowResponse response = restClient.executeHttpRequest(new HttpGet(url("package_show?id=kindertagesstatten1")), PackageShowResponse.class);
+
+        assertTrue(response.isSuccess());
+        final JSONObject expected = new JSONObject(packageShow).getJSONObject("result");
+        assertEquals(expected.getString("id"), response.getResult().getId());
+        assertEquals("kindertagesstatten1", response.getResult().getName());
+        assertEquals(expected.getBoolean("private"), response.getResult().isPrivate());
+        assertEquals("f2d024c8-dbcc-4786-837e-d4eca1a23a57", response.getResult().getOrganization().getId());
+        assertEquals(expected.getJSONArray("resources").length(), response.getResult().getResources().size());
+        assertEquals(expected.getJSONArray("resources").getJSONObject(0).getString("url"), response.getResult().getResources().get(0).getUrl());
+    }
+
+    @Test
+    void executeHttpRequest_invalidResponse() {
+        final StreamingRestClient restClient = new StreamingRestClient(HttpClients.createDefault());
+
+        assertThrows(RuntimeException.class, () -> restClient.executeHttpRequest(new HttpGet(url("broken"))));
+    }
+}
@@ -0,0 +1,132 @@
+package de.landsh.opendata.update;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConcurrentFetcherTest {
+
+    @Test
+    void fetchAll_keepsOrderAndLimit() throws Exception {
+        final List<String> urls = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            urls.add("http://localhost/data/?schultag=" + i);
+        }
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+
+        final List<String> result = new ConcurrentFetcher(3, null).fetchAll(urls, url -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(ThreadLocalRandom.current().nextInt(5));
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+            return url.endsWith("=7") ? null : url;
+        });
+
+        assertEquals(urls.size(), result.size());
+        for (int i = 0; i < urls.size(); i++) {
+            if (i == 7) {
+                assertNull(result.get(i));
+            } else {
+                assertEquals(urls.get(i), result.get(i));
+            }
+        }
+        assertTrue(maxInFlight.get() <= 3);
+
+        assertThrows(FileNotFoundException.class, () -> new ConcurrentFetcher(3, null).fetchAll(urls, url -> {
+            throw new FileNotFoundException(url);
+        }));
+    }
+
+    @Test
+    void fetchAll_rateLimit() throws Exception {
+        final List<String> urls = List.of("http://a/1", "http://a/2", "http://a/3", "http://b/1");
+        final long start = System.nanoTime();
+        new ConcurrentFetcher(4, new HostRateLimiter(50)).fetchAll(urls, url -> url);
+        final long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        // Drei Anfragen an denselben Server brauchen mindestens zwei Abstände.
+        assertTrue(elapsedMillis >= 100, "elapsed: " + elapsedMillis);
+    }
+
+    /**
+     * Zwei Generatoren mit eigenen Fetchern teilen sich den Begrenzer des Kontexts; die Grenze je Server gilt für beide
+     * zusammen.
+     */
+    @Test
+    void fetchAll_sharedLimiter() throws Exception {
+        final HostRateLimiter limiter = new HostRateLimiter();
+        limiter.limit("http://a/", 2, 0);
+        final List<String> urls = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            urls.add("http://a/" + i);
+        }
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final ConcurrentFetcher.Fetch<String> fetch = url -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(2);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+            return url;
+        };
+
+        final Thread other = new Thread(() -> {
+            try {
+                new ConcurrentFetcher(4, limiter).fetchAll(urls, fetch);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        other.start();
+        assertEquals(urls, new ConcurrentFetcher(4, limiter).fetchAll(urls, fetch));
+        other.join();
+
+        assertTrue(maxInFlight.get() <= 2, "max in flight: " + maxInFlight.get());
+    }
+
+    /**
+     * Alle Aufrufe laufen im übergebenen Executor; es werden keine eigenen Threads gestartet.
+     */
+    @Test
+    void fetchAll_usesExecutor() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final ConcurrentFetcher fetcher = new ConcurrentFetcher(4, null, executor);
+            final Set<String> threads = ConcurrentHashMap.newKeySet();
+            final List<String> urls = List.of("http://a/1", "http://a/2", "http://a/3", "http://a/4", "http://a/5");
+            for (int i = 0; i < 2; i++) {
+                assertEquals(urls, fetcher.fetchAll(urls, url -> {
+                    threads.add(Thread.currentThread().getName());
+                    return url;
+                }));
+            }
+            assertTrue(threads.size() <= 2, "threads: " + threads);
+            assertFalse(executor.isShutdown());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
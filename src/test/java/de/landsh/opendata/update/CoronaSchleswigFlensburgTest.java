@@ -0,0 +1,150 @@
+package de.landsh.opendata.update;
+
+import de.landsh.opendata.DatasetUpdate;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockserver.client.MockServerClient;
+import org.mockserver.integration.ClientAndServer;
+import org.mockserver.model.Header;
+import org.mockserver.model.HttpStatusCode;
+import org.mockserver.verify.VerificationTimes;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockserver.integration.ClientAndServer.startClientAndServer;
+import static org.mockserver.matchers.Times.unlimited;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+
+public class CoronaSchleswigFlensburgTest {
+    private static ClientAndServer mockServer;
+    private static MockServerClient mockServerClient;
+
+    private File tempDirectory;
+
+    @BeforeAll
+    public static void startServer() throws InterruptedException {
+        mockServer = startClientAndServer(1080);
+        while (!mockServer.isRunning()) {
+            Thread.sleep(100);
+        }
+        mockServerClient = new MockServerClient("127.0.0.1", mockServer.getPort());
+
+        // Einstiegsseite -> 12.1.2022 -> 11.1.2022
+        respond("/start", "<div class=\"accordion-container\">" + table("13.1.2022", "3") + "</div>"
+                + link("/zahlen-12", "12.1.2022"));
+        respond("/zahlen-12", table("12.1.2022", "2") + link("/zahlen-11", "11.1.2022"));
+        respond("/zahlen-11", table("11.1.2022", "1"));
+    }
+
+    @AfterAll
+    public static void stopServer() {
+        mockServer.stop(true);
+        while (!mockServer.hasStopped(3, 100L, TimeUnit.MILLISECONDS)) {
+        }
+    }
+
+    private static String table(String date, String positive) {
+        return "<table><tr><td>" + date + ", 10 Uhr</td><td>Positiv Getestete</td></tr>"
+                + "<tr><td>Amt Arensharde</td><td>" + positive + "</td></tr></table>";
+    }
+
+    private static String link(String path, String date) {
+        return "<a href=\"" + path + "\">Zu den Zahlen vom " + date + "</a>";
+    }
+
+    private static void respond(String path, String content) {
+        mockServerClient
+                .when(request().withMethod("GET").withPath(path), unlimited())
+                .respond(response()
+                        .withStatusCode(HttpStatusCode.OK_200.code())
+                        .withHeaders(new Header("Content-Type", "text/html; charset=UTF-8"))
+                        .withBody("<html><body><div id=\"readthis\">" + content + "</div></body></html>"));
+    }
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        tempDirectory = Files.createTempDirectory("schleswig-flensburg").toFile();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(tempDirectory);
+    }
+
+    private void generate(File targetFile, String name) throws Exception {
+        final DatasetUpdate update = new DatasetUpdate();
+        update.setGeneratorArgs(new HashMap<>());
+        update.getGeneratorArgs().put("targetFile", targetFile.getAbsolutePath());
+        update.getGeneratorArgs().put("requestInterval", "0");
+
+        final CoronaSchleswigFlensburg generator = new CoronaSchleswigFlensburg("corona", update);
+        generator.BASE_URL = "http://localhost:" + mockServer.getPort();
+        generator.START_URL = generator.BASE_URL + "/start";
+
+        final File directory = new File(tempDirectory, name);
+        assertTrue(directory.mkdir());
+        try (GeneratorContext context = new GeneratorContext()) {
+            generator.setContext(context);
+            assertTrue(generator.generateDistributions(directory));
+        }
+    }
+
+    /**
+     * Beim zweiten Lauf wird nur die Einstiegsseite abgerufen, denn die übrigen Seiten stehen in
+     * <code>_META_CRAWLED_URLS</code>. Es werden keine Zeilen angehängt.
+     */
+    @Test
+    public void crawlTwice() throws Exception {
+        final File targetFile = new File(tempDirectory, "corona.csv");
+
+        generate(targetFile, "first");
+        final String first = FileUtils.readFileToString(targetFile, StandardCharsets.UTF_8);
+        assertEquals("Datum,Amt/Gemeinde,Aktive Quarantänen,Positiv Getestete\n"
+                + "11.1.2022,Amt Arensharde,,1\n"
+                + "12.1.2022,Amt Arensharde,,2\n"
+                + "13.1.2022,Amt Arensharde,,3\n", first);
+        assertEquals(List.of("http://localhost:" + mockServer.getPort() + "/zahlen-11",
+                        "http://localhost:" + mockServer.getPort() + "/zahlen-12"),
+                Files.readAllLines(new File(tempDirectory, CoronaSchleswigFlensburg.CRAWLED_URLS_FILE).toPath()));
+
+        generate(targetFile, "second");
+        assertEquals(first, FileUtils.readFileToString(targetFile, StandardCharsets.UTF_8));
+        assertEquals(first, FileUtils.readFileToString(new File(tempDirectory, "second/corona.csv"),
+                StandardCharsets.UTF_8));
+
+        mockServerClient.verify(request().withPath("/start"), VerificationTimes.exactly(2));
+        mockServerClient.verify(request().withPath("/zahlen-12"), VerificationTimes.exactly(1));
+        mockServerClient.verify(request().withPath("/zahlen-11"), VerificationTimes.exactly(1));
+    }
+
+    /**
+     * Tage werden nach Datum sortiert, nicht nach Text; nicht lesbare Datumsangaben kommen ans Ende.
+     */
+    @Test
+    public void compareDates() {
+        assertTrue(CoronaSchleswigFlensburg.compareDates("2.1.2022", "10.1.2022") < 0);
+        assertTrue(CoronaSchleswigFlensburg.compareDates("31.12.2021", "1.1.2022") < 0);
+        assertEquals(0, CoronaSchleswigFlensburg.compareDates("1.1.2022", " 1.1.2022"));
+        assertTrue(CoronaSchleswigFlensburg.compareDates("Stand unbekannt", "1.1.2022") > 0);
+        assertTrue(CoronaSchleswigFlensburg.compareDates("1.1.2022", "Stand unbekannt") < 0);
+        assertEquals(0, CoronaSchleswigFlensburg.compareDates("Stand unbekannt", "ohne Datum"));
+
+        final List<String> dates = new ArrayList<>(List.of("ohne Datum", "10.1.2022", "2.1.2022"));
+        dates.sort(CoronaSchleswigFlensburg::compareDates);
+        assertEquals(List.of("2.1.2022", "10.1.2022", "ohne Datum"), dates);
+    }
+}
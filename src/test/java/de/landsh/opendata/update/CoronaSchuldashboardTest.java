@@ -1,16 +1,77 @@
 package de.landsh.opendata.update;
 
+import org.apache.commons.io.FileUtils;
 import org.json.JSONObject;
 import org.json.JSONTokener;
 import org.junit.jupiter.api.Test;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
 
 public class CoronaSchuldashboardTest {
 
+    private static SortedMap<String, List<List<String>>> newDays() {
+        final SortedMap<String, List<List<String>>> newDays = new TreeMap<>();
+        newDays.put("2022-01-13", List.of(List.of("2022-01-13", "FL", "1"), List.of("2022-01-13", "SL", "2")));
+        newDays.put("2022-01-14", List.of(List.of("2022-01-14", "FL", "3")));
+        return newDays;
+    }
+
+    private static CsvTailIndex writeDailyFile(File directory, String existing) throws IOException {
+        final File target = new File(directory, "target.csv");
+        FileUtils.writeStringToFile(target, existing, StandardCharsets.UTF_8);
+        final CsvTailIndex index = CoronaSchuldashboard.writeDailyFile(target, CsvTailIndex.scan(target), newDays(),
+                new File(directory, "data.csv"));
+        assertEquals(index, CsvTailIndex.scan(new File(directory, "data.csv")));
+        return index;
+    }
+
+    /**
+     * Bei Tabellen je Schultag steht der neueste Tag oben, wie in den bisher veröffentlichten Dateien.
+     */
+    @Test
+    public void writeDailyFile_newestFirst() throws IOException {
+        final File directory = Files.createTempDirectory("schuldashboard").toFile();
+        try {
+            final CsvTailIndex index = writeDailyFile(directory,
+                    "Datum,Kreis,Anzahl\n2022-01-12,FL,5\n2022-01-11,FL,4\n");
+            assertEquals("Datum,Kreis,Anzahl\n2022-01-14,FL,3\n2022-01-13,FL,1\n2022-01-13,SL,2\n"
+                            + "2022-01-12,FL,5\n2022-01-11,FL,4\n",
+                    FileUtils.readFileToString(new File(directory, "data.csv"), StandardCharsets.UTF_8));
+            assertEquals("2022-01-14", index.getLastDate());
+            assertEquals(5, index.getRowCount());
+        } finally {
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+    /**
+     * Eine bereits aufsteigend sortierte Datei bleibt aufsteigend sortiert.
+     */
+    @Test
+    public void writeDailyFile_ascending() throws IOException {
+        final File directory = Files.createTempDirectory("schuldashboard").toFile();
+        try {
+            final CsvTailIndex index = writeDailyFile(directory,
+                    "Datum,Kreis,Anzahl\n2022-01-11,FL,4\n2022-01-12,FL,5");
+            assertEquals("Datum,Kreis,Anzahl\n2022-01-11,FL,4\n2022-01-12,FL,5\n"
+                            + "2022-01-13,FL,1\n2022-01-13,SL,2\n2022-01-14,FL,3\n",
+                    FileUtils.readFileToString(new File(directory, "data.csv"), StandardCharsets.UTF_8));
+            assertEquals("2022-01-14", index.getLastDate());
+            assertEquals(5, index.getRowCount());
+        } finally {
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
     @Test
     public void convertFaelleNachKreis() {
         List<List<String>> result = CoronaSchuldashboard.convertFaelleNachKreis("2022-01-12", readJSON("fälle-nach-kreis.json"));
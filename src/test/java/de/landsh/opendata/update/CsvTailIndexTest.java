@@ -0,0 +1,72 @@
+package de.landsh.opendata.update;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CsvTailIndexTest {
+
+    private File tempDirectory;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        tempDirectory = Files.createTempDirectory("index").toFile();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(tempDirectory);
+    }
+
+    @Test
+    void scan() throws Exception {
+        final File file = new File(tempDirectory, "data.csv");
+        FileUtils.writeStringToFile(file, "Datum,Kreis,Wert\r\n"
+                + "2022-01-12,FL,1\r\n"
+                + "2022-01-13,FL,2\r\n"
+                + "2022-01-11,FL,3", StandardCharsets.UTF_8);
+
+        final CsvTailIndex index = CsvTailIndex.scan(file);
+        assertEquals("2022-01-13", index.getLastDate());
+        assertEquals(3, index.getRowCount());
+        assertEquals(file.length(), index.getLength());
+        assertEquals(35, index.getOffset());
+
+        final File header = new File(tempDirectory, "header.csv");
+        FileUtils.writeStringToFile(header, "Datum,Kreis,Wert\n", StandardCharsets.UTF_8);
+        final CsvTailIndex empty = CsvTailIndex.scan(header);
+        assertNull(empty.getLastDate());
+        assertEquals(0, empty.getRowCount());
+    }
+
+    @Test
+    void readAndWrite() throws Exception {
+        final File file = new File(tempDirectory, "data.csv");
+        FileUtils.writeStringToFile(file, "Datum,Wert\n2022-01-12,1\n", StandardCharsets.UTF_8);
+
+        assertNull(CsvTailIndex.read(file));
+        CsvTailIndex.scan(file).write(file);
+        assertTrue(CsvTailIndex.indexFileFor(file).exists());
+        assertEquals(CsvTailIndex.scan(file), CsvTailIndex.read(file));
+
+        // Die Datei hat sich geändert, der Index passt nicht mehr.
+        FileUtils.writeStringToFile(file, "2022-01-13,2\n", StandardCharsets.UTF_8, true);
+        assertNull(CsvTailIndex.read(file));
+
+        // Gleiche Länge, aber an der gespeicherten Position steht ein anderes Datum.
+        new CsvTailIndex("2022-01-14", 2, file.length(), 24).write(file);
+        assertNull(CsvTailIndex.read(file));
+        new CsvTailIndex("2022-01-13", 2, file.length(), 24).write(file);
+        assertEquals("2022-01-13", CsvTailIndex.read(file).getLastDate());
+    }
+}
@@ -0,0 +1,139 @@
+package de.landsh.opendata.update;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.CreationHelper;
+import org.apache.poi.ss.usermodel.FormulaError;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFCell;
+import org.apache.poi.xssf.usermodel.XSSFRow;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTCellFormula;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.STCellFormulaType;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExcelSheetReaderTest {
+
+    private File tempDirectory;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        tempDirectory = Files.createTempDirectory("excel").toFile();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(tempDirectory);
+    }
+
+    private static String readWorkbook(File file, int sheetNumber) throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        ExcelSheetReader.readWorkbook(file, sheetNumber,
+                row -> sb.append(Excel2CsvGenerator.toCsvLine(row)).append('\n'));
+        return sb.toString();
+    }
+
+    private static String readStreaming(File file, int sheetNumber) throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        assertTrue(ExcelSheetReader.readStreaming(file, sheetNumber,
+                row -> sb.append(Excel2CsvGenerator.toCsvLine(row)).append('\n')));
+        return sb.toString();
+    }
+
+    @Test
+    void readStreaming_ladesaeulenregister() throws Exception {
+        final File file = new File(tempDirectory, "Ladesaeulenregister.xlsx");
+        FileUtils.copyInputStreamToFile(getClass().getResourceAsStream("/ladesaeulenregister/Ladesaeulenregister.xlsx"), file);
+
+        final String expected = readWorkbook(file, 0);
+        final String actual = readStreaming(file, 0);
+
+        assertTrue(expected.contains("Betreiber,Straße,"));
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    void readStreaming_cellTypes() throws Exception {
+        final File file = new File(tempDirectory, "test.xlsx");
+        try (XSSFWorkbook wb = new XSSFWorkbook(); OutputStream out = Files.newOutputStream(file.toPath())) {
+            final CreationHelper helper = wb.getCreationHelper();
+            final CellStyle date = wb.createCellStyle();
+            date.setDataFormat(helper.createDataFormat().getFormat("dd.mm.yyyy"));
+            final CellStyle decimal = wb.createCellStyle();
+            decimal.setDataFormat(helper.createDataFormat().getFormat("0.00"));
+            final CellStyle percent = wb.createCellStyle();
+            percent.setDataFormat(helper.createDataFormat().getFormat("0%"));
+
+            wb.createSheet("Leer");
+            final Sheet sheet = wb.createSheet("Werte");
+            Row row = sheet.createRow(0);
+            row.createCell(0).setCellValue("Text, mit Komma");
+            row.createCell(1).setCellValue(" Zeile\nzwei ");
+            row.createCell(3).setCellValue(true);
+            row.createCell(4).setCellErrorValue(FormulaError.DIV0.getCode());
+            row.createCell(5).setCellStyle(decimal);
+
+            row = sheet.createRow(2);
+            row.createCell(0).setCellValue(2.675);
+            row.getCell(0).setCellStyle(decimal);
+            row.createCell(1).setCellValue(LocalDateTime.of(2022, 3, 1, 0, 0));
+            row.getCell(1).setCellStyle(date);
+            row.createCell(2).setCellValue(0.123);
+            row.getCell(2).setCellStyle(percent);
+            row.createCell(3).setCellValue(123456789012345.0);
+            row.createCell(4).setCellValue(0.1 + 0.2);
+            row.createCell(5).setCellFormula("A3*2");
+            row.createCell(6).setCellValue(-1.5e-12);
+
+            sheet.createRow(3);
+            wb.write(out);
+        }
+
+        final String expected = readWorkbook(file, 1);
+        assertEquals(expected, readStreaming(file, 1));
+        assertEquals("", readStreaming(file, 0));
+        assertTrue(expected.startsWith("\"Text, mit Komma\",Zeile zwei,TRUE,#DIV/0!,\n"));
+        assertTrue(expected.contains(",01.03.2022,"));
+        assertTrue(expected.contains("A3*2"));
+    }
+
+    /**
+     * Gemeinsam genutzte Formeln stehen nur in der ersten Zelle; dann wird die Arbeitsmappe vollständig geladen.
+     */
+    @Test
+    void readStreaming_sharedFormula() throws Exception {
+        final File file = new File(tempDirectory, "shared.xlsx");
+        try (XSSFWorkbook wb = new XSSFWorkbook(); OutputStream out = Files.newOutputStream(file.toPath())) {
+            final XSSFRow row = wb.createSheet().createRow(0);
+            row.createCell(0).setCellValue(1);
+            final XSSFCell cell = row.createCell(1);
+            cell.setCellFormula("A1+1");
+            final CTCellFormula formula = cell.getCTCell().getF();
+            formula.setT(STCellFormulaType.SHARED);
+            formula.setSi(0);
+            formula.setRef("B1");
+            wb.write(out);
+        }
+
+        assertFalse(ExcelSheetReader.readStreaming(file, 0, row -> {
+            throw new IllegalStateException("Es dürfen keine Zeilen geliefert werden.");
+        }));
+
+        final StringBuilder sb = new StringBuilder();
+        ExcelSheetReader.read(file, 0, row -> sb.append(Excel2CsvGenerator.toCsvLine(row)).append('\n'));
+        assertEquals(readWorkbook(file, 0), sb.toString());
+    }
+}
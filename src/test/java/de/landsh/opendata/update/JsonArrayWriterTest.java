@@ -0,0 +1,56 @@
+package de.landsh.opendata.update;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class JsonArrayWriterTest {
+
+    private static JSONArray createArray(int length) {
+        final JSONArray array = new JSONArray();
+        for (int i = 0; i < length; i++) {
+            array.put(new JSONObject().put("Objektnummer", i).put("Gemeinde", "Kiel")
+                    .put("Begründung", new JSONArray().put("geschichtlich").put("künstlerisch")));
+        }
+        return array;
+    }
+
+    private static String write(JSONArray array, int indentFactor, int indent) throws Exception {
+        final StringWriter result = new StringWriter();
+        try (JsonArrayWriter writer = new JsonArrayWriter(result, indentFactor, indent)) {
+            for (int i = 0; i < array.length(); i++) {
+                writer.write(array.getJSONObject(i));
+            }
+        }
+        return result.toString();
+    }
+
+    @Test
+    void write_sameAsJSONArray() throws Exception {
+        for (int length = 0; length <= 3; length++) {
+            final JSONArray array = createArray(length);
+            assertEquals(array.toString(), write(array, 0, 0));
+            assertEquals(array.write(new StringWriter(), 2, 1).toString(), write(array, 2, 1));
+        }
+    }
+
+    @Test
+    void readBack() throws Exception {
+        final JSONArray array = createArray(3);
+        final String json = "\uFEFF" + write(array, 2, 1);
+
+        try (JsonArrayReader reader = new JsonArrayReader(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)))) {
+            for (int i = 0; i < array.length(); i++) {
+                assertEquals(array.getJSONObject(i).toString(), reader.next().toString());
+            }
+            assertNull(reader.next());
+        }
+    }
+}
@@ -17,9 +17,12 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Objects;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -116,6 +119,10 @@ class LadesaeulenregisterTest {
         assertTrue(lines.get(0).startsWith("Betreiber,Straße,"));
         assertTrue(lines.get(1).startsWith("EnBW mobility+ AG"));
         assertEquals(23, lines.size());
+        // Die heruntergeladene Excel-Datei ist wieder gelöscht.
+        assertEquals(List.of("ladesaeulenregister.csv", OpenDataUpdatesCkan.METADATA_FILE_TIME_END,
+                        OpenDataUpdatesCkan.METADATA_FILE_TIME_START).stream().sorted().collect(Collectors.toList()),
+                Arrays.stream(Objects.requireNonNull(dir.list())).sorted().collect(Collectors.toList()));
 
         // Es werden zwei Dateien mit dem Datum geschrieben.
         final File timeStartFile = new File(dir, OpenDataUpdatesCkan.METADATA_FILE_TIME_START);
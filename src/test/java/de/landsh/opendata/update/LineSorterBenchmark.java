@@ -0,0 +1,86 @@
+package de.landsh.opendata.update;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Vergleicht die Verfahren von {@link LineSorter} auf Dateien mit einer und zehn Millionen Zeilen. Kein Unit-Test;
+ * gestartet wird der Benchmark über {@link #main(String[])}, z.B. aus der IDE. Für zehn Millionen Zeilen braucht die
+ * JVM mindestens 4 GB Heap.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+public class LineSorterBenchmark {
+
+    @Param({"1000000", "10000000"})
+    private int lines;
+
+    @Param({"SEQUENTIAL", "PARALLEL", "OFFSETS", "EXTERNAL"})
+    private LineSorter.Mode mode;
+
+    private File tempDirectory;
+    private File input;
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(LineSorterBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    @Setup(Level.Trial)
+    public void createInput() throws IOException {
+        tempDirectory = Files.createTempDirectory("sort").toFile();
+        input = new File(tempDirectory, "input.csv");
+
+        final Random random = new Random(4711);
+        final String[] words = {"Kiel", "Lübeck", "Flensburg", "Neumünster", "Norderstedt", "Elmshorn", "Pinneberg", "Wedel", "Ahrensburg", "Itzehoe"};
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(input.toPath(), StandardCharsets.UTF_8))) {
+            for (int i = 0; i < lines; i++) {
+                out.println(words[random.nextInt(words.length)] + ',' + random.nextInt(100_000) + ','
+                        + words[random.nextInt(words.length)] + ',' + random.nextDouble());
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteInput() throws IOException {
+        FileUtils.deleteDirectory(tempDirectory);
+    }
+
+    @Benchmark
+    public void sort() throws IOException {
+        // Beim externen Sortieren entstehen so je nach Anzahl der Zeilen etwa 4 bis 40 Teildateien.
+        final long memoryBudget = mode == LineSorter.Mode.EXTERNAL ? 32L * 1024 * 1024 : LineSorter.UNLIMITED;
+        try (BufferedReader in = Files.newBufferedReader(input.toPath(), StandardCharsets.UTF_8);
+             PrintWriter out = new PrintWriter(NullWriter.NULL_WRITER)) {
+            new LineSorter(memoryBudget, tempDirectory).sort(in, out, mode, input.length());
+        }
+    }
+}
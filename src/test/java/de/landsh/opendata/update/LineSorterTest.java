@@ -0,0 +1,130 @@
+package de.landsh.opendata.update;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.Objects;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LineSorterTest {
+
+    private File tempDirectory;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        tempDirectory = Files.createTempDirectory("sort").toFile();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(tempDirectory);
+    }
+
+    private static String createLines(int count) {
+        final Random random = new Random(4711);
+        final String[] words = {"Kiel", "Lübeck", "Flensburg", "Neumünster", "Norderstedt", "Elmshorn", "Pinneberg", "Wedel", "Ahrensburg", "Itzehoe", "Øster", "日本"};
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(words[random.nextInt(words.length)]).append(',').append(random.nextInt(1000)).append(',')
+                    .append(words[random.nextInt(words.length)]).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private String sort(LineSorter sorter, String input) throws Exception {
+        final StringWriter result = new StringWriter();
+        try (BufferedReader in = new BufferedReader(new StringReader(input));
+             PrintWriter out = new PrintWriter(result)) {
+            sorter.sort(in, out);
+        }
+        return result.toString();
+    }
+
+    @Test
+    void sort_externalEqualsInMemory() throws Exception {
+        final String input = createLines(20_000);
+
+        final LineSorter inMemory = new LineSorter(LineSorter.UNLIMITED, tempDirectory);
+        final LineSorter external = new LineSorter(64 * 1024, tempDirectory);
+
+        final String expected = sort(inMemory, input);
+        final String actual = sort(external, input);
+
+        assertEquals(0, inMemory.getRunCount());
+        assertTrue(external.getRunCount() > 10);
+        assertEquals(expected, actual);
+        // Die temporären Dateien sind wieder entfernt.
+        assertEquals(0, Objects.requireNonNull(tempDirectory.listFiles()).length);
+    }
+
+    @Test
+    void sort_emptyInput() throws Exception {
+        assertEquals("", sort(new LineSorter(1, tempDirectory), ""));
+        for (LineSorter.Mode mode : LineSorter.Mode.values()) {
+            final StringWriter result = new StringWriter();
+            new LineSorter(1, tempDirectory).sort(new BufferedReader(new StringReader("")), new PrintWriter(result),
+                    mode, 0);
+            assertEquals("", result.toString());
+        }
+    }
+
+    @Test
+    void sort_allModesEqual() throws Exception {
+        // Mehr Zeilen, als eine Teilaufgabe beim parallelen Sortieren allein bearbeitet
+        final String input = createLines(50_000) + "\n\uD83D\uDE00\n\uFFFD\n";
+        final String expected = sort(new LineSorter(LineSorter.UNLIMITED, tempDirectory), input);
+
+        for (LineSorter.Mode mode : LineSorter.Mode.values()) {
+            final StringWriter result = new StringWriter();
+            final LineSorter sorter = new LineSorter(64 * 1024, tempDirectory);
+            try (BufferedReader in = new BufferedReader(new StringReader(input));
+                 PrintWriter out = new PrintWriter(result)) {
+                sorter.sort(in, out, mode, 0);
+            }
+            assertEquals(expected, result.toString(), mode.name());
+            // Nur EXTERNAL beachtet das Speicherbudget und lagert aus.
+            assertEquals(mode == LineSorter.Mode.EXTERNAL, sorter.getRunCount() > 0, mode.name());
+        }
+        assertEquals(0, Objects.requireNonNull(tempDirectory.listFiles()).length);
+    }
+
+    @Test
+    void chooseMode() {
+        final long mb = 1024L * 1024;
+        assertEquals(LineSorter.Mode.PARALLEL, LineSorter.chooseMode(10 * mb, 1024 * mb, 8));
+        assertEquals(LineSorter.Mode.SEQUENTIAL, LineSorter.chooseMode(10 * mb, 1024 * mb, 1));
+        assertEquals(LineSorter.Mode.OFFSETS, LineSorter.chooseMode(300 * mb, 1024 * mb, 8));
+        assertEquals(LineSorter.Mode.EXTERNAL, LineSorter.chooseMode(500 * mb, 1024 * mb, 8));
+        // Ohne Speicherbudget begrenzt der Heap
+        assertEquals(LineSorter.Mode.EXTERNAL, LineSorter.chooseMode(Long.MAX_VALUE / 2, LineSorter.UNLIMITED));
+    }
+
+    @Test
+    void parseSize() {
+        assertEquals(LineSorter.UNLIMITED, LineSorter.parseSize(null));
+        assertEquals(1000, LineSorter.parseSize("1000"));
+        assertEquals(512L * 1024 * 1024, LineSorter.parseSize("512m"));
+        assertEquals(2L * 1024 * 1024 * 1024, LineSorter.parseSize("2G"));
+        assertThrows(IllegalArgumentException.class, () -> LineSorter.parseSize("viel"));
+    }
+
+    @Test
+    void parseMode() {
+        assertNull(LineSorter.parseMode(" "));
+        assertEquals(LineSorter.Mode.PARALLEL, LineSorter.parseMode(" parallel"));
+        final IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> LineSorter.parseMode("paralel"));
+        assertTrue(e.getMessage().contains("SEQUENTIAL"));
+    }
+}
@@ -0,0 +1,64 @@
+package de.landsh.opendata.update;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PhotoIndexTest {
+
+    private File tempDirectory;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        tempDirectory = Files.createTempDirectory("photos").toFile();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(tempDirectory);
+    }
+
+    @Test
+    void parseObjectNumber() {
+        assertEquals(13298, PhotoIndex.parseObjectNumber("13298.jpg"));
+        assertEquals(0, PhotoIndex.parseObjectNumber("0.jpg"));
+        assertEquals(-1, PhotoIndex.parseObjectNumber("013298.jpg"));
+        assertEquals(-1, PhotoIndex.parseObjectNumber("13298.JPG"));
+        assertEquals(-1, PhotoIndex.parseObjectNumber("13298a.jpg"));
+        assertEquals(-1, PhotoIndex.parseObjectNumber(".jpg"));
+        assertEquals(-1, PhotoIndex.parseObjectNumber("1234567890.jpg"));
+    }
+
+    @Test
+    void of() throws Exception {
+        for (String name : new String[]{"1.jpg", "42.jpg", "13298.jpg", "013.jpg", "7.png", "liesmich.txt"}) {
+            assertTrue(new File(tempDirectory, name).createNewFile());
+        }
+        assertTrue(tempDirectory.setLastModified(1_600_000_000_000L));
+
+        final PhotoIndex index = PhotoIndex.of(tempDirectory);
+        assertEquals(3, index.size());
+        assertTrue(index.contains(1));
+        assertTrue(index.contains(42));
+        assertTrue(index.contains(13298));
+        assertFalse(index.contains(13));
+        assertFalse(index.contains(7));
+
+        // Unverändertes Verzeichnis: das Ergebnis wird wiederverwendet.
+        assertSame(index, PhotoIndex.of(tempDirectory));
+
+        assertTrue(new File(tempDirectory, "7.jpg").createNewFile());
+        assertTrue(tempDirectory.setLastModified(1_600_000_001_000L));
+        assertTrue(PhotoIndex.of(tempDirectory).contains(7));
+    }
+}
@@ -0,0 +1,53 @@
+package de.landsh.opendata.update;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RowPipelineTest {
+
+    @Test
+    void row() throws Exception {
+        final List<List<String>> preamble = new ArrayList<>();
+        final List<List<String>> result = new ArrayList<>();
+
+        final RowPipeline pipeline = new RowPipeline()
+                .header(row -> row.get(0).equals("Ort"), preamble::add)
+                .filter(row -> row.get(1).equals("SH"))
+                .map(row -> row.stream().map(String::toUpperCase).collect(Collectors.toList()))
+                .to(result::add);
+
+        pipeline.row(List.of("Stand: 01.03.2022"));
+        assertFalse(pipeline.isHeaderFound());
+        pipeline.row(List.of("Ort", "Land"));
+        pipeline.row(List.of("Kiel", "SH"));
+        pipeline.row(List.of("Hamburg", "HH"));
+        pipeline.row(List.of("Lübeck", "SH"));
+
+        assertTrue(pipeline.isHeaderFound());
+        assertEquals(List.of(List.of("Stand: 01.03.2022")), preamble);
+        assertEquals(List.of(List.of("ORT", "LAND"), List.of("KIEL", "SH"), List.of("LÜBECK", "SH")), result);
+    }
+
+    @Test
+    void row_withoutHeader() throws Exception {
+        final List<List<String>> result = new ArrayList<>();
+
+        final RowPipeline pipeline = new RowPipeline()
+                .filter(row -> !row.isEmpty())
+                .map(row -> row.size() > 1 ? row.subList(0, 1) : null)
+                .to(result::add);
+
+        pipeline.row(List.of());
+        pipeline.row(List.of("a"));
+        pipeline.row(List.of("b", "c"));
+
+        assertEquals(List.of(List.of("b")), result);
+    }
+}
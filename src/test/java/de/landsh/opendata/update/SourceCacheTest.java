@@ -0,0 +1,184 @@
+package de.landsh.opendata.update;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SourceCacheTest {
+
+    private File tempDirectory;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        tempDirectory = Files.createTempDirectory("sourcecache").toFile();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(tempDirectory);
+    }
+
+    private static SourceCache.SourceLoader loader(byte[] data, AtomicInteger counter) {
+        return cache -> {
+            counter.incrementAndGet();
+            return cache.read(new ByteArrayInputStream(data), "\"etag\"", null);
+        };
+    }
+
+    private static byte[] read(SourceCache.Source source) throws IOException {
+        try (InputStream in = source.openStream()) {
+            return IOUtils.toByteArray(in);
+        }
+    }
+
+    @Test
+    void get_leastRecentlyUsedIsEvicted() throws Exception {
+        final SourceCache cache = new SourceCache(250, null);
+        final AtomicInteger downloads = new AtomicInteger();
+        final byte[] data = new byte[100];
+
+        cache.get("http://a", null, null, loader(data, downloads));
+        cache.get("http://b", null, null, loader(data, downloads));
+        cache.get("http://a", null, null, loader(data, downloads));
+        cache.get("http://c", null, null, loader(data, downloads));
+        assertEquals(3, downloads.get());
+        assertEquals(200, cache.getMemoryUsed());
+
+        // b wurde am längsten nicht verwendet und ist verdrängt worden, a ist noch da.
+        cache.get("http://a", null, null, loader(data, downloads));
+        assertEquals(3, downloads.get());
+        cache.get("http://b", null, null, loader(data, downloads));
+        assertEquals(4, downloads.get());
+
+        // Andere Zugangsdaten ergeben einen anderen Eintrag.
+        cache.get("http://b", "user", "secret", loader(data, downloads));
+        assertEquals(5, downloads.get());
+
+        // Ist der Loader ohne Ergebnis, wird nichts gespeichert.
+        assertNull(cache.get("http://d", null, null, c -> null));
+        cache.get("http://d", null, null, loader(data, downloads));
+        assertEquals(6, downloads.get());
+    }
+
+    @Test
+    void get_concurrentRequestsDownloadOnce() throws Exception {
+        final SourceCache cache = new SourceCache(1024, null);
+        final AtomicInteger downloads = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final byte[] data = "Denkmalliste".getBytes();
+
+        final SourceCache.SourceLoader slowLoader = c -> {
+            downloads.incrementAndGet();
+            started.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return c.read(new ByteArrayInputStream(data), null, null);
+        };
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<SourceCache.Source>> results = new ArrayList<>();
+            results.add(executor.submit(() -> cache.get("http://a", null, null, slowLoader)));
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            for (int i = 0; i < 3; i++) {
+                results.add(executor.submit(() -> cache.get("http://a", null, null, slowLoader)));
+            }
+            release.countDown();
+
+            for (Future<SourceCache.Source> result : results) {
+                assertArrayEquals(data, read(result.get(10, TimeUnit.SECONDS)));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1, downloads.get());
+    }
+
+    @Test
+    void get_spillToDisk() throws Exception {
+        final SourceCache cache = new SourceCache(150, tempDirectory);
+        final AtomicInteger downloads = new AtomicInteger();
+        final byte[] small = new byte[100];
+        final byte[] large = new byte[300];
+        large[299] = 1;
+
+        final SourceCache.Source a = cache.get("http://a", null, null, loader(small, downloads));
+        cache.get("http://b", null, null, loader(small, downloads));
+        final SourceCache.Source c = cache.get("http://c", null, null, loader(large, downloads));
+
+        // a ist ausgelagert, c ist direkt auf die Festplatte geschrieben worden.
+        assertEquals(100, cache.getMemoryUsed());
+        assertEquals(2, tempDirectory.list().length);
+        assertArrayEquals(small, read(cache.get("http://a", null, null, loader(small, downloads))));
+        assertArrayEquals(large, read(c));
+        assertEquals("\"etag\"", a.getEtag());
+        assertEquals(3, downloads.get());
+
+        cache.close();
+        assertEquals(0, tempDirectory.list().length);
+    }
+
+    /**
+     * Ein Verzeichnis zum Auslagern, das es noch nicht gibt, wird angelegt.
+     */
+    @Test
+    void get_spillDirectoryMissing() throws Exception {
+        final File spillDirectory = new File(tempDirectory, "neu/spill");
+        final SourceCache cache = new SourceCache(150, spillDirectory);
+        assertTrue(spillDirectory.isDirectory());
+
+        final AtomicInteger downloads = new AtomicInteger();
+        final byte[] large = new byte[300];
+        assertArrayEquals(large, read(cache.get("http://large", null, null, loader(large, downloads))));
+        assertEquals(0, cache.getMemoryUsed());
+        assertEquals(1, spillDirectory.list().length);
+
+        cache.close();
+        assertEquals(0, spillDirectory.list().length);
+    }
+
+    /**
+     * Schlägt das Auslagern fehl, wird die Datei aus dem Zwischenspeicher entfernt, damit das Budget eingehalten wird.
+     */
+    @Test
+    void get_spillFails() throws Exception {
+        final SourceCache cache = new SourceCache(150, tempDirectory);
+        final AtomicInteger downloads = new AtomicInteger();
+        final byte[] data = new byte[100];
+        FileUtils.deleteDirectory(tempDirectory);
+
+        cache.get("http://a", null, null, loader(data, downloads));
+        cache.get("http://b", null, null, loader(data, downloads));
+
+        assertEquals(100, cache.getMemoryUsed());
+        assertNull(cache.getIfPresent("http://a", null, null));
+        cache.get("http://a", null, null, loader(data, downloads));
+        assertEquals(3, downloads.get());
+        assertEquals(100, cache.getMemoryUsed());
+    }
+}
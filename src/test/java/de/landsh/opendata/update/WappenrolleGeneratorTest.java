@@ -19,7 +19,9 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.concurrent.TimeUnit;
 
@@ -126,4 +128,53 @@ public class WappenrolleGeneratorTest {
         // clean up
         FileUtils.deleteDirectory(dir);
     }
+
+    private static File generate(GeneratorContext context, String type) throws Exception {
+        final File dir = Files.createTempDirectory("tmp").toFile();
+        final DatasetUpdate update = new DatasetUpdate();
+        update.setGeneratorArgs(new HashMap<>());
+        update.getGeneratorArgs().put("type", type);
+        update.setOriginalURL("http://localhost:" + mockServer.getPort() + "/wr_opendata.xml");
+
+        final WappenrolleGenerator wr = new WappenrolleGenerator(update);
+        wr.setContext(context);
+        wr.generateDistributions(dir);
+        return dir;
+    }
+
+    /**
+     * Der zweite Datensatz übernimmt die Dateien, die beim ersten Datensatz mit erzeugt wurden.
+     */
+    @Test
+    public void companionFromContext() throws Exception {
+        final File wappen;
+        final File flaggen;
+        final File flaggenAlone;
+        try (GeneratorContext context = new GeneratorContext()) {
+            wappen = generate(context, "wappen");
+            flaggen = generate(context, "flaggen");
+            // Die XML-Datei wurde nur einmal gelesen; der Zwischenspeicher enthält nur die Quelldatei.
+            assertEquals(1, context.getSourceCache().getMisses());
+            assertEquals(0, context.getSourceCache().getHits());
+        }
+        try (GeneratorContext context = new GeneratorContext()) {
+            flaggenAlone = generate(context, "flaggen");
+        }
+
+        assertArrayEquals(new String[]{"wappen.json", "wappen.rdf"}, sorted(wappen.list()));
+        assertArrayEquals(new String[]{"flaggen.json", "flaggen.rdf"}, sorted(flaggen.list()));
+        for (String name : flaggen.list()) {
+            assertEquals(FileUtils.readFileToString(new File(flaggenAlone, name), StandardCharsets.UTF_8),
+                    FileUtils.readFileToString(new File(flaggen, name), StandardCharsets.UTF_8));
+        }
+
+        FileUtils.deleteDirectory(wappen);
+        FileUtils.deleteDirectory(flaggen);
+        FileUtils.deleteDirectory(flaggenAlone);
+    }
+
+    private static String[] sorted(String[] names) {
+        Arrays.sort(names);
+        return names;
+    }
 }
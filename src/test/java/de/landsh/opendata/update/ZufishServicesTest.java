@@ -0,0 +1,139 @@
+package de.landsh.opendata.update;
+
+import de.landsh.opendata.DatasetUpdate;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockserver.client.MockServerClient;
+import org.mockserver.integration.ClientAndServer;
+import org.mockserver.model.Header;
+import org.mockserver.model.HttpStatusCode;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockserver.integration.ClientAndServer.startClientAndServer;
+import static org.mockserver.matchers.Times.unlimited;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+
+class ZufishServicesTest {
+    private static ClientAndServer mockServer;
+    private static byte[] catalog;
+
+    private File tempDirectory;
+
+    @BeforeAll
+    public static void startServer() throws IOException, InterruptedException {
+        mockServer = startClientAndServer(1080);
+        while (!mockServer.isRunning()) {
+            Thread.sleep(100);
+        }
+
+        catalog = IOUtils.toByteArray(ZufishServicesTest.class.getResourceAsStream("/zufish-services.json"));
+        new MockServerClient("127.0.0.1", mockServer.getPort())
+                .when(request().withMethod("GET").withPath("/services"), unlimited())
+                .respond(response()
+                        .withStatusCode(HttpStatusCode.OK_200.code())
+                        .withHeaders(new Header("Content-Type", "application/json; charset=UTF-8"))
+                        .withBody(catalog));
+    }
+
+    @AfterAll
+    public static void stopServer() {
+        mockServer.stop(true);
+        while (!mockServer.hasStopped(3, 100L, TimeUnit.MILLISECONDS)) {
+        }
+    }
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        tempDirectory = Files.createTempDirectory("zufish").toFile();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(tempDirectory);
+    }
+
+    /**
+     * So wurde die JSON-Datei geschrieben, bevor die Online-Dienste einzeln gelesen wurden: Der ganze Katalog wird
+     * eingelesen und das Ergebnis mit {@link JSONArray#write(java.io.Writer)} geschrieben.
+     */
+    private static String previousJson(byte[] catalog) {
+        final JSONArray json = new JSONArray(new JSONTokener(new String(catalog, StandardCharsets.UTF_8)));
+        final JSONArray output = new JSONArray();
+        for (int i = 0; i < json.length(); i++) {
+            final JSONObject os = json.getJSONObject(i).getJSONObject("object");
+
+            String deliveryChannel = "";
+            if (os.has("deliveryChannel")
+                    && os.getJSONObject("deliveryChannel").has("communicationSystem")
+                    && os.getJSONObject("deliveryChannel").getJSONObject("communicationSystem").has("type")) {
+                deliveryChannel = os.getJSONObject("deliveryChannel").getJSONObject("communicationSystem")
+                        .getJSONObject("type").getString("key");
+            }
+
+            final JSONObject entry = new JSONObject();
+            entry.put("id", os.get("id").toString());
+            entry.put("link", os.getString("link"));
+            entry.put("name", os.getString("name"));
+            entry.put("deliveryChannel", deliveryChannel);
+            entry.put("hasPaymentMethod", !os.getJSONArray("paymentMethods").isEmpty());
+            entry.put("trustLevel", os.getString("trustLevel"));
+            output.put(entry);
+        }
+        final StringWriter writer = new StringWriter();
+        output.write(writer);
+        return writer.toString();
+    }
+
+    @Test
+    void generateDistributions() throws Exception {
+        final DatasetUpdate update = new DatasetUpdate();
+        update.setGeneratorArgs(new HashMap<>());
+        update.setOriginalURL("http://localhost:" + mockServer.getPort() + "/services");
+
+        final ZufishServices generator = new ZufishServices("online-services", update);
+        try (GeneratorContext context = new GeneratorContext()) {
+            generator.setContext(context);
+            assertTrue(generator.generateDistributions(tempDirectory));
+        }
+
+        assertEquals(previousJson(catalog),
+                FileUtils.readFileToString(new File(tempDirectory, "online-services.json"), StandardCharsets.UTF_8));
+
+        final List<String> csv = FileUtils.readLines(new File(tempDirectory, "online-services.csv"),
+                StandardCharsets.UTF_8);
+        assertEquals(List.of("id,url,name,deliveryChannel,hasPaymentMethod,trustLevel",
+                "6000101,https://example.org/hundesteuer,\"Hundesteuer anmelden\",EMAIL,true,LOW",
+                "6000102,\"https://example.org/?antrag=wohngeld&seite=1,2\","
+                        + "\"Antrag \"\"Wohngeld\"\", online – Ärger vermeiden\",,false,SUBSTANTIAL",
+                "6000103,https://example.org/meldebescheinigung,\"Meldebescheinigung",
+                "beantragen\",,false,HIGH"), csv);
+    }
+
+    @Test
+    void toCsvLine() {
+        assertEquals("42,https://example.org/antrag,\"Hundesteuer\",eid,true,LOW",
+                ZufishServices.toCsvLine("42", "https://example.org/antrag", "Hundesteuer", "eid", true, "LOW"));
+        assertEquals("42,\"https://example.org/?a=1,2\",\"Antrag \"\"Wohngeld\"\", online\",,false,\"A\nB\"",
+                ZufishServices.toCsvLine("42", "https://example.org/?a=1,2", "Antrag \"Wohngeld\", online", "",
+                        false, "A\nB"));
+    }
+}